@@ -0,0 +1,182 @@
+package com.camile.playscript.ch4.lexgen;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * 码点的集合，按从小到大排好序、互不相交的闭区间存放：[lo0, hi0, lo1, hi1, ...]。
+ * 与ANTLR一样，全集是0到0x10FFFF的所有码点。对象是不可变的。
+ */
+final class CharSet {
+    static final int MAX = Character.MAX_CODE_POINT;
+
+    static final CharSet EMPTY = new CharSet(new int[0]);
+
+    static final CharSet ALL = of(0, MAX);
+
+    private final int[] ranges;
+
+    private CharSet(int[] ranges) {
+        this.ranges = ranges;
+    }
+
+    static CharSet of(int c) {
+        return of(c, c);
+    }
+
+    static CharSet of(int lo, int hi) {
+        if (lo > hi) {
+            return EMPTY;
+        }
+        return new CharSet(new int[]{lo, hi});
+    }
+
+    /**
+     * 区间的数量
+     */
+    int rangeCount() {
+        return ranges.length / 2;
+    }
+
+    int lo(int range) {
+        return ranges[range * 2];
+    }
+
+    int hi(int range) {
+        return ranges[range * 2 + 1];
+    }
+
+    boolean isEmpty() {
+        return ranges.length == 0;
+    }
+
+    /**
+     * 码点的个数
+     */
+    long size() {
+        long size = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            size += ranges[i + 1] - ranges[i] + 1;
+        }
+        return size;
+    }
+
+    boolean contains(int c) {
+        int low = 0;
+        int high = rangeCount() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (c < lo(mid)) {
+                high = mid - 1;
+            } else if (c > hi(mid)) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    CharSet union(CharSet other) {
+        int[] all = new int[ranges.length + other.ranges.length];
+        //按区间起点归并两个有序的区间表，再合并重叠和相邻的区间
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < ranges.length || j < other.ranges.length) {
+            int lo;
+            int hi;
+            if (j >= other.ranges.length || i < ranges.length && ranges[i] <= other.ranges[j]) {
+                lo = ranges[i];
+                hi = ranges[i + 1];
+                i += 2;
+            } else {
+                lo = other.ranges[j];
+                hi = other.ranges[j + 1];
+                j += 2;
+            }
+            if (n > 0 && lo <= all[n - 1] + 1) {
+                all[n - 1] = Math.max(all[n - 1], hi);
+            } else {
+                all[n++] = lo;
+                all[n++] = hi;
+            }
+        }
+        return new CharSet(Arrays.copyOf(all, n));
+    }
+
+    CharSet complement() {
+        int[] result = new int[ranges.length + 2];
+        int n = 0;
+        int next = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                result[n++] = next;
+                result[n++] = ranges[i] - 1;
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if (next <= MAX) {
+            result[n++] = next;
+            result[n++] = MAX;
+        }
+        return new CharSet(Arrays.copyOf(result, n));
+    }
+
+    CharSet intersect(CharSet other) {
+        return complement().union(other.complement()).complement();
+    }
+
+    /**
+     * 集合中满足条件的码点，用来在生成时计算语义判定
+     *
+     * @param predicate
+     * @return
+     */
+    CharSet filter(IntPredicate predicate) {
+        int[] result = new int[16];
+        int n = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (int c = ranges[i]; c <= ranges[i + 1]; c++) {
+                if (!predicate.test(c)) {
+                    continue;
+                }
+                if (n > 0 && result[n - 1] == c - 1) {
+                    result[n - 1] = c;
+                } else {
+                    if (n == result.length) {
+                        result = Arrays.copyOf(result, n * 2);
+                    }
+                    result[n++] = c;
+                    result[n++] = c;
+                }
+            }
+        }
+        return new CharSet(Arrays.copyOf(result, n));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CharSet && Arrays.equals(ranges, ((CharSet) o).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < ranges.length; i += 2) {
+            sb.append(Integer.toHexString(ranges[i]));
+            if (ranges[i + 1] != ranges[i]) {
+                sb.append('-').append(Integer.toHexString(ranges[i + 1]));
+            }
+            if (i + 2 < ranges.length) {
+                sb.append(' ');
+            }
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,314 @@
+package com.camile.playscript.ch4.lexgen;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 由NFA得到的最小化DFA。
+ * <p>
+ * 码点先按"被哪些字符边接受"划分成若干字符类，同一类中的码点在DFA中的行为完全一样，
+ * 转移表只需要按字符类存放：next[state * classCount + class]。
+ * 状态0是死状态，状态1是初始状态；accept[state]是接受的Token类型，0表示不是接受状态。
+ * <p>
+ * 与ANTLR的语义保持一致：
+ * 1.多个规则同时接受时，取在规则文件中靠前的那个；
+ * 2.用到非贪婪重复（如 .*?）的规则一旦到达接受状态，这条规则就不再往后匹配，
+ * 这相当于ANTLR在匹配到这样的规则之后丢弃经过非贪婪分支的那些配置。
+ */
+final class Dfa {
+    //字符类的数量
+    final int classCount;
+
+    //码点按字符类划分成的连续区间：区间的起点和它所属的字符类，按起点排好序
+    final int[] runStarts;
+    final int[] runClasses;
+
+    //状态的数量，包括死状态
+    final int stateCount;
+    final int[] next;
+    final int[] accept;
+
+    private Dfa(int classCount, int[] runStarts, int[] runClasses, int stateCount, int[] next, int[] accept) {
+        this.classCount = classCount;
+        this.runStarts = runStarts;
+        this.runClasses = runClasses;
+        this.stateCount = stateCount;
+        this.next = next;
+        this.accept = accept;
+    }
+
+    static Dfa build(Nfa nfa) {
+        //1.划分字符类
+        Map<CharSet, Integer> sets = new LinkedHashMap<>();
+        for (Nfa.State state : nfa.states) {
+            if (state.set != null && !sets.containsKey(state.set)) {
+                sets.put(state.set, sets.size());
+            }
+        }
+        int[] bounds = boundaries(sets.keySet());
+        List<CharSet> setList = new ArrayList<>(sets.keySet());
+        Map<BitSet, Integer> signatures = new HashMap<>();
+        List<BitSet> classSignatures = new ArrayList<>();
+        int[] runStarts = new int[bounds.length];
+        int[] runClasses = new int[bounds.length];
+        int runs = 0;
+        for (int b : bounds) {
+            BitSet signature = new BitSet(setList.size());
+            for (int s = 0; s < setList.size(); s++) {
+                if (setList.get(s).contains(b)) {
+                    signature.set(s);
+                }
+            }
+            Integer cls = signatures.get(signature);
+            if (cls == null) {
+                cls = signatures.size();
+                signatures.put(signature, cls);
+                classSignatures.add(signature);
+            }
+            if (runs == 0 || runClasses[runs - 1] != cls) {
+                runStarts[runs] = b;
+                runClasses[runs] = cls;
+                runs++;
+            }
+        }
+        int classCount = signatures.size();
+
+        //每个字符边接受哪些字符类
+        BitSet[] setClasses = new BitSet[setList.size()];
+        for (int s = 0; s < setClasses.length; s++) {
+            setClasses[s] = new BitSet(classCount);
+        }
+        for (int c = 0; c < classCount; c++) {
+            BitSet signature = classSignatures.get(c);
+            for (int s = signature.nextSetBit(0); s >= 0; s = signature.nextSetBit(s + 1)) {
+                setClasses[s].set(c);
+            }
+        }
+        BitSet[] edgeClasses = new BitSet[nfa.states.size()];
+        for (Nfa.State state : nfa.states) {
+            if (state.set != null) {
+                edgeClasses[state.id] = setClasses[sets.get(state.set)];
+            }
+        }
+
+        //2.子集构造
+        int nfaSize = nfa.states.size();
+        List<BitSet> dstates = new ArrayList<>();
+        List<Integer> accepts = new ArrayList<>();
+        Map<BitSet, Integer> ids = new HashMap<>();
+        //死状态
+        dstates.add(new BitSet());
+        accepts.add(0);
+        ids.put(new BitSet(), 0);
+
+        BitSet initial = new BitSet(nfaSize);
+        initial.set(nfa.start.id);
+        add(nfa, closure(nfa, initial), dstates, accepts, ids);
+
+        List<int[]> rows = new ArrayList<>();
+        rows.add(new int[classCount]);
+        for (int d = 1; d < dstates.size(); d++) {
+            BitSet current = dstates.get(d);
+            int[] row = new int[classCount];
+            for (int c = 0; c < classCount; c++) {
+                BitSet target = new BitSet(nfaSize);
+                for (int s = current.nextSetBit(0); s >= 0; s = current.nextSetBit(s + 1)) {
+                    BitSet classes = edgeClasses[s];
+                    if (classes != null && classes.get(c)) {
+                        target.set(nfa.states.get(s).next.id);
+                    }
+                }
+                row[c] = target.isEmpty() ? 0 : add(nfa, closure(nfa, target), dstates, accepts, ids);
+            }
+            rows.add(row);
+        }
+
+        //3.最小化
+        int count = dstates.size();
+        int[] table = new int[count * classCount];
+        int[] acceptTable = new int[count];
+        for (int d = 0; d < count; d++) {
+            System.arraycopy(rows.get(d), 0, table, d * classCount, classCount);
+            acceptTable[d] = accepts.get(d);
+        }
+        return minimize(classCount, Arrays.copyOf(runStarts, runs), Arrays.copyOf(runClasses, runs),
+                count, table, acceptTable);
+    }
+
+    /**
+     * 所有集合的区间边界，加上0，排好序去重。相邻两个边界之间的码点属于同样的集合。
+     */
+    private static int[] boundaries(Iterable<CharSet> sets) {
+        int size = 1;
+        for (CharSet set : sets) {
+            size += set.rangeCount() * 2;
+        }
+        int[] bounds = new int[size];
+        int n = 0;
+        bounds[n++] = 0;
+        for (CharSet set : sets) {
+            for (int r = 0; r < set.rangeCount(); r++) {
+                bounds[n++] = set.lo(r);
+                if (set.hi(r) < CharSet.MAX) {
+                    bounds[n++] = set.hi(r) + 1;
+                }
+            }
+        }
+        bounds = Arrays.copyOf(bounds, n);
+        Arrays.sort(bounds);
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique == 0 || bounds[unique - 1] != bounds[i]) {
+                bounds[unique++] = bounds[i];
+            }
+        }
+        return Arrays.copyOf(bounds, unique);
+    }
+
+    private static BitSet closure(Nfa nfa, BitSet states) {
+        BitSet result = (BitSet) states.clone();
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (int s = states.nextSetBit(0); s >= 0; s = states.nextSetBit(s + 1)) {
+            stack.push(s);
+        }
+        while (!stack.isEmpty()) {
+            for (Nfa.State target : nfa.states.get(stack.pop()).epsilon) {
+                if (!result.get(target.id)) {
+                    result.set(target.id);
+                    stack.push(target.id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 查找或者新建NFA状态集合对应的DFA状态
+     *
+     * @return DFA状态的编号
+     */
+    private static int add(Nfa nfa, BitSet states, List<BitSet> dstates, List<Integer> accepts, Map<BitSet, Integer> ids) {
+        //规则越靠前，优先级越高
+        int rule = -1;
+        for (int s = states.nextSetBit(0); s >= 0; s = states.nextSetBit(s + 1)) {
+            int accept = nfa.states.get(s).accept;
+            if (accept >= 0 && (rule < 0 || accept < rule)) {
+                rule = accept;
+            }
+        }
+        //非贪婪的规则到达接受状态以后不再继续
+        for (int s = states.nextSetBit(0); s >= 0; s = states.nextSetBit(s + 1)) {
+            Nfa.State state = nfa.states.get(s);
+            if (state.accept >= 0 && nfa.nonGreedy[state.accept]) {
+                for (int t = states.nextSetBit(0); t >= 0; t = states.nextSetBit(t + 1)) {
+                    if (nfa.states.get(t).rule == state.accept && nfa.states.get(t).accept < 0) {
+                        states.clear(t);
+                    }
+                }
+            }
+        }
+        //接受的规则也是状态的一部分：两个状态可能往后的转移相同，但接受的Token不同
+        BitSet key = (BitSet) states.clone();
+        key.set(nfa.states.size() + rule + 1);
+
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = dstates.size();
+            dstates.add(states);
+            accepts.add(rule + 1);
+            ids.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * 反复按"接受的Token和每个字符类的目标"细分状态，直到不再变化，每一组合并成一个状态。
+     * 永远到不了接受状态的状态都会与死状态合并。
+     */
+    private static Dfa minimize(int classCount, int[] runStarts, int[] runClasses,
+                                int count, int[] table, int[] accept) {
+        int[] block = new int[count];
+        Map<Integer, Integer> initial = new HashMap<>();
+        //死状态（不接受任何Token）所在的组编号为0
+        initial.put(0, 0);
+        for (int d = 0; d < count; d++) {
+            Integer b = initial.get(accept[d]);
+            if (b == null) {
+                b = initial.size();
+                initial.put(accept[d], b);
+            }
+            block[d] = b;
+        }
+        int blocks = initial.size();
+        while (true) {
+            Map<List<Integer>, Integer> signatures = new HashMap<>();
+            int[] refined = new int[count];
+            //死状态先分组，保证它仍然在0号组
+            for (int d = 0; d < count; d++) {
+                List<Integer> signature = new ArrayList<>(classCount + 1);
+                signature.add(block[d]);
+                for (int c = 0; c < classCount; c++) {
+                    signature.add(block[table[d * classCount + c]]);
+                }
+                Integer b = signatures.get(signature);
+                if (b == null) {
+                    b = signatures.size();
+                    signatures.put(signature, b);
+                }
+                refined[d] = b;
+            }
+            block = refined;
+            if (signatures.size() == blocks) {
+                break;
+            }
+            blocks = signatures.size();
+        }
+
+        //重新编号：死状态为0，初始状态为1，其余按广度优先的顺序
+        int[] number = new int[blocks];
+        Arrays.fill(number, -1);
+        int[] representative = new int[blocks];
+        number[block[0]] = 0;
+        representative[block[0]] = 0;
+        int states = 1;
+        Deque<Integer> queue = new ArrayDeque<>();
+        if (number[block[1]] < 0) {
+            number[block[1]] = states++;
+            representative[block[1]] = 1;
+            queue.add(1);
+        }
+        while (!queue.isEmpty()) {
+            int d = queue.poll();
+            for (int c = 0; c < classCount; c++) {
+                int target = table[d * classCount + c];
+                if (number[block[target]] < 0) {
+                    number[block[target]] = states++;
+                    representative[block[target]] = target;
+                    queue.add(target);
+                }
+            }
+        }
+
+        int[] next = new int[states * classCount];
+        int[] accepts = new int[states];
+        for (int b = 0; b < blocks; b++) {
+            int s = number[b];
+            if (s <= 0) {
+                continue;
+            }
+            int d = representative[b];
+            accepts[s] = accept[d];
+            for (int c = 0; c < classCount; c++) {
+                next[s * classCount + c] = number[block[table[d * classCount + c]]];
+            }
+        }
+        return new Dfa(classCount, runStarts, runClasses, states, next, accepts);
+    }
+}
@@ -0,0 +1,488 @@
+package com.camile.playscript.ch4.lexgen;
+
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Chars;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Choice;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Node;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Predicate;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Repeat;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Rule;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.RuleRef;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Sequence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 读取.g4格式的词法规则文件，用的是手写的递归下降算法。
+ * 支持ANTLR词法规则中常用的部分：fragment、字符串、字符集合、'a'..'z'、.、~、
+ * 括号、?、*、+和它们的非贪婪形式、语义判定，以及 -> skip 和 -> channel(...) 两个命令。
+ * 遇到不支持的写法（mode、actions、tokens{}等）直接报错，而不是生成一个行为不同的词法解析器。
+ */
+final class GrammarReader {
+    private final String text;
+    private final String file;
+    private int pos = 0;
+    private int line = 1;
+
+    private GrammarReader(String text, String file) {
+        this.text = text;
+        this.file = file;
+    }
+
+    /**
+     * @param text 规则文件的内容
+     * @param file 文件名，只用在错误信息中
+     * @return
+     */
+    static LexerGrammar read(String text, String file) {
+        return new GrammarReader(text, file).grammar();
+    }
+
+    private LexerGrammar grammar() {
+        String word = identifier();
+        if (!word.equals("lexer")) {
+            throw error("only lexer grammars are supported");
+        }
+        if (!identifier().equals("grammar")) {
+            throw error("expecting 'grammar'");
+        }
+        LexerGrammar grammar = new LexerGrammar(identifier());
+        expect(';');
+
+        while (!atEnd()) {
+            int ruleLine = line;
+            String name = identifier();
+            boolean fragment = false;
+            if (name.equals("fragment")) {
+                fragment = true;
+                name = identifier();
+            } else if (name.equals("options") || name.equals("tokens") || name.equals("channels")
+                    || name.equals("mode") || name.equals("import")) {
+                throw error("'" + name + "' is not supported");
+            }
+            if (!Character.isUpperCase(name.charAt(0))) {
+                throw error("lexer rule names must start with an uppercase letter: " + name);
+            }
+            expect(':');
+
+            //规则顶层的每个分支后面都可以跟命令，这里要求它们一致，作用于整条规则
+            List<Node> alternatives = new ArrayList<>();
+            String commands = null;
+            while (true) {
+                alternatives.add(sequence());
+                if (peekArrow()) {
+                    pos += 2;
+                    String current = commands();
+                    if (commands != null && !commands.equals(current)) {
+                        throw error("alternatives of " + name + " have different commands");
+                    }
+                    commands = current;
+                }
+                if (!accept('|')) {
+                    break;
+                }
+            }
+            expect(';');
+
+            Rule rule = new Rule(name, fragment, choice(alternatives), ruleLine);
+            if (commands != null) {
+                if (fragment) {
+                    throw error("fragment " + name + " can't have commands");
+                }
+                applyCommands(rule, commands);
+            }
+            grammar.add(rule);
+        }
+        return grammar;
+    }
+
+    /**
+     * 读取 -> 后面的命令，返回规范化的文本
+     */
+    private String commands() {
+        StringBuilder sb = new StringBuilder();
+        do {
+            String command = identifier();
+            sb.append(command);
+            if (accept('(')) {
+                sb.append('(').append(identifier()).append(')');
+                expect(')');
+            }
+            sb.append(',');
+        } while (accept(','));
+        return sb.toString();
+    }
+
+    private void applyCommands(Rule rule, String commands) {
+        for (String command : commands.split(",")) {
+            if (command.equals("skip")) {
+                rule.skip = true;
+            } else if (command.startsWith("channel(")) {
+                String channel = command.substring(8, command.length() - 1);
+                if (channel.equals("HIDDEN")) {
+                    rule.channel = 1;
+                } else if (channel.equals("DEFAULT_TOKEN_CHANNEL")) {
+                    rule.channel = 0;
+                } else if (channel.chars().allMatch(Character::isDigit)) {
+                    rule.channel = Integer.parseInt(channel);
+                } else {
+                    throw error("unknown channel " + channel);
+                }
+            } else {
+                throw error("lexer command '" + command + "' is not supported");
+            }
+        }
+    }
+
+    private Node alternatives() {
+        List<Node> alternatives = new ArrayList<>();
+        do {
+            alternatives.add(sequence());
+            if (peekArrow()) {
+                throw error("lexer commands are only allowed at the end of a rule");
+            }
+        } while (accept('|'));
+        return choice(alternatives);
+    }
+
+    private static Node choice(List<Node> alternatives) {
+        return alternatives.size() == 1 ? alternatives.get(0) : new Choice(alternatives);
+    }
+
+    private Node sequence() {
+        List<Node> items = new ArrayList<>();
+        while (true) {
+            skipSpace();
+            if (atEnd() || peek() == '|' || peek() == ')' || peek() == ';' || peekArrow()) {
+                break;
+            }
+            items.add(element());
+        }
+        return items.size() == 1 ? items.get(0) : new Sequence(items);
+    }
+
+    private Node element() {
+        Node atom = atom();
+        if (atom instanceof Predicate) {
+            return atom;
+        }
+        skipSpace();
+        if (atEnd()) {
+            return atom;
+        }
+        char c = peek();
+        if (c == '?' || c == '*' || c == '+') {
+            pos++;
+            boolean greedy = !(pos < text.length() && text.charAt(pos) == '?');
+            if (!greedy) {
+                pos++;
+            }
+            return new Repeat(atom, c != '+', c != '?', greedy);
+        }
+        return atom;
+    }
+
+    private Node atom() {
+        skipSpace();
+        if (atEnd()) {
+            throw error("unexpected end of file");
+        }
+        char c = peek();
+        switch (c) {
+            case '\'': {
+                List<Integer> chars = literal();
+                skipSpace();
+                if (text.startsWith("..", pos)) {
+                    pos += 2;
+                    skipSpace();
+                    List<Integer> to = literal();
+                    if (chars.size() != 1 || to.size() != 1) {
+                        throw error("ranges must be between single characters");
+                    }
+                    return new Chars(CharSet.of(chars.get(0), to.get(0)));
+                }
+                if (chars.isEmpty()) {
+                    throw error("empty string literal");
+                }
+                List<Node> items = new ArrayList<>();
+                for (int ch : chars) {
+                    items.add(new Chars(CharSet.of(ch)));
+                }
+                return items.size() == 1 ? items.get(0) : new Sequence(items);
+            }
+            case '[':
+                return new Chars(set());
+            case '.':
+                pos++;
+                return new Chars(CharSet.ALL);
+            case '~': {
+                pos++;
+                CharSet set = setOf(atom());
+                if (set == null) {
+                    throw error("~ can only be applied to a set of characters");
+                }
+                return new Chars(set.complement());
+            }
+            case '(': {
+                pos++;
+                Node node = alternatives();
+                expect(')');
+                return node;
+            }
+            case '{': {
+                int actionLine = line;
+                String code = action();
+                if (pos < text.length() && text.charAt(pos) == '?') {
+                    pos++;
+                    return new Predicate(code, actionLine);
+                }
+                throw error("actions are not supported");
+            }
+            default:
+                if (Character.isLetter(c)) {
+                    int refLine = line;
+                    String name = identifier();
+                    if (name.equals("EOF")) {
+                        throw error("EOF is not supported");
+                    }
+                    return new RuleRef(name, refLine);
+                }
+                throw error("unexpected '" + c + "'");
+        }
+    }
+
+    /**
+     * 只匹配单个字符的元素所对应的集合，不是这样的元素则返回null
+     */
+    private static CharSet setOf(Node node) {
+        if (node instanceof Chars) {
+            return ((Chars) node).set;
+        }
+        if (node instanceof Choice) {
+            CharSet set = CharSet.EMPTY;
+            for (Node alternative : ((Choice) node).alternatives) {
+                CharSet part = setOf(alternative);
+                if (part == null) {
+                    return null;
+                }
+                set = set.union(part);
+            }
+            return set;
+        }
+        return null;
+    }
+
+    /**
+     * 字符串字面量中的码点
+     */
+    private List<Integer> literal() {
+        expect('\'');
+        List<Integer> chars = new ArrayList<>();
+        while (true) {
+            if (pos >= text.length() || peek() == '\n') {
+                throw error("unterminated string literal");
+            }
+            if (peek() == '\'') {
+                pos++;
+                return chars;
+            }
+            chars.add(character());
+        }
+    }
+
+    private CharSet set() {
+        expect('[');
+        CharSet set = CharSet.EMPTY;
+        while (true) {
+            if (pos >= text.length()) {
+                throw error("unterminated character set");
+            }
+            if (peek() == ']') {
+                pos++;
+                return set;
+            }
+            int lo = character();
+            int hi = lo;
+            if (pos + 1 < text.length() && text.charAt(pos) == '-' && text.charAt(pos + 1) != ']') {
+                pos++;
+                hi = character();
+                if (hi < lo) {
+                    throw error("invalid range in character set");
+                }
+            }
+            set = set.union(CharSet.of(lo, hi));
+        }
+    }
+
+    /**
+     * 字符串或字符集合中的一个码点，处理转义
+     */
+    private int character() {
+        int c = text.codePointAt(pos);
+        pos += Character.charCount(c);
+        if (c != '\\') {
+            if (c == '\n') {
+                line++;
+            }
+            return c;
+        }
+        if (pos >= text.length()) {
+            throw error("unterminated escape sequence");
+        }
+        char e = text.charAt(pos++);
+        switch (e) {
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case '\\':
+            case '\'':
+            case '"':
+            case ']':
+            case '[':
+            case '-':
+                return e;
+            case 'u':
+                if (pos < text.length() && text.charAt(pos) == '{') {
+                    int close = text.indexOf('}', pos);
+                    if (close < 0) {
+                        throw error("invalid unicode escape");
+                    }
+                    int value = hex(pos + 1, close);
+                    pos = close + 1;
+                    return value;
+                }
+                if (pos + 4 > text.length()) {
+                    throw error("invalid unicode escape");
+                }
+                int value = hex(pos, pos + 4);
+                pos += 4;
+                return value;
+            default:
+                throw error("invalid escape sequence \\" + e);
+        }
+    }
+
+    private int hex(int from, int to) {
+        try {
+            int value = Integer.parseInt(text.substring(from, to), 16);
+            if (value > CharSet.MAX || from == to) {
+                throw error("invalid unicode escape");
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw error("invalid unicode escape");
+        }
+    }
+
+    /**
+     * 花括号中的代码，括号要配对，代码中的字符串和字符常量不算
+     */
+    private String action() {
+        expect('{');
+        int start = pos;
+        int depth = 1;
+        while (depth > 0) {
+            if (pos >= text.length()) {
+                throw error("unterminated action");
+            }
+            char c = text.charAt(pos++);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            } else if (c == '\n') {
+                line++;
+            } else if (c == '"' || c == '\'') {
+                while (pos < text.length() && text.charAt(pos) != c) {
+                    pos += text.charAt(pos) == '\\' ? 2 : 1;
+                }
+                pos++;
+            }
+        }
+        return text.substring(start, pos - 1).trim();
+    }
+
+    private String identifier() {
+        skipSpace();
+        int start = pos;
+        while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_')) {
+            pos++;
+        }
+        if (pos == start || !Character.isLetter(text.charAt(start))) {
+            throw error(atEnd() ? "unexpected end of file" : "expecting a name but found '" + peek() + "'");
+        }
+        return text.substring(start, pos);
+    }
+
+    private void expect(char c) {
+        if (!accept(c)) {
+            throw error(atEnd() ? "expecting '" + c + "' but reached end of file" : "expecting '" + c + "' but found '" + peek() + "'");
+        }
+    }
+
+    private boolean accept(char c) {
+        skipSpace();
+        if (pos < text.length() && text.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean peekArrow() {
+        skipSpace();
+        return text.startsWith("->", pos);
+    }
+
+    private char peek() {
+        return text.charAt(pos);
+    }
+
+    private boolean atEnd() {
+        skipSpace();
+        return pos >= text.length();
+    }
+
+    /**
+     * 跳过空白和注释
+     */
+    private void skipSpace() {
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '\n') {
+                line++;
+                pos++;
+            } else if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (text.startsWith("//", pos)) {
+                while (pos < text.length() && text.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else if (text.startsWith("/*", pos)) {
+                int end = text.indexOf("*/", pos + 2);
+                if (end < 0) {
+                    throw error("unterminated comment");
+                }
+                for (int i = pos; i < end; i++) {
+                    if (text.charAt(i) == '\n') {
+                        line++;
+                    }
+                }
+                pos = end + 2;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(file + ":" + line + ": " + message);
+    }
+}
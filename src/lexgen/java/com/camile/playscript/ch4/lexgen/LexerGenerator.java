@@ -0,0 +1,381 @@
+package com.camile.playscript.ch4.lexgen;
+
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Rule;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * 词法解析器生成器：读入.g4格式的词法规则，在生成时就构造出最小化的DFA，
+ * 输出一个自包含的Java类。生成的类只依赖JDK，运行时没有ATN需要反序列化，
+ * 转移表以字符串常量的形式放在类文件中，加载类时直接转成数组。
+ * <p>
+ * 生成的类名是规则文件名加上Dfa，比如Hello.g4生成HelloDfa，Token类型与ANTLR生成的词法解析器相同。
+ * 构建时由LexerGeneratorProcessor调用，也可以直接运行：
+ * <p>
+ * java -cp target/lexgen-classes com.camile.playscript.ch4.lexgen.LexerGenerator 输出目录 包名 规则文件...
+ */
+public final class LexerGenerator {
+    //转移表太大时分成几个字符串常量，每个常量在类文件中不能超过65535字节
+    private static final int CHUNK = 8192;
+
+    private final LexerGrammar grammar;
+    private final String file;
+    private final Dfa dfa;
+
+    /**
+     * @param text 规则文件的内容
+     * @param file 规则文件的名字，只用于错误信息和生成的注释
+     */
+    public LexerGenerator(String text, String file) {
+        this.file = file;
+        this.grammar = GrammarReader.read(text, file);
+        if (grammar.tokenRules().isEmpty()) {
+            throw new IllegalArgumentException(file + ": no token rules");
+        }
+        this.dfa = Dfa.build(Nfa.build(grammar, file));
+        if (dfa.stateCount > Character.MAX_VALUE || dfa.classCount > Character.MAX_VALUE) {
+            throw new IllegalArgumentException(file + ": DFA is too large");
+        }
+    }
+
+    /**
+     * 生成的类名
+     *
+     * @return
+     */
+    public String getClassName() {
+        return grammar.name + "Dfa";
+    }
+
+    /**
+     * 最小化以后DFA的状态数，包括死状态
+     *
+     * @return
+     */
+    public int getStateCount() {
+        return dfa.stateCount;
+    }
+
+    /**
+     * 生成Java源代码
+     *
+     * @param packageName 包名，为空时生成在默认包中
+     * @return
+     */
+    public String generate(String packageName) {
+        List<Rule> rules = grammar.tokenRules();
+        String className = getClassName();
+        StringBuilder out = new StringBuilder();
+        out.append("// Generated from ").append(file).append(" by LexerGenerator, do not edit\n");
+        if (packageName != null && !packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n");
+        }
+        out.append("\n");
+        out.append("/**\n");
+        out.append(" * 由").append(file).append("生成的词法解析器。\n");
+        out.append(" * 词法规则在生成时已经编译成最小化的DFA（").append(dfa.stateCount).append("个状态，")
+                .append(dfa.classCount).append("个字符类），运行时只是查表，不依赖antlr4-runtime。\n");
+        out.append(" * 与ANTLR一样取最长匹配，输入按Unicode码点处理；遇到无法识别的字符时，\n");
+        out.append(" * 跳过已经读入的字符和出错的那个码点。Token类型与ANTLR生成的").append(grammar.name).append("相同。\n");
+        out.append(" */\n");
+        out.append("public final class ").append(className).append(" {\n\n");
+
+        out.append("    /**\n");
+        out.append("     * 共用的实例，没有实例状态，可以被多个线程同时使用\n");
+        out.append("     */\n");
+        out.append("    public static final ").append(className).append(" INSTANCE = new ").append(className).append("();\n\n");
+
+        out.append("    /**\n");
+        out.append("     * 接收扫描出来的Token\n");
+        out.append("     */\n");
+        out.append("    public interface Sink {\n");
+        out.append("        /**\n");
+        out.append("         * @param type  Token类型\n");
+        out.append("         * @param start 起始位置（包含）\n");
+        out.append("         * @param end   结束位置（不包含）\n");
+        out.append("         */\n");
+        out.append("        void token(int type, int start, int end);\n");
+        out.append("    }\n\n");
+
+        for (int i = 0; i < rules.size(); i++) {
+            out.append("    public static final int ").append(rules.get(i).name).append(" = ").append(i + 1).append(";\n");
+        }
+        out.append("\n");
+        out.append("    public static final int DEFAULT_CHANNEL = 0;\n");
+        out.append("    public static final int HIDDEN = 1;\n\n");
+
+        out.append("    private static final String[] TOKEN_NAMES = {\n            null");
+        for (Rule rule : rules) {
+            out.append(", \"").append(rule.name).append('"');
+        }
+        out.append("};\n\n");
+
+        out.append("    //被skip的Token不交给Sink\n");
+        out.append("    private static final boolean[] SKIP = new boolean[").append(rules.size() + 1).append("];\n\n");
+        out.append("    static {\n");
+        for (Rule rule : rules) {
+            if (rule.skip) {
+                out.append("        SKIP[").append(rule.name).append("] = true;\n");
+            }
+        }
+        out.append("    }\n\n");
+
+        out.append("    //字符类的数量\n");
+        out.append("    private static final int CLASSES = ").append(dfa.classCount).append(";\n\n");
+        out.append("    //ASCII字符所属的字符类\n");
+        out.append("    private static final char[] ASCII_CLASSES = ");
+        char[] ascii = new char[128];
+        for (int c = 0; c < 128; c++) {
+            ascii[c] = (char) classOf(c);
+        }
+        literal(out, ascii, 0, ascii.length);
+        out.append(".toCharArray();\n\n");
+
+        out.append("    //非ASCII码点按字符类划分成的区间：区间的起点（每个起点占两个char）和它所属的字符类\n");
+        int first = 0;
+        while (first + 1 < dfa.runStarts.length && dfa.runStarts[first + 1] <= 128) {
+            first++;
+        }
+        int runs = dfa.runStarts.length - first;
+        char[] starts = new char[runs * 2];
+        char[] classes = new char[runs];
+        for (int r = 0; r < runs; r++) {
+            int start = Math.max(128, dfa.runStarts[first + r]);
+            starts[r * 2] = (char) (start >>> 16);
+            starts[r * 2 + 1] = (char) start;
+            classes[r] = (char) dfa.runClasses[first + r];
+        }
+        out.append("    private static final int[] RUN_STARTS = ints(");
+        chunks(out, starts);
+        out.append(");\n");
+        out.append("    private static final char[] RUN_CLASSES = chars(");
+        chunks(out, classes);
+        out.append(");\n\n");
+
+        out.append("    //转移表：NEXT[状态 * CLASSES + 字符类]是下一个状态，0是死状态，1是初始状态\n");
+        char[] next = new char[dfa.next.length];
+        for (int i = 0; i < next.length; i++) {
+            next[i] = (char) dfa.next[i];
+        }
+        out.append("    private static final char[] NEXT = chars(");
+        chunks(out, next);
+        out.append(");\n\n");
+
+        out.append("    //每个状态接受的Token类型，0表示不是接受状态\n");
+        char[] accept = new char[dfa.accept.length];
+        for (int i = 0; i < accept.length; i++) {
+            accept[i] = (char) dfa.accept[i];
+        }
+        out.append("    private static final char[] ACCEPT = chars(");
+        chunks(out, accept);
+        out.append(");\n\n");
+
+        out.append(SCAN);
+
+        out.append("    /**\n");
+        out.append("     * Token所在的通道\n");
+        out.append("     *\n");
+        out.append("     * @param type\n");
+        out.append("     * @return\n");
+        out.append("     */\n");
+        out.append("    public static int channelOf(int type) {\n");
+        boolean channels = false;
+        for (Rule rule : rules) {
+            if (rule.channel != 0) {
+                if (!channels) {
+                    out.append("        switch (type) {\n");
+                    channels = true;
+                }
+                out.append("            case ").append(rule.name).append(":\n");
+                out.append("                return ").append(rule.channel == 1 ? "HIDDEN" : String.valueOf(rule.channel)).append(";\n");
+            }
+        }
+        if (channels) {
+            out.append("            default:\n");
+            out.append("                return DEFAULT_CHANNEL;\n");
+            out.append("        }\n");
+        } else {
+            out.append("        return DEFAULT_CHANNEL;\n");
+        }
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * Token类型的名字，也就是规则的名字\n");
+        out.append("     *\n");
+        out.append("     * @param type\n");
+        out.append("     * @return\n");
+        out.append("     */\n");
+        out.append("    public static String tokenName(int type) {\n");
+        out.append("        return type > 0 && type < TOKEN_NAMES.length ? TOKEN_NAMES[type] : null;\n");
+        out.append("    }\n\n");
+
+        out.append(HELPERS);
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private int classOf(int c) {
+        int low = 0;
+        int high = dfa.runStarts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (dfa.runStarts[mid] <= c) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return dfa.runClasses[low];
+    }
+
+    /**
+     * 把字符数组写成一个或几个字符串常量，用逗号分开
+     */
+    private static void chunks(StringBuilder out, char[] chars) {
+        if (chars.length == 0) {
+            out.append("\"\"");
+            return;
+        }
+        for (int from = 0; from < chars.length; from += CHUNK) {
+            if (from > 0) {
+                out.append(",\n            ");
+            }
+            literal(out, chars, from, Math.min(chars.length, from + CHUNK));
+        }
+    }
+
+    private static void literal(StringBuilder out, char[] chars, int from, int to) {
+        out.append('"');
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+            //javac在词法分析之前就会把\\uXXXX替换掉，换行和引号等字符只能用八进制转义
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c >= 0x20 && c < 0x7F) {
+                out.append(c);
+            } else if (c < 0x80) {
+                out.append(String.format("\\%03o", (int) c));
+            } else {
+                out.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        out.append('"');
+    }
+
+    //扫描的代码与规则无关，每个生成的类都一样
+    private static final String SCAN = ""
+            + "    /**\n"
+            + "     * 扫描code中[from, to)这一段，把Token依次交给sink，被skip的Token不交给sink\n"
+            + "     *\n"
+            + "     * @param code\n"
+            + "     * @param from\n"
+            + "     * @param to\n"
+            + "     * @param sink\n"
+            + "     */\n"
+            + "    public void scan(CharSequence code, int from, int to, Sink sink) {\n"
+            + "        final char[] next = NEXT;\n"
+            + "        final char[] accept = ACCEPT;\n"
+            + "        int i = from;\n"
+            + "        while (i < to) {\n"
+            + "            int start = i;\n"
+            + "            int state = 1;\n"
+            + "            int type = 0;\n"
+            + "            int end = start;\n"
+            + "            //沿着DFA一直走到死状态，记住最后一次经过的接受状态\n"
+            + "            while (i < to) {\n"
+            + "                char c = code.charAt(i);\n"
+            + "                int width = 1;\n"
+            + "                int cls;\n"
+            + "                if (c < 128) {\n"
+            + "                    cls = ASCII_CLASSES[c];\n"
+            + "                } else {\n"
+            + "                    int cp = c;\n"
+            + "                    if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(code.charAt(i + 1))) {\n"
+            + "                        cp = Character.toCodePoint(c, code.charAt(i + 1));\n"
+            + "                        width = 2;\n"
+            + "                    }\n"
+            + "                    cls = classOf(cp);\n"
+            + "                }\n"
+            + "                state = next[state * CLASSES + cls];\n"
+            + "                if (state == 0) {\n"
+            + "                    break;\n"
+            + "                }\n"
+            + "                i += width;\n"
+            + "                if (accept[state] != 0) {\n"
+            + "                    type = accept[state];\n"
+            + "                    end = i;\n"
+            + "                }\n"
+            + "            }\n"
+            + "            if (type == 0) {\n"
+            + "                //出错：与ANTLR一样，跳过已经读入的字符和出错的那个码点\n"
+            + "                i = i < to ? i + width(code, i, to) : to;\n"
+            + "                continue;\n"
+            + "            }\n"
+            + "            i = end;\n"
+            + "            if (!SKIP[type]) {\n"
+            + "                sink.token(type, start, end);\n"
+            + "            }\n"
+            + "        }\n"
+            + "    }\n\n";
+
+    private static final String HELPERS = ""
+            + "    private static int classOf(int cp) {\n"
+            + "        int low = 0;\n"
+            + "        int high = RUN_CLASSES.length - 1;\n"
+            + "        while (low < high) {\n"
+            + "            int mid = (low + high + 1) >>> 1;\n"
+            + "            if (RUN_STARTS[mid] <= cp) {\n"
+            + "                low = mid;\n"
+            + "            } else {\n"
+            + "                high = mid - 1;\n"
+            + "            }\n"
+            + "        }\n"
+            + "        return RUN_CLASSES[low];\n"
+            + "    }\n\n"
+            + "    private static int width(CharSequence code, int i, int to) {\n"
+            + "        return Character.isHighSurrogate(code.charAt(i)) && i + 1 < to && Character.isLowSurrogate(code.charAt(i + 1)) ? 2 : 1;\n"
+            + "    }\n\n"
+            + "    private static char[] chars(String... parts) {\n"
+            + "        StringBuilder sb = new StringBuilder();\n"
+            + "        for (String part : parts) {\n"
+            + "            sb.append(part);\n"
+            + "        }\n"
+            + "        return sb.toString().toCharArray();\n"
+            + "    }\n\n"
+            + "    private static int[] ints(String... parts) {\n"
+            + "        char[] chars = chars(parts);\n"
+            + "        int[] result = new int[chars.length / 2];\n"
+            + "        for (int i = 0; i < result.length; i++) {\n"
+            + "            result[i] = chars[i * 2] << 16 | chars[i * 2 + 1];\n"
+            + "        }\n"
+            + "        return result;\n"
+            + "    }\n";
+
+    /**
+     * @param args 输出目录、包名，以及一个或多个规则文件
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("usage: LexerGenerator <output directory> <package> <grammar.g4>...");
+            System.exit(1);
+        }
+        Path output = Paths.get(args[0]);
+        String packageName = args[1];
+        Path directory = packageName.isEmpty() ? output : output.resolve(packageName.replace('.', '/'));
+        Files.createDirectories(directory);
+        for (int i = 2; i < args.length; i++) {
+            Path grammar = Paths.get(args[i]);
+            LexerGenerator generator = new LexerGenerator(
+                    new String(Files.readAllBytes(grammar), StandardCharsets.UTF_8), grammar.getFileName().toString());
+            Path target = directory.resolve(generator.getClassName() + ".java");
+            Files.write(target, generator.generate(packageName).getBytes(StandardCharsets.UTF_8));
+            System.out.println(grammar + " -> " + target + " (" + generator.getStateCount() + " states)");
+        }
+    }
+}
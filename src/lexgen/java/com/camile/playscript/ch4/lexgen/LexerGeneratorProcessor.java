@@ -0,0 +1,121 @@
+package com.camile.playscript.ch4.lexgen;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * 在构建的generate-sources阶段运行LexerGenerator。
+ * 离线的构建环境中只有maven-compiler-plugin，没有exec这样的插件，所以借javac的注解处理器来执行生成器：
+ * pom.xml中先把生成器单独编译到target/lexgen-classes，再以proc=only运行这个类，它不处理任何注解，
+ * 只把生成的源代码写到lexgen.output目录，之后由default-compile与其他代码一起编译。
+ * 生成器本身不在运行时的classpath上。
+ * <p>
+ * 生成的源代码比规则文件和生成器都新时不再重新生成，所以只有修改了.g4文件或者生成器本身才会重新生成。
+ * 生成器的时间取它所在目录下最新的.class文件，修改Dfa、Nfa、GrammarReader这些类也会重新生成。
+ * <p>
+ * 选项：
+ * -Alexgen.grammars=规则文件的路径，多个文件用逗号分开
+ * -Alexgen.package=生成的类所在的包
+ * -Alexgen.output=生成的源代码的根目录
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions({LexerGeneratorProcessor.GRAMMARS, LexerGeneratorProcessor.PACKAGE, LexerGeneratorProcessor.OUTPUT})
+public class LexerGeneratorProcessor extends AbstractProcessor {
+    static final String GRAMMARS = "lexgen.grammars";
+    static final String PACKAGE = "lexgen.package";
+    static final String OUTPUT = "lexgen.output";
+
+    private boolean generated = false;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        //只在第一轮生成
+        if (generated) {
+            return false;
+        }
+        generated = true;
+
+        String grammars = processingEnv.getOptions().get(GRAMMARS);
+        String output = processingEnv.getOptions().get(OUTPUT);
+        if (grammars == null || grammars.trim().isEmpty() || output == null) {
+            return false;
+        }
+        String packageName = processingEnv.getOptions().getOrDefault(PACKAGE, "");
+        Path directory = packageName.isEmpty() ? Paths.get(output) : Paths.get(output, packageName.split("\\."));
+        FileTime generatorTime = generatorTime();
+        for (String name : grammars.split(",")) {
+            Path grammar = Paths.get(name.trim());
+            try {
+                //生成的类名是规则文件名加上Dfa，先看看是否已经是最新的
+                String fileName = grammar.getFileName().toString();
+                Path target = directory.resolve(fileName.substring(0, fileName.lastIndexOf('.')) + "Dfa.java");
+                if (Files.exists(target) && !isOlder(target, grammar) && !isOlder(target, generatorTime)) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, target + " is up to date");
+                    continue;
+                }
+                LexerGenerator generator = new LexerGenerator(
+                        new String(Files.readAllBytes(grammar), StandardCharsets.UTF_8), fileName);
+                target = directory.resolve(generator.getClassName() + ".java");
+                Files.createDirectories(directory);
+                Files.write(target, generator.generate(packageName).getBytes(StandardCharsets.UTF_8));
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                        grammar + " -> " + target + " (" + generator.getStateCount() + " states)");
+            } catch (IOException | IllegalArgumentException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "can't generate lexer from " + grammar + ": " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOlder(Path file, Path than) throws IOException {
+        return isOlder(file, Files.getLastModifiedTime(than));
+    }
+
+    private static boolean isOlder(Path file, FileTime than) throws IOException {
+        return than == null || Files.getLastModifiedTime(file).compareTo(than) < 0;
+    }
+
+    /**
+     * 生成器各个类中最新的修改时间，也就是LexerGenerator.class所在目录下最新的.class文件。
+     * 生成器的类都在这个包里，修改其中任何一个都要重新生成。
+     * 不在目录中（比如打在jar里）或者读不到时返回null，这时总是重新生成
+     */
+    private static FileTime generatorTime() {
+        try {
+            Path directory = Paths.get(LexerGenerator.class.getResource("LexerGenerator.class").toURI()).getParent();
+            FileTime newest = null;
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (file.toString().endsWith(".class")) {
+                        FileTime time = Files.getLastModifiedTime(file);
+                        if (newest == null || time.compareTo(newest) > 0) {
+                            newest = time;
+                        }
+                    }
+                }
+            }
+            return newest;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.camile.playscript.ch4.lexgen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 读入的词法规则文件（lexer grammar）。
+ * 每条规则的右边是一棵很简单的树：字符集合、序列、选择、重复、规则引用和语义判定。
+ */
+final class LexerGrammar {
+    final String name;
+
+    //按出现顺序排列的全部规则，包括fragment
+    private final Map<String, Rule> rules = new LinkedHashMap<>();
+
+    LexerGrammar(String name) {
+        this.name = name;
+    }
+
+    void add(Rule rule) {
+        if (rules.containsKey(rule.name)) {
+            throw new IllegalArgumentException("line " + rule.line + ": rule " + rule.name + " redefined");
+        }
+        rules.put(rule.name, rule);
+    }
+
+    Rule rule(String name) {
+        return rules.get(name);
+    }
+
+    /**
+     * 生成Token的规则（不是fragment），按Token类型排列，类型从1开始
+     */
+    List<Rule> tokenRules() {
+        List<Rule> result = new ArrayList<>();
+        for (Rule rule : rules.values()) {
+            if (!rule.fragment) {
+                result.add(rule);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    static final class Rule {
+        final String name;
+        final boolean fragment;
+        final Node body;
+        final int line;
+
+        //-> skip
+        boolean skip = false;
+        //-> channel(...)，0是默认通道
+        int channel = 0;
+
+        Rule(String name, boolean fragment, Node body, int line) {
+            this.name = name;
+            this.fragment = fragment;
+            this.body = body;
+            this.line = line;
+        }
+    }
+
+    abstract static class Node {
+    }
+
+    /**
+     * 匹配集合中的任意一个码点
+     */
+    static final class Chars extends Node {
+        final CharSet set;
+
+        Chars(CharSet set) {
+            this.set = set;
+        }
+    }
+
+    /**
+     * 依次匹配，没有元素时匹配空串
+     */
+    static final class Sequence extends Node {
+        final List<Node> items;
+
+        Sequence(List<Node> items) {
+            this.items = items;
+        }
+    }
+
+    static final class Choice extends Node {
+        final List<Node> alternatives;
+
+        Choice(List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+    }
+
+    /**
+     * ?、*、+，以及它们的非贪婪形式??、*?、+?
+     */
+    static final class Repeat extends Node {
+        final Node item;
+        final boolean optional;
+        final boolean many;
+        final boolean greedy;
+
+        Repeat(Node item, boolean optional, boolean many, boolean greedy) {
+            this.item = item;
+            this.optional = optional;
+            this.many = many;
+            this.greedy = greedy;
+        }
+    }
+
+    static final class RuleRef extends Node {
+        final String name;
+        final int line;
+
+        RuleRef(String name, int line) {
+            this.name = name;
+            this.line = line;
+        }
+    }
+
+    /**
+     * 语义判定 {...}? ，作用于序列中它前面的元素
+     */
+    static final class Predicate extends Node {
+        final String code;
+        final int line;
+
+        Predicate(String code, int line) {
+            this.code = code;
+            this.line = line;
+        }
+    }
+}
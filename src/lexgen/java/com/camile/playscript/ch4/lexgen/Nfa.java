@@ -0,0 +1,298 @@
+package com.camile.playscript.ch4.lexgen;
+
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Chars;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Choice;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Node;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Predicate;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Repeat;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Rule;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.RuleRef;
+import com.camile.playscript.ch4.lexgen.LexerGrammar.Sequence;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 用Thompson构造法把词法规则转成NFA。
+ * 所有生成Token的规则并列挂在同一个初始状态下，fragment在引用的地方展开。
+ * <p>
+ * 语义判定在生成时就计算掉：对于 {Character.isXxx(_input.LA(-1))}? 这种形式，
+ * 判定只与刚匹配的码点有关，把前一个元素的字符集合过滤一遍即可；
+ * 对于代理对形式 {Character.isXxx(Character.toCodePoint((char)_input.LA(-2), (char)_input.LA(-1)))}? ，
+ * 按前两个元素的所有组合计算。其他判定无法在生成时确定，直接报错。
+ */
+final class Nfa {
+    private static final Pattern SINGLE = Pattern.compile(
+            "Character\\.(\\w+)\\(\\s*_input\\.LA\\(\\s*-1\\s*\\)\\s*\\)");
+    private static final Pattern PAIR = Pattern.compile(
+            "Character\\.(\\w+)\\(\\s*Character\\.toCodePoint\\(\\s*\\(char\\)\\s*_input\\.LA\\(\\s*-2\\s*\\)\\s*,"
+                    + "\\s*\\(char\\)\\s*_input\\.LA\\(\\s*-1\\s*\\)\\s*\\)\\s*\\)");
+
+    //代理对形式的判定最多计算这么多种组合
+    private static final long MAX_PAIRS = 1 << 22;
+
+    static final class State {
+        final int id;
+        //状态属于哪个Token规则（在tokenRules()中的序号）
+        final int rule;
+
+        //字符边，最多一条
+        CharSet set = null;
+        State next = null;
+
+        final List<State> epsilon = new ArrayList<>(2);
+
+        //接受状态对应的Token规则，-1表示不是接受状态
+        int accept = -1;
+
+        State(int id, int rule) {
+            this.id = id;
+            this.rule = rule;
+        }
+    }
+
+    /**
+     * Thompson构造中的一个片段，只有一个入口和一个出口
+     */
+    private static final class Fragment {
+        final State start;
+        final State end;
+
+        Fragment(State start, State end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    final List<State> states = new ArrayList<>();
+    final State start;
+
+    //每个Token规则是否用到了非贪婪的重复
+    final boolean[] nonGreedy;
+
+    private final LexerGrammar grammar;
+    private final String file;
+
+    //正在展开的规则，用来发现递归
+    private final Deque<String> expanding = new ArrayDeque<>();
+
+    private Nfa(LexerGrammar grammar, String file) {
+        this.grammar = grammar;
+        this.file = file;
+        List<Rule> rules = grammar.tokenRules();
+        nonGreedy = new boolean[rules.size()];
+        start = newState(-1);
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+            expanding.push(rule.name);
+            Fragment body = build(rule.body, i);
+            expanding.pop();
+            start.epsilon.add(body.start);
+            body.end.accept = i;
+        }
+    }
+
+    static Nfa build(LexerGrammar grammar, String file) {
+        return new Nfa(grammar, file);
+    }
+
+    private State newState(int rule) {
+        State state = new State(states.size(), rule);
+        states.add(state);
+        return state;
+    }
+
+    private Fragment build(Node node, int rule) {
+        if (node instanceof Chars) {
+            State from = newState(rule);
+            State to = newState(rule);
+            from.set = ((Chars) node).set;
+            from.next = to;
+            return new Fragment(from, to);
+        }
+        if (node instanceof Sequence) {
+            List<Node> items = applyPredicates(((Sequence) node).items);
+            State from = newState(rule);
+            State end = from;
+            for (Node item : items) {
+                Fragment fragment = build(item, rule);
+                end.epsilon.add(fragment.start);
+                end = fragment.end;
+            }
+            return new Fragment(from, end);
+        }
+        if (node instanceof Choice) {
+            State from = newState(rule);
+            State to = newState(rule);
+            for (Node alternative : ((Choice) node).alternatives) {
+                Fragment fragment = build(alternative, rule);
+                from.epsilon.add(fragment.start);
+                fragment.end.epsilon.add(to);
+            }
+            return new Fragment(from, to);
+        }
+        if (node instanceof Repeat) {
+            Repeat repeat = (Repeat) node;
+            if (!repeat.greedy) {
+                nonGreedy[rule] = true;
+            }
+            Fragment item = build(repeat.item, rule);
+            State from = newState(rule);
+            State to = newState(rule);
+            from.epsilon.add(item.start);
+            item.end.epsilon.add(to);
+            if (repeat.optional) {
+                from.epsilon.add(to);
+            }
+            if (repeat.many) {
+                item.end.epsilon.add(item.start);
+            }
+            return new Fragment(from, to);
+        }
+        if (node instanceof RuleRef) {
+            RuleRef ref = (RuleRef) node;
+            Rule target = grammar.rule(ref.name);
+            if (target == null) {
+                throw error(ref.line, "undefined rule " + ref.name);
+            }
+            if (expanding.contains(ref.name)) {
+                throw error(ref.line, "recursive rule " + ref.name + " is not regular");
+            }
+            expanding.push(ref.name);
+            Fragment fragment = build(target.body, rule);
+            expanding.pop();
+            return fragment;
+        }
+        Predicate predicate = (Predicate) node;
+        throw error(predicate.line, "predicate must follow the characters it tests");
+    }
+
+    /**
+     * 把序列中的语义判定合并到它前面的元素中
+     */
+    private List<Node> applyPredicates(List<Node> items) {
+        List<Node> result = new ArrayList<>(items.size());
+        for (Node item : items) {
+            if (!(item instanceof Predicate)) {
+                result.add(item);
+                continue;
+            }
+            Predicate predicate = (Predicate) item;
+            Matcher single = SINGLE.matcher(predicate.code);
+            Matcher pair = PAIR.matcher(predicate.code);
+            if (single.matches()) {
+                CharSet set = result.isEmpty() ? null : setOf(result.get(result.size() - 1));
+                if (set == null) {
+                    throw error(predicate.line, "predicate must follow a set of characters");
+                }
+                IntPredicate test = characterMethod(single.group(1), predicate.line);
+                result.set(result.size() - 1, new Chars(set.filter(test)));
+            } else if (pair.matches()) {
+                CharSet second = result.size() < 2 ? null : setOf(result.get(result.size() - 1));
+                CharSet first = result.size() < 2 ? null : setOf(result.get(result.size() - 2));
+                if (first == null || second == null) {
+                    throw error(predicate.line, "predicate must follow two sets of characters");
+                }
+                if (first.size() * second.size() > MAX_PAIRS) {
+                    throw error(predicate.line, "too many character pairs to evaluate the predicate");
+                }
+                IntPredicate test = characterMethod(pair.group(1), predicate.line);
+                result.remove(result.size() - 1);
+                result.set(result.size() - 1, pairs(first, second, test));
+            } else {
+                throw error(predicate.line, "unsupported predicate {" + predicate.code + "}?");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 第一个码点取自first、第二个码点取自second，并且两者组成的码点满足判定的所有组合。
+     * 按满足条件的第二个码点的集合把第一个码点分组，每组是一个分支。
+     * 输入按码点读取，高代理后面紧跟低代理时会合成一个码点，所以这样的组合不会出现，不必计算。
+     */
+    private static Node pairs(CharSet first, CharSet second, IntPredicate test) {
+        Map<CharSet, CharSet> groups = new LinkedHashMap<>();
+        for (int r = 0; r < first.rangeCount(); r++) {
+            for (int a = first.lo(r); a <= first.hi(r); a++) {
+                char high = (char) a;
+                boolean surrogate = Character.isHighSurrogate(high) && a == high;
+                CharSet lows = second.filter(b -> !(surrogate && Character.isLowSurrogate((char) b) && b == (char) b)
+                        && test.test(Character.toCodePoint(high, (char) b)));
+                if (!lows.isEmpty()) {
+                    CharSet highs = groups.get(lows);
+                    groups.put(lows, highs == null ? CharSet.of(a) : highs.union(CharSet.of(a)));
+                }
+            }
+        }
+        List<Node> alternatives = new ArrayList<>();
+        for (Map.Entry<CharSet, CharSet> group : groups.entrySet()) {
+            List<Node> items = new ArrayList<>(2);
+            items.add(new Chars(group.getValue()));
+            items.add(new Chars(group.getKey()));
+            alternatives.add(new Sequence(items));
+        }
+        //没有任何组合满足判定，这个分支匹配不了任何输入
+        return alternatives.isEmpty() ? new Chars(CharSet.EMPTY) : new Choice(alternatives);
+    }
+
+    /**
+     * 只匹配单个码点的元素所对应的集合，fragment会被展开，不是这样的元素则返回null
+     */
+    private CharSet setOf(Node node) {
+        if (node instanceof Chars) {
+            return ((Chars) node).set;
+        }
+        if (node instanceof Choice) {
+            CharSet set = CharSet.EMPTY;
+            for (Node alternative : ((Choice) node).alternatives) {
+                CharSet part = setOf(alternative);
+                if (part == null) {
+                    return null;
+                }
+                set = set.union(part);
+            }
+            return set;
+        }
+        if (node instanceof RuleRef) {
+            Rule target = grammar.rule(((RuleRef) node).name);
+            return target == null || expanding.contains(target.name) ? null : setOf(target.body);
+        }
+        return null;
+    }
+
+    /**
+     * java.lang.Character中形如 boolean isXxx(int codePoint) 的方法
+     */
+    private IntPredicate characterMethod(String name, int line) {
+        Method method;
+        try {
+            method = Character.class.getMethod(name, int.class);
+        } catch (NoSuchMethodException e) {
+            throw error(line, "Character." + name + "(int) doesn't exist");
+        }
+        if (method.getReturnType() != boolean.class) {
+            throw error(line, "Character." + name + "(int) doesn't return boolean");
+        }
+        return c -> {
+            try {
+                return (Boolean) method.invoke(null, c);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private IllegalArgumentException error(int line, String message) {
+        return new IllegalArgumentException(file + ":" + line + ": " + message);
+    }
+}
@@ -1,5 +1,8 @@
 package com.camile.playscript;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -18,4 +21,49 @@ public interface ASTNode {
 
     //文本值
     public String getText();
-}
\ No newline at end of file
+
+    //变量名的符号编号，参见SymbolTable。没有变量名的节点返回-1
+    public default int getSymbol() {
+        return -1;
+    }
+
+    //节点在源代码中的偏移量，即对应Token的起始位置。不知道时返回-1
+    public default int getOffset() {
+        return -1;
+    }
+
+    /**
+     * 把AST的树状结构输出到out，每个节点一行，每深一级多一个tab。
+     * 不递归，用显式的栈做先序遍历，树再深也不会栈溢出。
+     * @param node
+     * @param indent 缩进字符，由tab组成，每一级多一个tab
+     * @param out
+     */
+    public static void dump(ASTNode node, String indent, PrintStream out) {
+        List<ASTNode> stack = new ArrayList<>();
+        //栈中每个节点比node深几级
+        int[] depths = new int[16];
+        StringBuilder line = new StringBuilder(indent);
+        stack.add(node);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            ASTNode current = stack.remove(top);
+            int depth = depths[top];
+            line.setLength(indent.length());
+            for (int i = 0; i < depth; i++) {
+                line.append('\t');
+            }
+            out.println(line.append(current.getType()).append(' ').append(current.getText()));
+
+            //子节点逆序压栈，先弹出的是第一个子节点
+            List<ASTNode> children = current.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                if (stack.size() == depths.length) {
+                    depths = Arrays.copyOf(depths, depths.length * 2);
+                }
+                depths[stack.size()] = depth + 1;
+                stack.add(children.get(i));
+            }
+        }
+    }
+}
@@ -16,4 +16,28 @@ public interface Token {
      * @return
      */
     String getText();
+
+    /**
+     * 标识符的符号编号，参见SymbolTable。其他Token返回-1
+     * @return
+     */
+    default int getSymbol() {
+        return -1;
+    }
+
+    /**
+     * Token的文本长度（字符数）
+     * @return
+     */
+    default int getLength() {
+        return getText().length();
+    }
+
+    /**
+     * Token在源代码中的起始偏移量（字符数），用LineIndex换算成行号和列号。不知道时返回-1
+     * @return
+     */
+    default int getOffset() {
+        return -1;
+    }
 }
\ No newline at end of file
@@ -14,6 +14,28 @@ public interface TokenReader {
      */
     public Token peek();
 
+    /**
+     * 向前看第k个Token，但不从流中取出。peek(1)就是peek()。 如果流中不够k个Token，返回null;
+     * 默认的实现先读出来再退回去，能按下标直接取的Token流应当重写这个方法。
+     * @param k 从1开始
+     */
+    default Token peek(int k) {
+        int marker = mark();
+        try {
+            Token token = null;
+            for (int i = 0; i < k; i++) {
+                token = read();
+                if (token == null) {
+                    break;
+                }
+            }
+            return token;
+        } finally {
+            reset(marker);
+            release(marker);
+        }
+    }
+
     /**
      * Token流回退一步。恢复原来的Token。
      * 回溯
@@ -31,4 +53,28 @@ public interface TokenReader {
      * @param position
      */
     public void setPosition(int position);
-}
\ No newline at end of file
+
+    /**
+     * 标记当前的读取位置，之后可以用reset()回到这里。
+     * 标记可以嵌套，用完之后要按相反的顺序release()。流式的Token流只需要保留最早的标记之后的Token。
+     * @return 标记，传给reset()和release()
+     */
+    default int mark() {
+        return getPosition();
+    }
+
+    /**
+     * 回到mark()标记的位置，标记仍然有效
+     * @param marker
+     */
+    default void reset(int marker) {
+        setPosition(marker);
+    }
+
+    /**
+     * 释放mark()得到的标记
+     * @param marker
+     */
+    default void release(int marker) {
+    }
+}
@@ -0,0 +1,12 @@
+package com.camile.playscript;
+
+/**
+ * 按需产生Token的来源。由Lexer实现，每调用一次才解析出一个Token。
+ * 与一次性生成所有Token的做法相比，它不需要把整个输入和所有Token都保存在内存里。
+ */
+public interface TokenSource {
+    /**
+     * 解析并返回下一个Token。如果输入已经结束，返回null;
+     */
+    public Token nextToken();
+}
@@ -22,11 +22,17 @@ public enum TokenType {
 
     Assignment,// =
 
+    //关键字，与CommonLexer.g4中的关键字一致
     If,
     Else,
     
     Int,
 
+    Boolean, Break, Byte, Case, Catch, Char, Class, Const, Continue, Default,
+    Do, Double, Enum, Extends, Final, Finally, Float, For, Implements, Import,
+    Instanceof, Interface, Long, Native, New, Package, Private, Protected, Public, Return,
+    Short, Super, Switch, This, Void, While,
+
     Identifier,     //标识符
 
     IntLiteral,     //整型字面量
@@ -0,0 +1,72 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.Token;
+import com.camile.playscript.TokenSource;
+
+/**
+ * 直接在内存中的源代码上按需解析的词法解析器。
+ * 每次用DfaTable.scan()解析一小段源代码，放进一个重复使用的TokenBuffer，Token取完了再解析下一段。
+ * 每一段都在边界字符处结束（参见DfaTable.isBoundary()），分段解析的结果与整体解析完全一样。
+ * <p>
+ * 与StreamingLexer不同，它不复制源代码，Token的文本仍然从源代码中截取；
+ * 与tokenizeToBuffer()不同，同一时刻只保存一段的Token，占用的内存与源代码的长度无关。
+ * 源代码在解析过程中不能被修改。
+ */
+public class ChunkedLexer implements TokenSource {
+    private static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    private final DfaTable table = SimpleLexer.TABLE;
+
+    private final CharSequence code;
+
+    //每一段大约解析的字符数
+    private final int chunkSize;
+
+    //当前这一段的Token
+    private final TokenBuffer chunk;
+
+    //下一段开始的位置
+    private int next = 0;
+
+    public ChunkedLexer(CharSequence code) {
+        this(code, SymbolTable.GLOBAL);
+    }
+
+    public ChunkedLexer(CharSequence code, SymbolTable symbols) {
+        this(code, DEFAULT_CHUNK_SIZE, symbols);
+    }
+
+    /**
+     * @param code      源代码
+     * @param chunkSize 每一段大约解析的字符数，实际会延长到下一个边界字符
+     * @param symbols   驻留标识符的符号表
+     */
+    public ChunkedLexer(CharSequence code, int chunkSize, SymbolTable symbols) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        }
+        this.code = code;
+        this.chunkSize = chunkSize;
+        this.chunk = new TokenBuffer(code, chunkSize / 4, symbols);
+    }
+
+    @Override
+    public Token nextToken() {
+        //一段中可能只有空白字符，没有Token
+        while (chunk.peek() == null) {
+            int length = code.length();
+            if (next == length) {
+                return null;
+            }
+            int end = next + Math.min(chunkSize, length - next);
+            while (end < length && !table.isBoundary(code.charAt(end))) {
+                end++;
+            }
+            chunk.clear();
+            table.scan(code, next, end, chunk);
+            next = end;
+        }
+        //视图在创建时记下了Token的类型和位置，清空chunk之后仍然有效
+        return chunk.read();
+    }
+}
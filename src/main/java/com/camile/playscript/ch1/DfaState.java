@@ -3,9 +3,9 @@ package com.camile.playscript.ch1;
 public enum DfaState {
     Initial,
 
-    If, Id_if1, Id_if2, Else, Id_else1, Id_else2, Id_else3, Id_else4, Int, Id_int1, Id_int2, Id_int3, Id, GT, GE,
+    Id, GT, GE, LT, LE,
 
-    Assignment,
+    Assignment, EQ,
 
     Plus, Minus, Star, Slash,
 
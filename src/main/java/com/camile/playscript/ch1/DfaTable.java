@@ -0,0 +1,292 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.TokenType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 表驱动的有限自动机。
+ * 把DfaState描述的状态迁移预先计算成一张表：行是状态，列是字符类别。
+ * 词法分析时，每个字符只需要查一次字符类别、再查一次迁移表，不需要在代码里写分支。
+ * <p>
+ * 字符类别是根据规则自动划分的：在所有状态下迁移都相同的字符，归为同一类。
+ * 所有规则都没有提到的字符（包括非ASCII字符）归为第0类，在初始状态下会被跳过。
+ * <p>
+ * 迁移表中的每一项是下一个状态的序号，如果带有EMIT标志，表示当前Token在这个字符之前结束，
+ * 这时下一个状态就是从初始状态出发、读入这个字符后的状态。
+ * <p>
+ * 关键字不占用状态：标识符按普通的Id状态扫描，在Token结束时才用Keywords查表分类。
+ */
+public final class DfaTable {
+    //迁移表项的标志位：当前Token在这个字符之前结束
+    static final int EMIT = 0x10000;
+
+    //初始状态的序号
+    static final int INITIAL = DfaState.Initial.ordinal();
+
+    //ASCII字符的类别
+    final byte[] charClasses;
+
+    //字符类别的数量
+    final int classCount;
+
+    //迁移表，下标为 状态序号 * classCount + 字符类别
+    final int[] transitions;
+
+    //每个状态结束时对应的Token类型，初始状态为null
+    final TokenType[] accepts;
+
+    //结束时需要查关键字表的状态
+    final boolean[] keywords;
+
+    //Token边界的字符类别：在任何状态下遇到它，当前Token都会结束
+    private final boolean[] boundaries;
+
+    private DfaTable(byte[] charClasses, int classCount, int[] transitions, TokenType[] accepts, boolean[] keywords) {
+        this.charClasses = charClasses;
+        this.classCount = classCount;
+        this.transitions = transitions;
+        this.accepts = accepts;
+        this.keywords = keywords;
+
+        this.boundaries = new boolean[classCount];
+        for (int cls = 0; cls < classCount; cls++) {
+            boolean boundary = true;
+            for (int s = 0; s < accepts.length; s++) {
+                if (s != INITIAL && transitions[s * classCount + cls] < EMIT) {
+                    boundary = false;
+                    break;
+                }
+            }
+            boundaries[cls] = boundary;
+        }
+    }
+
+    /**
+     * 字符的类别
+     *
+     * @param ch
+     * @return
+     */
+    int classOf(int ch) {
+        return ch < 128 ? charClasses[ch] : 0;
+    }
+
+    /**
+     * 字符ch是不是Token的边界。
+     * 不管前面是什么状态，遇到边界字符时当前Token都会结束，之后的解析从初始状态重新开始。
+     * 所以从一个边界字符处切开源代码，两边分别解析，结果与整体解析完全一样。
+     *
+     * @param ch
+     * @return
+     */
+    public boolean isBoundary(char ch) {
+        return boundaries[classOf(ch)];
+    }
+
+    /**
+     * 状态state在code的[start, end)这一段结束时，形成的Token类型
+     *
+     * @param state
+     * @param code
+     * @param start
+     * @param end
+     * @return
+     */
+    TokenType typeOf(int state, CharSequence code, int start, int end) {
+        if (keywords[state]) {
+            return Keywords.lookup(code, start, end);
+        }
+        return accepts[state];
+    }
+
+    /**
+     * 扫描源代码中[from, to)这一段，把识别出来的Token依次交给sink。
+     * 每个字符只做一次查表。
+     *
+     * @param code 源代码
+     * @param from 起始位置（包含）
+     * @param to   结束位置（不包含）
+     * @param sink 接收Token
+     */
+    public void scan(CharSequence code, int from, int to, TokenSink sink) {
+        final byte[] classes = charClasses;
+        final int[] table = transitions;
+        final int width = classCount;
+
+        int state = INITIAL;
+        //当前Token的起始位置
+        int start = from;
+        for (int i = from; i < to; i++) {
+            char ch = code.charAt(i);
+            int next = table[state * width + (ch < 128 ? classes[ch] : 0)];
+            if (next >= EMIT) {
+                //退出当前状态，并保存Token
+                sink.token(typeOf(state, code, start, i), start, i);
+                start = i;
+                next -= EMIT;
+            }
+            if (next == INITIAL) {
+                //跳过的字符，下一个Token至少从下一个字符开始
+                start = i + 1;
+            }
+            state = next;
+        }
+
+        // 把最后一个token送进去
+        if (state != INITIAL) {
+            sink.token(typeOf(state, code, start, to), start, to);
+        }
+    }
+
+    /**
+     * 从a到b（都包含）的所有字符，用于书写规则
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    public static String range(char a, char b) {
+        StringBuilder sb = new StringBuilder();
+        for (char ch = a; ch <= b; ch++) {
+            sb.append(ch);
+        }
+        return sb.toString();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 用声明的方式描述词法规则，然后生成迁移表。
+     * 规则只包括两种：某个状态遇到某些字符迁移到另一个状态；某个状态结束时形成什么Token。
+     * 同一个状态下，后声明的迁移覆盖先声明的迁移，这样可以先写通用的规则，再写特殊的规则。
+     */
+    public static class Builder {
+        private final int stateCount = DfaState.values().length;
+
+        //每个状态对每个ASCII字符的迁移目标，-1表示没有规则
+        private final int[][] moves = new int[stateCount][128];
+
+        private final TokenType[] accepts = new TokenType[stateCount];
+
+        private final boolean[] keywords = new boolean[stateCount];
+
+        private Builder() {
+            for (int[] row : moves) {
+                Arrays.fill(row, -1);
+            }
+        }
+
+        /**
+         * 状态from遇到chars中的任何一个字符，迁移到状态to
+         *
+         * @param from
+         * @param chars 只能是ASCII字符
+         * @param to
+         * @return
+         */
+        public Builder move(DfaState from, String chars, DfaState to) {
+            for (int i = 0; i < chars.length(); i++) {
+                char ch = chars.charAt(i);
+                if (ch >= 128) {
+                    throw new IllegalArgumentException("only ASCII characters are supported: " + ch);
+                }
+                moves[from.ordinal()][ch] = to.ordinal();
+            }
+            return this;
+        }
+
+        /**
+         * 状态state结束时，形成type类型的Token
+         *
+         * @param state
+         * @param type
+         * @return
+         */
+        public Builder accept(DfaState state, TokenType type) {
+            accepts[state.ordinal()] = type;
+            return this;
+        }
+
+        /**
+         * 状态state结束时，先查关键字表，是关键字则形成关键字Token，否则形成type类型的Token
+         *
+         * @param state
+         * @param type
+         * @return
+         */
+        public Builder acceptWord(DfaState state, TokenType type) {
+            accepts[state.ordinal()] = type;
+            keywords[state.ordinal()] = true;
+            return this;
+        }
+
+        public DfaTable build() {
+            //把迁移完全相同的字符归为一类。第0类留给没有任何规则的字符
+            byte[] charClasses = new byte[128];
+            Map<String, Integer> signatures = new HashMap<>();
+            List<Integer> representatives = new ArrayList<>();
+            int[] none = new int[stateCount];
+            Arrays.fill(none, -1);
+            signatures.put(Arrays.toString(none), 0);
+            representatives.add(-1);
+            for (int ch = 0; ch < 128; ch++) {
+                int[] signature = new int[stateCount];
+                for (int s = 0; s < stateCount; s++) {
+                    signature[s] = moves[s][ch];
+                }
+                String key = Arrays.toString(signature);
+                Integer cls = signatures.get(key);
+                if (cls == null) {
+                    cls = representatives.size();
+                    signatures.put(key, cls);
+                    representatives.add(ch);
+                }
+                charClasses[ch] = (byte) (int) cls;
+            }
+            int classCount = representatives.size();
+
+            //生成迁移表
+            int[] transitions = new int[stateCount * classCount];
+            for (int s = 0; s < stateCount; s++) {
+                for (int cls = 0; cls < classCount; cls++) {
+                    int ch = representatives.get(cls);
+                    int target = ch < 0 ? -1 : moves[s][ch];
+                    int restart = ch < 0 ? -1 : moves[INITIAL][ch];
+                    if (restart < 0) {
+                        restart = INITIAL;
+                    }
+                    int entry;
+                    if (target >= 0) {
+                        entry = target;
+                    } else if (s == INITIAL) {
+                        //初始状态下遇到没有规则的字符，跳过
+                        entry = INITIAL;
+                    } else {
+                        //当前Token结束，从初始状态重新开始
+                        entry = EMIT | restart;
+                    }
+                    transitions[s * classCount + cls] = entry;
+                }
+            }
+
+            //除了初始状态，能到达的状态都必须能形成Token
+            for (int s = 0; s < stateCount; s++) {
+                for (int ch = 0; ch < 128; ch++) {
+                    int target = moves[s][ch];
+                    if (target >= 0 && target != INITIAL && accepts[target] == null) {
+                        throw new IllegalStateException("state " + DfaState.values()[target] + " has no token type");
+                    }
+                }
+            }
+
+            return new DfaTable(charClasses, classCount, transitions, accepts.clone(), keywords.clone());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.camile.playscript.ch1;
+
+/**
+ * 增量的词法解析器。
+ * 保存源代码和解析出的Token，源代码被修改之后，只重新解析受影响的那几个Token。
+ * <p>
+ * 从修改位置所在的Token（或紧挨着修改位置的Token）的起点开始重新解析，
+ * 一直解析到修改之后的第一个边界字符（参见DfaTable.isBoundary()）。
+ * 在边界字符处，修改前后的自动机都会结束当前Token，后面的Token保持不变，只需要平移位置。
+ */
+public class IncrementalLexer {
+    private final DfaTable table = SimpleLexer.TABLE;
+
+    //源代码，TokenBuffer直接引用它。修改之前读出的Token复制了自己的文本，不会随之变化
+    private final StringBuilder source;
+
+    private final TokenBuffer tokens;
+
+    public IncrementalLexer(CharSequence code) {
+        this(code, SymbolTable.GLOBAL);
+    }
+
+    /**
+     * @param code
+     * @param symbols 驻留标识符的符号表
+     */
+    public IncrementalLexer(CharSequence code, SymbolTable symbols) {
+        source = new StringBuilder(code);
+        tokens = new TokenBuffer(source, symbols);
+        tokens.setEditable();
+        table.scan(source, 0, source.length(), tokens);
+    }
+
+    public CharSequence getSource() {
+        return source;
+    }
+
+    public TokenBuffer getTokens() {
+        return tokens;
+    }
+
+    /**
+     * 修改源代码，并重新解析受影响的Token
+     *
+     * @param offset   修改的位置
+     * @param deleted  删除的字符数
+     * @param inserted 插入的文本
+     * @return Token的变化
+     */
+    public Change edit(int offset, int deleted, String inserted) {
+        if (offset < 0 || deleted < 0 || offset + deleted > source.length()) {
+            throw new IndexOutOfBoundsException("invalid edit: offset " + offset + ", deleted " + deleted);
+        }
+
+        //第一个结束位置不早于offset的Token，它有可能与插入的文本连成一个Token
+        int first = endingAfter(offset);
+        int begin = first < tokens.size() ? Math.min(tokens.getStart(first), offset) : offset;
+
+        source.replace(offset, offset + deleted, inserted);
+        int shift = inserted.length() - deleted;
+
+        //重新解析到修改之后的第一个边界字符
+        int end = offset + inserted.length();
+        while (end < source.length() && !table.isBoundary(source.charAt(end))) {
+            end++;
+        }
+
+        //原来在边界字符之前开始的Token都要被替换
+        int last = first;
+        while (last < tokens.size() && tokens.getStart(last) < end - shift) {
+            last++;
+        }
+
+        TokenBuffer relexed = new TokenBuffer(source, 16, tokens.getSymbols());
+        table.scan(source, begin, end, relexed);
+        tokens.replace(first, last, relexed, shift);
+        return new Change(first, last - first, relexed.size());
+    }
+
+    /**
+     * 二分查找第一个结束位置不早于offset的Token
+     *
+     * @param offset
+     * @return Token的序号，找不到就返回Token的数量
+     */
+    private int endingAfter(int offset) {
+        int low = 0;
+        int high = tokens.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.getEnd(mid) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 一次修改引起的Token变化：从index开始，removed个旧Token被替换成了added个新Token
+     */
+    public static class Change {
+        private final int index;
+        private final int removed;
+        private final int added;
+
+        Change(int index, int removed, int added) {
+            this.index = index;
+            this.removed = removed;
+            this.added = added;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        public int getAdded() {
+            return added;
+        }
+
+        /**
+         * 把这次变化与紧接着的下一次变化合并成一次。
+         * next中的序号是相对于这次变化之后的Token而言的，合并后的序号相对于这次变化之前的Token。
+         *
+         * @param next
+         * @return
+         */
+        public Change then(Change next) {
+            int from = Math.min(index, next.index);
+            //在两次变化之间的Token序列中，受影响范围的终点
+            int end = Math.max(index + added, next.index + next.removed);
+            return new Change(from, end - (added - removed) - from, end + next.added - next.removed - from);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.TokenType;
+
+/**
+ * 关键字表。
+ * 标识符先按普通的Id状态扫描完，在Token结束时再到这里查一下是不是关键字。
+ * 这样关键字再多，也不会增加每个字符的扫描代价。
+ * <p>
+ * 查找用的是完美哈希：由长度、第一个、第二个和最后一个字符算出槽位，每个槽位最多一个关键字，
+ * 所以只需要计算一次哈希、比较一次字符串。哈希的种子在类加载时搜索出来。
+ * 关键字集合与CommonLexer.g4中的关键字一致。
+ */
+public final class Keywords {
+
+    private static final String[] WORDS = {
+            "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue", "default",
+            "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "super", "switch", "this", "void", "while"
+    };
+
+    private static final TokenType[] TYPES = {
+            TokenType.Boolean, TokenType.Break, TokenType.Byte, TokenType.Case, TokenType.Catch,
+            TokenType.Char, TokenType.Class, TokenType.Const, TokenType.Continue, TokenType.Default,
+            TokenType.Do, TokenType.Double, TokenType.Else, TokenType.Enum, TokenType.Extends,
+            TokenType.Final, TokenType.Finally, TokenType.Float, TokenType.For, TokenType.If,
+            TokenType.Implements, TokenType.Import, TokenType.Instanceof, TokenType.Int, TokenType.Interface,
+            TokenType.Long, TokenType.Native, TokenType.New, TokenType.Package, TokenType.Private,
+            TokenType.Protected, TokenType.Public, TokenType.Return, TokenType.Short, TokenType.Super,
+            TokenType.Switch, TokenType.This, TokenType.Void, TokenType.While
+    };
+
+    private static final int MIN_LENGTH;
+    private static final int MAX_LENGTH;
+
+    //哈希的种子和槽位数
+    private static final int SEED;
+    private static final int SHIFT;
+
+    //按槽位存放的关键字和类型
+    private static final String[] SLOT_WORDS;
+    private static final TokenType[] SLOT_TYPES;
+
+    static {
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (String word : WORDS) {
+            min = Math.min(min, word.length());
+            max = Math.max(max, word.length());
+        }
+        MIN_LENGTH = min;
+        MAX_LENGTH = max;
+
+        //从128个槽位开始找一个没有冲突的种子，找不到就加倍槽位数
+        int bits = 7;
+        int seed = 0;
+        String[] slots = null;
+        search:
+        while (true) {
+            int candidate = 0x9E3779B9;
+            for (int attempt = 0; attempt < 1 << 16; attempt++) {
+                candidate = candidate * 0x5DEECE6D + 0xB;
+                int s = candidate | 1;
+                slots = new String[1 << bits];
+                boolean ok = true;
+                for (String word : WORDS) {
+                    int h = hash(s, 32 - bits, word.length(), word.charAt(0), word.charAt(1), word.charAt(word.length() - 1));
+                    if (slots[h] != null) {
+                        ok = false;
+                        break;
+                    }
+                    slots[h] = word;
+                }
+                if (ok) {
+                    seed = s;
+                    break search;
+                }
+            }
+            bits++;
+        }
+        SEED = seed;
+        SHIFT = 32 - bits;
+        SLOT_WORDS = slots;
+        SLOT_TYPES = new TokenType[slots.length];
+        for (int i = 0; i < WORDS.length; i++) {
+            String word = WORDS[i];
+            SLOT_TYPES[hash(SEED, SHIFT, word.length(), word.charAt(0), word.charAt(1), word.charAt(word.length() - 1))] = TYPES[i];
+        }
+    }
+
+    private Keywords() {
+    }
+
+    private static int hash(int seed, int shift, int length, int first, int second, int last) {
+        return ((first << 16 ^ second << 8 ^ last ^ length << 24) * seed) >>> shift;
+    }
+
+    /**
+     * 关键字的最大长度，超过这个长度的标识符不可能是关键字
+     *
+     * @return
+     */
+    static int maxLength() {
+        return MAX_LENGTH;
+    }
+
+    /**
+     * 关键字的文本
+     *
+     * @param type
+     * @return 不是关键字则返回null
+     */
+    public static String textOf(TokenType type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i] == type) {
+                return WORDS[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 查找code中[start, end)这一段是不是关键字
+     *
+     * @param code
+     * @param start
+     * @param end
+     * @return 关键字的类型，不是关键字则返回Identifier
+     */
+    public static TokenType lookup(CharSequence code, int start, int end) {
+        int length = end - start;
+        if (length < MIN_LENGTH || length > MAX_LENGTH) {
+            return TokenType.Identifier;
+        }
+        int h = hash(SEED, SHIFT, length, code.charAt(start), code.charAt(start + 1), code.charAt(end - 1));
+        String word = SLOT_WORDS[h];
+        if (word == null || word.length() != length) {
+            return TokenType.Identifier;
+        }
+        for (int i = 0; i < length; i++) {
+            if (word.charAt(i) != code.charAt(start + i)) {
+                return TokenType.Identifier;
+            }
+        }
+        return SLOT_TYPES[h];
+    }
+}
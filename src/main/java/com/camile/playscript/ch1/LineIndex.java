@@ -0,0 +1,79 @@
+package com.camile.playscript.ch1;
+
+import java.util.Arrays;
+
+/**
+ * 源代码的行索引。
+ * Token和AST节点中只保存一个字符偏移量，需要显示行号和列号的时候（比如报错），
+ * 才为源代码建立这个索引：记录每一行的起始偏移量，用二分查找把偏移量换算成行号和列号。
+ * 行号和列号都从1开始。
+ */
+public class LineIndex {
+    //每一行第一个字符的偏移量
+    private final int[] lineStarts;
+    private final int lines;
+
+    public LineIndex(CharSequence code) {
+        int[] starts = new int[16];
+        int count = 1;
+        for (int i = 0; i < code.length(); i++) {
+            if (code.charAt(i) == '\n') {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i + 1;
+            }
+        }
+        this.lineStarts = starts;
+        this.lines = count;
+    }
+
+    /**
+     * 行数
+     *
+     * @return
+     */
+    public int getLineCount() {
+        return lines;
+    }
+
+    /**
+     * 偏移量所在的行号
+     *
+     * @param offset
+     * @return
+     */
+    public int getLine(int offset) {
+        int low = 0;
+        int high = lines;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lineStarts[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 偏移量所在的列号
+     *
+     * @param offset
+     * @return
+     */
+    public int getColumn(int offset) {
+        return offset - lineStarts[getLine(offset) - 1] + 1;
+    }
+
+    /**
+     * 第line行第一个字符的偏移量
+     *
+     * @param line
+     * @return
+     */
+    public int getLineStart(int line) {
+        return lineStarts[line - 1];
+    }
+}
@@ -0,0 +1,281 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.TokenType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 内存映射文件的词法解析器。
+ * 用FileChannel.map把文件映射到内存，直接在UTF-8字节上运行与SimpleLexer相同的DfaTable，
+ * 不需要先把文件读成String，也不需要把字节解码成char。
+ * <p>
+ * 词法规则中的字符都是ASCII字符，UTF-8编码下就是单个字节；多字节字符的每个字节都大于0x7F，
+ * 与SimpleLexer中的非ASCII字符一样会被跳过。所以解析出的Token与先解码再解析完全一致，只是位置以字节计。
+ * <p>
+ * 一个MappedByteBuffer最多只能映射2G，大文件按段映射，自动机的状态跨段延续，Token可以跨越两段。
+ * <p>
+ * 标识符、数字和空白往往连续出现很多个字节。在这些状态下，一次读入8个字节（一个long），
+ * 用SWAR（SIMD within a register）的位运算同时判断8个字节是否都属于同一类，整段跳过；
+ * 只在一段的边界处才回到逐字节查表。哪个状态可以整段跳过哪类字节，是从DfaTable推算出来的。
+ */
+public class MappedFileLexer {
+    private static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private final DfaTable table = SimpleLexer.TABLE;
+
+    //可以用SWAR整段跳过的字节类别
+    private static final int RUN_NONE = 0;
+    private static final int RUN_ALNUM = 1;
+    private static final int RUN_DIGITS = 2;
+    private static final int RUN_BLANKS = 3;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH = 0x8080808080808080L;
+
+    private final int segmentSize;
+
+    //驻留标识符的符号表
+    private final SymbolTable symbols;
+
+    //每个状态可以整段跳过的字节类别
+    private final int[] runKinds;
+
+    public MappedFileLexer() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize 每段映射的字节数
+     */
+    public MappedFileLexer(int segmentSize) {
+        this(segmentSize, true);
+    }
+
+    /**
+     * @param segmentSize 每段映射的字节数
+     * @param swar        是否使用SWAR整段跳过，关掉时逐字节查表，用于对比
+     */
+    public MappedFileLexer(int segmentSize, boolean swar) {
+        this(segmentSize, swar, SymbolTable.GLOBAL);
+    }
+
+    /**
+     * @param segmentSize 每段映射的字节数
+     * @param swar        是否使用SWAR整段跳过，关掉时逐字节查表，用于对比
+     * @param symbols     驻留标识符的符号表
+     */
+    public MappedFileLexer(int segmentSize, boolean swar, SymbolTable symbols) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segmentSize must be positive: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        this.symbols = symbols;
+        this.runKinds = new int[DfaState.values().length];
+        if (swar) {
+            String letters = DfaTable.range('a', 'z') + DfaTable.range('A', 'Z');
+            String digits = DfaTable.range('0', '9');
+            for (int state = 0; state < runKinds.length; state++) {
+                if (loops(state, letters + digits)) {
+                    runKinds[state] = RUN_ALNUM;
+                } else if (loops(state, digits)) {
+                    runKinds[state] = RUN_DIGITS;
+                } else if (loops(state, " \t\r\n")) {
+                    runKinds[state] = RUN_BLANKS;
+                }
+            }
+        }
+    }
+
+    /**
+     * 状态state遇到chars中的任何字符，是否都停留在原来的状态
+     *
+     * @param state
+     * @param chars
+     * @return
+     */
+    private boolean loops(int state, String chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            if (table.transitions[state * table.classCount + table.classOf(chars.charAt(i))] != state) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析一个文件
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public MappedTokenBuffer tokenize(Path file) throws IOException {
+        ByteBuffer[] segments;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            segments = new ByteBuffer[(int) ((size + segmentSize - 1) / segmentSize)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = (long) i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, size - position));
+            }
+        }
+
+        MappedTokenBuffer tokens = new MappedTokenBuffer(segments, segmentSize, symbols);
+        scan(segments, tokens);
+        return tokens;
+    }
+
+    /**
+     * 解析内存中的UTF-8字节，即buffer中[position, limit)这一段
+     *
+     * @param buffer
+     * @return
+     */
+    public MappedTokenBuffer tokenize(ByteBuffer buffer) {
+        ByteBuffer[] segments = {buffer.slice()};
+        MappedTokenBuffer tokens = new MappedTokenBuffer(segments, Math.max(1, segments[0].limit()), symbols);
+        scan(segments, tokens);
+        return tokens;
+    }
+
+    private void scan(ByteBuffer[] segments, MappedTokenBuffer tokens) {
+        //空文件没有映射任何段
+        if (segments.length == 0) {
+            return;
+        }
+        final byte[] classes = table.charClasses;
+        final int[] transitions = table.transitions;
+        final int width = table.classCount;
+        final int[] runs = runKinds;
+
+        //查关键字时用的临时缓冲区，关键字都很短
+        CharBuffer word = CharBuffer.allocate(Keywords.maxLength());
+
+        int state = DfaTable.INITIAL;
+        //当前Token的起始位置
+        long start = 0;
+        for (int s = 0; s < segments.length; s++) {
+            ByteBuffer segment = segments[s];
+            long base = (long) s * segmentSize;
+            int limit = segment.limit();
+            for (int i = 0; i < limit; i++) {
+                int b = segment.get(i);
+                int next = transitions[state * width + (b >= 0 ? classes[b] : 0)];
+                if (next >= DfaTable.EMIT) {
+                    //退出当前状态，并保存Token
+                    tokens.add(typeOf(state, segment, base, tokens, word, start, base + i), start, base + i);
+                    start = base + i;
+                    next -= DfaTable.EMIT;
+                }
+                if (next == DfaTable.INITIAL) {
+                    start = base + i + 1;
+                }
+                int run = runs[next];
+                if (next == state && run != RUN_NONE && (next == DfaTable.INITIAL || base + i - start >= 3)) {
+                    //已经在一串同类的字节中了（空白至少2个，标识符和数字至少4个，太短的Token用不上），
+                    //一次判断后面8个字节，跳过属于同一类的那些字节
+                    while (i + 9 <= limit) {
+                        long matched = match(run, segment.getLong(i + 1));
+                        if (matched != HIGH) {
+                            //ByteBuffer是大端的，第一个字节在最高位
+                            i += Long.numberOfLeadingZeros(~matched & HIGH) >>> 3;
+                            break;
+                        }
+                        i += 8;
+                    }
+                    if (next == DfaTable.INITIAL) {
+                        start = base + i + 1;
+                    }
+                }
+                state = next;
+            }
+        }
+
+        // 把最后一个token送进去
+        if (state != DfaTable.INITIAL) {
+            ByteBuffer last = segments[segments.length - 1];
+            long end = (long) (segments.length - 1) * segmentSize + last.limit();
+            tokens.add(typeOf(state, last, end - last.limit(), tokens, word, start, end), start, end);
+        }
+    }
+
+    /**
+     * 8个字节中，属于run这一类的字节，最高位置1，其他位都是0
+     *
+     * @param run
+     * @param word
+     * @return
+     */
+    private static long match(int run, long word) {
+        switch (run) {
+            case RUN_ALNUM:
+                //字母统一转成小写再判断范围
+                return inRange(word | ONES * 0x20, 'a', 'z') | inRange(word, '0', '9');
+            case RUN_DIGITS:
+                return inRange(word, '0', '9');
+            default:
+                return equalTo(word, ' ') | equalTo(word, '\t') | equalTo(word, '\n') | equalTo(word, '\r');
+        }
+    }
+
+    /**
+     * 每个字节是否在[lo, hi]之间（1 <= lo <= hi < 0x80）。
+     * 先去掉每个字节的最高位，再加上一个常数，看是否进位到最高位，这样各个字节之间不会互相进位。
+     *
+     * @param word
+     * @param lo
+     * @param hi
+     * @return
+     */
+    private static long inRange(long word, int lo, int hi) {
+        long low7 = word & ~HIGH;
+        long notLess = low7 + ONES * (0x80 - lo);
+        long greater = low7 + ONES * (0x7F - hi);
+        return notLess & ~greater & ~word & HIGH;
+    }
+
+    /**
+     * 每个字节是否等于c
+     *
+     * @param word
+     * @param c
+     * @return
+     */
+    private static long equalTo(long word, int c) {
+        long x = word ^ ONES * c;
+        return ~(((x & ~HIGH) + ~HIGH) | x) & HIGH;
+    }
+
+    /**
+     * 状态state在[start, end)这一段结束时，形成的Token类型
+     *
+     * @param segment 当前段，它在文件中的起始位置是base
+     */
+    private TokenType typeOf(int state, ByteBuffer segment, long base, MappedTokenBuffer tokens, CharBuffer word, long start, long end) {
+        if (!table.keywords[state]) {
+            return table.accepts[state];
+        }
+        int length = (int) (end - start);
+        if (length > word.capacity()) {
+            return table.accepts[state];
+        }
+        //标识符都是ASCII字符，逐个字节拷贝就是解码结果
+        if (start >= base) {
+            int offset = (int) (start - base);
+            for (int i = 0; i < length; i++) {
+                word.put(i, (char) segment.get(offset + i));
+            }
+        } else {
+            //跨越两段的Token
+            for (int i = 0; i < length; i++) {
+                word.put(i, (char) tokens.byteAt(start + i));
+            }
+        }
+        return Keywords.lookup(word, 0, length);
+    }
+}
@@ -0,0 +1,220 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.Token;
+import com.camile.playscript.TokenReader;
+import com.camile.playscript.TokenType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 内存映射文件上的紧凑Token流，由MappedFileLexer生成。
+ * 与TokenBuffer类似，按列存放Token：类型存在byte[]中，起始位置存在long[]中（文件可以超过2G），长度存在int[]中。
+ * <p>
+ * Token的文本是惰性生成的：操作符和关键字的文本是固定的，直接返回常量；
+ * 只有标识符和字面量才在调用getText()时从映射的字节中解码。
+ */
+public class MappedTokenBuffer implements TokenReader {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    //文本固定的Token
+    private static final String[] FIXED_TEXT = new String[TYPES.length];
+
+    static {
+        FIXED_TEXT[TokenType.Plus.ordinal()] = "+";
+        FIXED_TEXT[TokenType.Minus.ordinal()] = "-";
+        FIXED_TEXT[TokenType.Star.ordinal()] = "*";
+        FIXED_TEXT[TokenType.Slash.ordinal()] = "/";
+        FIXED_TEXT[TokenType.GE.ordinal()] = ">=";
+        FIXED_TEXT[TokenType.GT.ordinal()] = ">";
+        FIXED_TEXT[TokenType.EQ.ordinal()] = "==";
+        FIXED_TEXT[TokenType.LE.ordinal()] = "<=";
+        FIXED_TEXT[TokenType.LT.ordinal()] = "<";
+        FIXED_TEXT[TokenType.SemiColon.ordinal()] = ";";
+        FIXED_TEXT[TokenType.LeftParen.ordinal()] = "(";
+        FIXED_TEXT[TokenType.RightParen.ordinal()] = ")";
+        FIXED_TEXT[TokenType.Assignment.ordinal()] = "=";
+        for (TokenType type : TYPES) {
+            String keyword = Keywords.textOf(type);
+            if (keyword != null) {
+                FIXED_TEXT[type.ordinal()] = keyword;
+            }
+        }
+    }
+
+    //文件被分段映射，每段的长度都是segmentSize（最后一段除外）
+    private final ByteBuffer[] segments;
+    private final int segmentSize;
+
+    //驻留标识符的符号表
+    private final SymbolTable symbols;
+
+    private byte[] types = new byte[1024];
+    private long[] starts = new long[1024];
+    private int[] lengths = new int[1024];
+    private int size = 0;
+
+    //当前的读取位置
+    private int pos = 0;
+
+    MappedTokenBuffer(ByteBuffer[] segments, int segmentSize, SymbolTable symbols) {
+        this.segments = segments;
+        this.segmentSize = segmentSize;
+        this.symbols = symbols;
+    }
+
+    void add(TokenType type, long start, long end) {
+        if (size == types.length) {
+            int capacity = size + (size >> 1);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = (int) (end - start);
+        size++;
+    }
+
+    /**
+     * 文件中位置为offset的字节
+     *
+     * @param offset
+     * @return
+     */
+    byte byteAt(long offset) {
+        return segments[(int) (offset / segmentSize)].get((int) (offset % segmentSize));
+    }
+
+    /**
+     * Token的数量
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    public TokenType getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    /**
+     * Token在文件中的起始位置，以字节计
+     *
+     * @param index
+     * @return
+     */
+    public long getStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * Token的长度，以字节计
+     *
+     * @param index
+     * @return
+     */
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    public String getText(int index) {
+        String text = FIXED_TEXT[types[index]];
+        if (text == null) {
+            //标识符和字面量，从映射的字节中解码，Token可能跨越两段
+            byte[] bytes = new byte[lengths[index]];
+            long start = starts[index];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = byteAt(start + i);
+            }
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return text;
+    }
+
+    public Token get(int index) {
+        return new View(index);
+    }
+
+    @Override
+    public Token read() {
+        if (pos < size) {
+            return get(pos++);
+        }
+        return null;
+    }
+
+    @Override
+    public Token peek() {
+        if (pos < size) {
+            return get(pos);
+        }
+        return null;
+    }
+
+    @Override
+    public Token peek(int k) {
+        int index = pos + k - 1;
+        if (index < size) {
+            return get(index);
+        }
+        return null;
+    }
+
+    @Override
+    public void unread() {
+        if (pos > 0) {
+            pos--;
+        }
+    }
+
+    @Override
+    public int getPosition() {
+        return pos;
+    }
+
+    @Override
+    public void setPosition(int position) {
+        if (position >= 0 && position <= size) {
+            pos = position;
+        }
+    }
+
+    /**
+     * 某个Token的视图
+     */
+    private class View implements Token {
+        private final int index;
+
+        View(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public TokenType getType() {
+            return TYPES[types[index]];
+        }
+
+        @Override
+        public String getText() {
+            return MappedTokenBuffer.this.getText(index);
+        }
+
+        @Override
+        public int getOffset() {
+            //偏移量以字节计，超过int范围时不提供
+            long start = starts[index];
+            return start <= Integer.MAX_VALUE ? (int) start : -1;
+        }
+
+        @Override
+        public int getSymbol() {
+            if (getType() == TokenType.Identifier) {
+                return symbols.intern(getText());
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.camile.playscript.ch1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * 并行的词法解析器。
+ * 把源代码切成若干块，在ForkJoinPool上同时解析，再按顺序把各块的Token拼接起来。
+ * <p>
+ * 切分点不能落在一个Token的中间。每个预定的切分点都向后移动到最近的Token边界字符（比如分号、空白、括号），
+ * 在边界字符处，不管前面是什么状态，当前Token都会结束，所以分块解析的结果与串行的SimpleLexer完全一样。
+ * 边界字符是根据DfaTable推算的，参见DfaTable.isBoundary()。
+ */
+public class ParallelLexer {
+    //太小的块不值得并行
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+    private final DfaTable table = SimpleLexer.TABLE;
+
+    private final ForkJoinPool pool;
+
+    private final int chunkSize;
+
+    //驻留标识符的符号表
+    private final SymbolTable symbols;
+
+    public ParallelLexer() {
+        this(ForkJoinPool.commonPool(), 0);
+    }
+
+    /**
+     * @param pool      执行解析任务的线程池
+     * @param chunkSize 每块的字符数，0表示根据线程数自动确定
+     */
+    public ParallelLexer(ForkJoinPool pool, int chunkSize) {
+        this(pool, chunkSize, SymbolTable.GLOBAL);
+    }
+
+    /**
+     * @param pool      执行解析任务的线程池
+     * @param chunkSize 每块的字符数，0表示根据线程数自动确定
+     * @param symbols   驻留标识符的符号表
+     */
+    public ParallelLexer(ForkJoinPool pool, int chunkSize, SymbolTable symbols) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.symbols = symbols;
+    }
+
+    /**
+     * 并行地解析，结果与SimpleLexer.tokenizeToBuffer()相同
+     *
+     * @param code
+     * @return
+     */
+    public TokenBuffer tokenize(CharSequence code) {
+        int length = code.length();
+        int size = chunkSize > 0 ? chunkSize : Math.max(MIN_CHUNK_SIZE, length / (pool.getParallelism() * 4));
+
+        //确定切分点
+        List<Integer> splits = new ArrayList<>();
+        splits.add(0);
+        int from = 0;
+        while (length - from > size) {
+            int split = resync(code, from + size, length);
+            if (split >= length) {
+                break;
+            }
+            splits.add(split);
+            from = split;
+        }
+        splits.add(length);
+
+        if (splits.size() == 2) {
+            TokenBuffer tokens = new TokenBuffer(code, symbols);
+            table.scan(code, 0, length, tokens);
+            return tokens;
+        }
+
+        //每块单独解析
+        List<Callable<TokenBuffer>> tasks = new ArrayList<>();
+        for (int i = 0; i + 1 < splits.size(); i++) {
+            int start = splits.get(i);
+            int end = splits.get(i + 1);
+            tasks.add(() -> {
+                TokenBuffer chunk = new TokenBuffer(code, (end - start) / 4, symbols);
+                table.scan(code, start, end, chunk);
+                return chunk;
+            });
+        }
+
+        //按顺序拼接
+        try {
+            List<TokenBuffer> chunks = new ArrayList<>();
+            int total = 0;
+            for (Future<TokenBuffer> future : pool.invokeAll(tasks)) {
+                TokenBuffer chunk = future.get();
+                chunks.add(chunk);
+                total += chunk.size();
+            }
+            TokenBuffer tokens = new TokenBuffer(code, total, symbols);
+            for (TokenBuffer chunk : chunks) {
+                tokens.append(chunk);
+            }
+            return tokens;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while lexing", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to lex a chunk", e.getCause());
+        }
+    }
+
+    /**
+     * 从position开始向后找到第一个Token边界字符
+     *
+     * @param code
+     * @param position
+     * @param length
+     * @return 边界字符的位置，找不到则返回length
+     */
+    private int resync(CharSequence code, int position, int length) {
+        while (position < length && !table.isBoundary(code.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+}
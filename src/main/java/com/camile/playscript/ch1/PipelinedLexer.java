@@ -0,0 +1,195 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.Token;
+import com.camile.playscript.TokenReader;
+import com.camile.playscript.TokenSource;
+
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * 在单独的线程上做词法解析的Token来源，让词法解析和语法解析同时进行。
+ * <p>
+ * 词法解析线程把Token攒成一批，通过SpscQueue交给Parser所在的线程，每批只需要同步一次。
+ * 队列满了，词法解析线程就等Parser取走；队列空了，Parser就等下一批。
+ * 输入结束时词法解析线程关闭队列，Parser取完剩下的Token之后nextToken()返回null。
+ * 词法解析线程出错时，异常在Parser的线程中由nextToken()抛出。
+ * <p>
+ * Token与SimpleLexer解析出来的完全一样，所以得到的AST也与串行解析的一样。
+ * 如果Parser没有读到结尾就不再需要后面的Token（比如遇到了语法错误），要调用close()让词法解析线程结束。
+ */
+public class PipelinedLexer implements TokenSource, AutoCloseable {
+    private static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    private final SpscQueue<Token[]> queue;
+
+    private final int batchSize;
+
+    //词法解析线程中正在攒的一批
+    private Token[] pending;
+    private int pendingCount = 0;
+
+    //词法解析线程的异常
+    private volatile Throwable failure;
+
+    //Parser线程中正在读的一批
+    private Token[] current = new Token[0];
+    private int index = 0;
+    private boolean finished = false;
+
+    public PipelinedLexer(CharSequence code) {
+        this(code, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param code      源代码，解析期间不能修改
+     * @param batchSize 每批的Token数
+     * @param capacity  队列中最多积压的批数
+     */
+    public PipelinedLexer(CharSequence code, int batchSize, int capacity) {
+        this(code, SimpleLexer.INSTANCE, batchSize, capacity);
+    }
+
+    public PipelinedLexer(CharSequence code, SimpleLexer lexer) {
+        this(code, lexer, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param code      源代码，解析期间不能修改
+     * @param lexer     标识符驻留在它的符号表中
+     * @param batchSize 每批的Token数
+     * @param capacity  队列中最多积压的批数
+     */
+    public PipelinedLexer(CharSequence code, SimpleLexer lexer, int batchSize, int capacity) {
+        this(batchSize, capacity);
+        SymbolTable symbols = lexer.getSymbols();
+        start(() -> lexer.scan(code, 0, code.length(),
+                (type, start, end) -> publish(SimpleLexer.newToken(symbols, type, code, start, end, start))));
+    }
+
+    public PipelinedLexer(Reader reader) {
+        this(reader, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * 从Reader中读取。读取和解析都在词法解析线程中进行
+     *
+     * @param reader
+     * @param batchSize 每批的Token数
+     * @param capacity  队列中最多积压的批数
+     */
+    public PipelinedLexer(Reader reader, int batchSize, int capacity) {
+        this(batchSize, capacity);
+        start(() -> {
+            StreamingLexer lexer = new StreamingLexer(reader);
+            Token token;
+            while ((token = lexer.nextToken()) != null) {
+                publish(token);
+            }
+        });
+    }
+
+    private PipelinedLexer(int batchSize, int capacity) {
+        this.batchSize = Math.max(batchSize, 1);
+        this.queue = new SpscQueue<>(capacity);
+        this.pending = new Token[this.batchSize];
+    }
+
+    /**
+     * 在Parser线程中读取Token的Token流，可以回溯，参见StreamingTokenReader
+     *
+     * @return
+     */
+    public TokenReader reader() {
+        return new StreamingTokenReader(this);
+    }
+
+    @Override
+    public Token nextToken() {
+        while (index == current.length) {
+            if (finished) {
+                return null;
+            }
+            Token[] batch = queue.take();
+            if (batch == null) {
+                finished = true;
+                Throwable e = failure;
+                if (e instanceof UncheckedIOException) {
+                    throw new UncheckedIOException("failed to read", ((UncheckedIOException) e).getCause());
+                }
+                if (e != null) {
+                    throw new IllegalStateException("failed to lex", e);
+                }
+                return null;
+            }
+            current = batch;
+            index = 0;
+        }
+        Token token = current[index];
+        //释放引用，让读过的Token可以被回收
+        current[index++] = null;
+        return token;
+    }
+
+    /**
+     * 不再需要后面的Token，让词法解析线程尽快结束。可以重复调用
+     */
+    @Override
+    public void close() {
+        queue.close();
+    }
+
+    private void start(Runnable lexing) {
+        Thread thread = new Thread(() -> {
+            try {
+                lexing.run();
+                flush();
+            } catch (Cancelled e) {
+                //Parser已经不需要后面的Token了
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                queue.close();
+            }
+        }, "playscript-lexer");
+        //Parser的线程结束了，没有关闭的词法解析线程也不会阻止虚拟机退出
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 在词法解析线程中调用，放入一个Token，攒够一批就交给Parser
+     */
+    private void publish(Token token) {
+        pending[pendingCount++] = token;
+        if (pendingCount == batchSize) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (pendingCount == 0) {
+            return;
+        }
+        Token[] batch = pendingCount == pending.length ? pending : Arrays.copyOf(pending, pendingCount);
+        if (!queue.put(batch)) {
+            throw new Cancelled();
+        }
+        pending = new Token[batchSize];
+        pendingCount = 0;
+    }
+
+    /**
+     * 队列已经被Parser关闭，用来从词法解析中退出
+     */
+    private static final class Cancelled extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Cancelled() {
+            super(null, null, false, false);
+        }
+    }
+}
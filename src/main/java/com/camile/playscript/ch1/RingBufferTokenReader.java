@@ -0,0 +1,191 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.Token;
+import com.camile.playscript.TokenReader;
+import com.camile.playscript.TokenSource;
+
+/**
+ * 用固定大小的环形缓冲区保存Token的Token流，按需从TokenSource拉取。
+ * <p>
+ * Parser用mark()标记可能回溯到的位置，标记可以嵌套，用release()按相反的顺序释放，reset()回到标记处。
+ * 最早的有效标记之前的Token（还要留一个给unread()）都可以被新的Token覆盖，
+ * 所以不论输入有多长，占用的内存都是固定的。
+ * 如果某个标记之后的Token多到放不下，说明回溯的距离超过了缓冲区的容量，抛出IllegalStateException。
+ * <p>
+ * getPosition()/setPosition()仍然可以用，但getPosition()不会阻止Token被覆盖，
+ * setPosition()到已经被覆盖的位置时抛出IllegalStateException。
+ * <p>
+ * 内部用long记录Token的序号，输入再长也不会溢出。TokenReader的位置和标记是int，
+ * 取的是序号的低32位，超过2^31个Token之后会变成负数再绕回来，所以只能用来回到原来的位置，不能比较大小。
+ * 有效的位置离当前位置不会超过缓冲区的容量，由低32位可以唯一地还原出序号。
+ */
+public class RingBufferTokenReader implements TokenReader {
+    private final TokenSource source;
+
+    private final Token[] ring;
+    private final int mask;
+
+    //缓冲区中最早的Token在整个Token流中的位置，缓冲区中是[first, fetched)这一段
+    private long first;
+    private long fetched;
+
+    //当前的读取位置，是在整个Token流中的位置
+    private long pos;
+
+    //有效的标记，按mark()的顺序排列
+    private long[] marks = new long[8];
+    private int markCount = 0;
+
+    private boolean exhausted = false;
+
+    public RingBufferTokenReader(TokenSource source) {
+        this(source, 256);
+    }
+
+    /**
+     * @param source
+     * @param capacity 缓冲区最多保存的Token数，会向上取整到2的幂
+     */
+    public RingBufferTokenReader(TokenSource source, int capacity) {
+        this(source, capacity, 0);
+    }
+
+    /**
+     * @param source
+     * @param capacity
+     * @param start 第一个Token的序号，测试中用来模拟已经读过很多Token的情况
+     */
+    RingBufferTokenReader(TokenSource source, int capacity, long start) {
+        this.source = source;
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.ring = new Token[size];
+        this.mask = size - 1;
+        this.first = start;
+        this.fetched = start;
+        this.pos = start;
+    }
+
+    @Override
+    public Token read() {
+        Token token = fetch(pos);
+        if (token != null) {
+            pos++;
+        }
+        return token;
+    }
+
+    @Override
+    public Token peek() {
+        return fetch(pos);
+    }
+
+    @Override
+    public Token peek(int k) {
+        return fetch(pos + k - 1);
+    }
+
+    @Override
+    public void unread() {
+        if (pos > first) {
+            pos--;
+        }
+    }
+
+    @Override
+    public int getPosition() {
+        return (int) pos;
+    }
+
+    @Override
+    public void setPosition(int position) {
+        long target = sequenceOf(position);
+        if (target < first) {
+            throw new IllegalStateException("token position " + position + " has been recycled");
+        }
+        if (target <= fetched) {
+            pos = target;
+        }
+    }
+
+    @Override
+    public int mark() {
+        if (markCount == marks.length) {
+            long[] bigger = new long[markCount * 2];
+            System.arraycopy(marks, 0, bigger, 0, markCount);
+            marks = bigger;
+        }
+        marks[markCount++] = pos;
+        return (int) pos;
+    }
+
+    @Override
+    public void reset(int marker) {
+        setPosition(marker);
+    }
+
+    @Override
+    public void release(int marker) {
+        if (markCount == 0 || (int) marks[markCount - 1] != marker) {
+            throw new IllegalStateException("marks must be released in reverse order");
+        }
+        markCount--;
+    }
+
+    /**
+     * 缓冲区的容量
+     *
+     * @return
+     */
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * 由int的位置还原出Token的序号，也就是离当前位置最近的、低32位等于position的那个序号
+     */
+    private long sequenceOf(int position) {
+        return pos + (position - (int) pos);
+    }
+
+    /**
+     * 取出序号为position的Token，必要时从source拉取
+     *
+     * @param position
+     * @return
+     */
+    private Token fetch(long position) {
+        while (position >= fetched) {
+            if (exhausted) {
+                return null;
+            }
+            if (fetched - first == ring.length) {
+                recycle();
+            }
+            Token token = source.nextToken();
+            if (token == null) {
+                exhausted = true;
+                return null;
+            }
+            ring[(int) fetched & mask] = token;
+            fetched++;
+        }
+        return ring[(int) position & mask];
+    }
+
+    /**
+     * 缓冲区满了，覆盖最早的那个Token
+     */
+    private void recycle() {
+        //当前位置的前一个Token留给unread()
+        long keep = pos - 1;
+        for (int i = 0; i < markCount; i++) {
+            keep = Math.min(keep, marks[i]);
+        }
+        if (first >= keep) {
+            throw new IllegalStateException("backtracking needs more than " + ring.length + " tokens");
+        }
+        //释放引用，让被覆盖的Token可以被回收
+        ring[(int) first & mask] = null;
+        first++;
+    }
+}
@@ -1,230 +1,196 @@
 package com.camile.playscript.ch1;
 
 import com.camile.playscript.Token;
+import com.camile.playscript.TokenReader;
 import com.camile.playscript.TokenType;
 
-import java.io.CharArrayReader;
-import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * 简单的词法解析器
+ * 词法规则用声明的方式写在下面，预先生成DfaTable迁移表，解析时每个字符只查一次表。
+ * 解析过程只用到局部变量，直接在源代码上按下标扫描，不复制源代码，也不为每个字符、每个Token创建临时对象。
+ * <p>
+ * SimpleLexer只有一个不变的符号表，迁移表在类加载时生成之后就不再改变，符号表SymbolTable是线程安全的。
+ * 所以一个实例可以被任意多个线程同时使用，不需要加锁，也不需要每次解析都创建新的实例，直接用INSTANCE即可。
+ * INSTANCE把标识符驻留在SymbolTable.GLOBAL中，解析不可信的输入时用自己的符号表创建一个实例。
  * */
 public class SimpleLexer {
-    //下面几个变量是在解析过程中用到的临时变量,如果要优化的话，可以塞到方法里隐藏起来
-    //临时保存token的文本
-    private StringBuffer tokenText = null;
-    //保存解析出来的Token
-    private List<Token> tokens = null;
-    //当前正在解析的Token
-    private SimpleToken token = null;
-
-    //是否是字母
-    private boolean isAlpha(int ch) {
-        return ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z';
+
+    /**
+     * 共用的实例，可以被多个线程同时使用
+     */
+    public static final SimpleLexer INSTANCE = new SimpleLexer();
+
+    //驻留标识符的符号表
+    private final SymbolTable symbols;
+
+    private static final String LETTERS = DfaTable.range('a', 'z') + DfaTable.range('A', 'Z');
+
+    private static final String DIGITS = DfaTable.range('0', '9');
+
+    /**
+     * 词法规则。要增加新的Token，只需要在这里增加状态迁移和接受状态，不需要修改扫描的代码。
+     * 没有规则的字符（比如空白字符）在初始状态下会被跳过。
+     */
+    static final DfaTable TABLE = DfaTable.builder()
+            //标识符。关键字在标识符结束时查Keywords表识别，不需要单独的状态
+            .move(DfaState.Initial, LETTERS, DfaState.Id)
+            .move(DfaState.Id, LETTERS + DIGITS, DfaState.Id)
+            .acceptWord(DfaState.Id, TokenType.Identifier)
+
+            //整型字面量
+            .move(DfaState.Initial, DIGITS, DfaState.IntLiteral)
+            .move(DfaState.IntLiteral, DIGITS, DfaState.IntLiteral)
+            .accept(DfaState.IntLiteral, TokenType.IntLiteral)
+
+            //比较操作符
+            .move(DfaState.Initial, ">", DfaState.GT)
+            .move(DfaState.GT, "=", DfaState.GE)
+            .move(DfaState.Initial, "<", DfaState.LT)
+            .move(DfaState.LT, "=", DfaState.LE)
+            .move(DfaState.Assignment, "=", DfaState.EQ)
+            .accept(DfaState.GT, TokenType.GT)
+            .accept(DfaState.GE, TokenType.GE)
+            .accept(DfaState.LT, TokenType.LT)
+            .accept(DfaState.LE, TokenType.LE)
+            .accept(DfaState.EQ, TokenType.EQ)
+
+            //单个字符的Token
+            .move(DfaState.Initial, "=", DfaState.Assignment)
+            .move(DfaState.Initial, "+", DfaState.Plus)
+            .move(DfaState.Initial, "-", DfaState.Minus)
+            .move(DfaState.Initial, "*", DfaState.Star)
+            .move(DfaState.Initial, "/", DfaState.Slash)
+            .move(DfaState.Initial, ";", DfaState.SemiColon)
+            .move(DfaState.Initial, "(", DfaState.LeftParen)
+            .move(DfaState.Initial, ")", DfaState.RightParen)
+            .accept(DfaState.Assignment, TokenType.Assignment)
+            .accept(DfaState.Plus, TokenType.Plus)
+            .accept(DfaState.Minus, TokenType.Minus)
+            .accept(DfaState.Star, TokenType.Star)
+            .accept(DfaState.Slash, TokenType.Slash)
+            .accept(DfaState.SemiColon, TokenType.SemiColon)
+            .accept(DfaState.LeftParen, TokenType.LeftParen)
+            .accept(DfaState.RightParen, TokenType.RightParen)
+            .build();
+
+    /**
+     * 标识符驻留在SymbolTable.GLOBAL中
+     */
+    public SimpleLexer() {
+        this(SymbolTable.GLOBAL);
     }
 
-    //是否是数字
-    private boolean isDigit(int ch) {
-        return ch >= '0' && ch <= '9';
+    /**
+     * @param symbols 驻留标识符的符号表
+     */
+    public SimpleLexer(SymbolTable symbols) {
+        this.symbols = symbols;
     }
 
-    //是否是空白字符
-    private boolean isBlank(int ch) {
-        return ch == ' ' || ch == '\t' || ch == '\n';
+    public SymbolTable getSymbols() {
+        return symbols;
     }
 
     /**
-     * 有限状态机进入初始状态。
-     * 这个初始状态其实并不做停留，它马上进入其他状态。
-     * 开始解析的时候，进入初始状态；某个Token解析完毕，也进入初始状态，在这里把Token记下来，然后建立一个新的Token。
+     * 扫描源代码中[from, to)这一段，把识别出来的Token依次交给sink。
+     * 扫描过程只记录Token的起止位置，不复制字符，也不创建任何临时对象。
      *
-     * @param ch
-     * @return
+     * @param code 源代码
+     * @param from 起始位置（包含）
+     * @param to   结束位置（不包含）
+     * @param sink 接收Token
      */
-    private DfaState initToken(char ch) {
-        if (tokenText.length() > 0) {
-            token.setText(tokenText.toString());
-            tokens.add(token);
-
-            tokenText = new StringBuffer();
-            token = new SimpleToken();
-        }
-
-        DfaState newState;
-        /*
-         * 状态迁移
-         * */
-        if (isAlpha(ch)) {              //第一个字符是字母
-            if (ch == 'i') {
-                newState = DfaState.Id_int1;
-            } else {
-                newState = DfaState.Id; //进入Id状态
-            }
-            token.setType(TokenType.Identifier);
-            tokenText.append(ch);
-        } else if (isDigit(ch)) {       //第一个字符是数字
-            newState = DfaState.IntLiteral;
-            token.setType(TokenType.IntLiteral);
-            tokenText.append(ch);
-        } else if (ch == '>') {         //第一个字符是>
-            newState = DfaState.GT;
-            token.setType(TokenType.GT);
-            tokenText.append(ch);
-        } else if (ch == '+') {
-            newState = DfaState.Plus;
-            token.setType(TokenType.Plus);
-            tokenText.append(ch);
-        } else if (ch == '-') {
-            newState = DfaState.Minus;
-            token.setType(TokenType.Minus);
-            tokenText.append(ch);
-        } else if (ch == '*') {
-            newState = DfaState.Star;
-            token.setType(TokenType.Star);
-            tokenText.append(ch);
-        } else if (ch == '/') {
-            newState = DfaState.Slash;
-            token.setType(TokenType.Slash);
-            tokenText.append(ch);
-        } else if (ch == ';') {
-            newState = DfaState.SemiColon;
-            token.setType(TokenType.SemiColon);
-            tokenText.append(ch);
-        } else if (ch == '(') {
-            newState = DfaState.LeftParen;
-            token.setType(TokenType.LeftParen);
-            tokenText.append(ch);
-        } else if (ch == ')') {
-            newState = DfaState.RightParen;
-            token.setType(TokenType.RightParen);
-            tokenText.append(ch);
-        } else if (ch == '=') {
-            newState = DfaState.Assignment;
-            token.setType(TokenType.Assignment);
-            tokenText.append(ch);
-        } else {
-            // skip all unknown patterns
-            newState = DfaState.Initial;
-        }
-        return newState;
+    public void scan(CharSequence code, int from, int to, TokenSink sink) {
+        TABLE.scan(code, from, to, sink);
     }
 
     /**
      * 解析字符串，形成Token。
-     * 这是一个有限状态自动机，在不同的状态中迁移。
      *
      * @param code
      * @return
      */
     public SimpleTokenReader tokenize(String code) {
-        tokens = new ArrayList<>();
-        CharArrayReader reader = new CharArrayReader(code.toCharArray());
-        tokenText = new StringBuffer();
-        token = new SimpleToken();
-        int ich = 0;
-        char ch = 0;
-        DfaState state = DfaState.Initial;
-        try {
-            while ((ich = reader.read()) != -1) {
-                ch = (char) ich;
-                switch (state) {
-                    case Initial:
-                        //重新确定后续状态
-                        state = initToken(ch);
-                        break;
-                    case Id:
-                        if (isAlpha(ch) || isDigit(ch)) {
-                            //保持标识符状态
-                            tokenText.append(ch);
-                        } else {
-                            //退出标识符状态，并保存Token
-                            state = initToken(ch);
-                        }
-                        break;
-                    case GT:
-                        if (ch == '=') {
-                            //转换成GE
-                            token.setType(TokenType.GE);
-                            state = DfaState.GE;
-                            tokenText.append(ch);
-                        } else {
-                            //退出GT状态，并保存Token
-                            state = initToken(ch);
-                        }
-                        break;
-                    case GE:
-                    case Assignment:
-                    case Plus:
-                    case Minus:
-                    case Star:
-                    case Slash:
-                    case SemiColon:
-                    case LeftParen:
-                    case RightParen:
-                        //退出当前状态，并保存Token
-                        state = initToken(ch);
-                        break;
-                    case IntLiteral:
-                        if (isDigit(ch)) {
-                            //继续保持在数字字面量状态
-                            tokenText.append(ch);
-                        } else {
-                            //退出当前状态，并保存Token
-                            state = initToken(ch);
-                        }
-                        break;
-                    case Id_int1:
-                        if (ch == 'n') {
-                            state = DfaState.Id_int2;
-                            tokenText.append(ch);
-                        } else if (isDigit(ch) || isAlpha(ch)) {
-                            //切换回Id状态
-                            state = DfaState.Id;
-                            tokenText.append(ch);
-                        } else {
-                            state = initToken(ch);
-                        }
-                        break;
-                    case Id_int2:
-                        if (ch == 't') {
-                            state = DfaState.Id_int3;
-                            tokenText.append(ch);
-                        } else if (isDigit(ch) || isAlpha(ch)) {
-                            //切换回id状态
-                            state = DfaState.Id;
-                            tokenText.append(ch);
-                        } else {
-                            state = initToken(ch);
-                        }
-                        break;
-                    case Id_int3:
-                        if (isBlank(ch)) {
-                            token.setType(TokenType.Int);
-                            state = initToken(ch);
-                        } else {
-                            //切换回Id状态
-                            state = DfaState.Id;
-                            tokenText.append(ch);
-                        }
-                        break;
-                    default:
-
-                }
-
-            }
-            // 把最后一个token送进去
-            if (tokenText.length() > 0) {
-                initToken(ch);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        return tokenize((CharSequence) code);
+    }
+
+    /**
+     * 直接在CharSequence上解析，形成Token。
+     * StringBuilder、CharBuffer等都可以直接传进来，不需要先转换成String。
+     *
+     * @param code
+     * @return
+     */
+    public SimpleTokenReader tokenize(CharSequence code) {
+        List<Token> tokens = new ArrayList<>();
+        scan(code, 0, code.length(), (type, start, end) -> tokens.add(newToken(symbols, type, code, start, end, start)));
+        return new SimpleTokenReader(tokens);
+    }
 
+    /**
+     * 直接在字符数组的[offset, offset + length)这一段上解析，形成Token。
+     *
+     * @param code
+     * @param offset
+     * @param length
+     * @return
+     */
+    public SimpleTokenReader tokenize(char[] code, int offset, int length) {
+        List<Token> tokens = new ArrayList<>();
+        CharBuffer view = CharBuffer.wrap(code, offset, length);
+        scan(view, 0, length, (type, start, end) -> tokens.add(newToken(symbols, type, view, start, end, start)));
         return new SimpleTokenReader(tokens);
     }
 
+    /**
+     * 解析CharSequence，把Token紧凑地存放在TokenBuffer中。
+     * 不为每个Token创建对象和字符串，适合大批量的编译。
+     *
+     * @param code
+     * @return
+     */
+    public TokenBuffer tokenizeToBuffer(CharSequence code) {
+        TokenBuffer buffer = new TokenBuffer(code, symbols);
+        scan(code, 0, code.length(), buffer);
+        return buffer;
+    }
+
+    /**
+     * 从Reader中流式解析。返回的Token流是惰性的：Parser读到哪里，才解析到哪里，
+     * 并且只保留还可能回溯到的Token，参见StreamingTokenReader。
+     *
+     * @param reader
+     * @return
+     */
+    public TokenReader tokenize(Reader reader) {
+        return new StreamingTokenReader(new StreamingLexer(reader, symbols));
+    }
+
+    /**
+     * 创建code中[start, end)这一段的Token。
+     * 标识符的文本驻留在symbols中，同名的标识符共用一个String，并带上符号编号。
+     *
+     * @param symbols
+     * @param type
+     * @param code
+     * @param start
+     * @param end
+     * @param offset Token在整个源代码中的偏移量
+     * @return
+     */
+    static Token newToken(SymbolTable symbols, TokenType type, CharSequence code, int start, int end, int offset) {
+        if (type == TokenType.Identifier) {
+            SymbolTable.Symbol symbol = symbols.symbol(code, start, end);
+            return new SimpleToken(type, symbol.name, symbol.id, offset);
+        }
+        return new SimpleToken(type, code.subSequence(start, end).toString(), -1, offset);
+    }
+
     /**
      * 打印所有的Token
      *
@@ -10,6 +10,27 @@ public class SimpleToken implements Token {
     //文本值
     private String text;
 
+    //标识符的符号编号
+    private int symbol = -1;
+
+    //在源代码中的起始偏移量
+    private int offset = -1;
+
+    public SimpleToken() {
+    }
+
+    public SimpleToken(TokenType type, String text) {
+        this.type = type;
+        this.text = text;
+    }
+
+    public SimpleToken(TokenType type, String text, int symbol, int offset) {
+        this.type = type;
+        this.text = text;
+        this.symbol = symbol;
+        this.offset = offset;
+    }
+
     public void setType(TokenType type) {
         this.type = type;
     }
@@ -27,4 +48,14 @@ public class SimpleToken implements Token {
     public String getText() {
         return text;
     }
+
+    @Override
+    public int getSymbol() {
+        return symbol;
+    }
+
+    @Override
+    public int getOffset() {
+        return offset;
+    }
 }
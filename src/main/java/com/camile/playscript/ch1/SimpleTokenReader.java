@@ -29,6 +29,15 @@ public class SimpleTokenReader implements TokenReader {
         return null;
     }
 
+    @Override
+    public Token peek(int k) {
+        int index = pos + k - 1;
+        if (index < tokens.size()) {
+            return tokens.get(index);
+        }
+        return null;
+    }
+
     @Override
     public void unread() {
         if (pos > 0) {
@@ -43,7 +52,8 @@ public class SimpleTokenReader implements TokenReader {
 
     @Override
     public void setPosition(int position) {
-        if (position >=0 && position < tokens.size()){
+        //可以回到流的末尾
+        if (position >= 0 && position <= tokens.size()) {
             pos = position;
         }
     }
@@ -0,0 +1,135 @@
+package com.camile.playscript.ch1;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单生产者、单消费者的有界队列。
+ * 只有一个线程调用put()/offer()，只有一个线程调用take()/poll()，所以不需要加锁：
+ * tail只由生产者写，head只由消费者写，对方只读。
+ * <p>
+ * 队列满时生产者等待，队列空时消费者等待：先空转几次，还不行再park，由对方放入或取走元素之后unpark。
+ * close()之后put()不再等待，直接返回false；take()取完剩下的元素之后返回null。
+ * 生产者用close()表示数据已经结束，消费者用close()表示不再需要后面的数据。
+ */
+final class SpscQueue<E> {
+    //park之前空转的次数
+    private static final int SPINS = 64;
+
+    private final Object[] items;
+    private final int mask;
+
+    //下一个要取出的位置，只由消费者写
+    private volatile long head = 0;
+
+    //下一个要放入的位置，只由生产者写
+    private volatile long tail = 0;
+
+    //正在等待的生产者和消费者
+    private volatile Thread producer;
+    private volatile Thread consumer;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param capacity 最多容纳的元素个数，会向上取整到2的幂
+     */
+    SpscQueue(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.items = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * 放入一个元素，队列满时返回false
+     */
+    boolean offer(E item) {
+        long t = tail;
+        if (t - head == items.length) {
+            return false;
+        }
+        items[(int) t & mask] = item;
+        //volatile写：对方读到新的tail时，一定也能读到上面放入的元素
+        tail = t + 1;
+        return true;
+    }
+
+    /**
+     * 取出一个元素，队列空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long h = head;
+        if (h == tail) {
+            return null;
+        }
+        int index = (int) h & mask;
+        E item = (E) items[index];
+        items[index] = null;
+        head = h + 1;
+        return item;
+    }
+
+    /**
+     * 放入一个元素，队列满时等待
+     *
+     * @return 队列已经关闭则返回false，元素没有放入
+     */
+    boolean put(E item) {
+        for (int spins = 0; !offer(item); spins++) {
+            if (closed) {
+                return false;
+            }
+            if (spins >= SPINS) {
+                producer = Thread.currentThread();
+                //先登记再检查：对方要么在登记之后取走元素并看到登记，要么在此之前取走、这里能看到空位
+                if (tail - head == items.length && !closed) {
+                    LockSupport.park(this);
+                }
+                producer = null;
+            }
+        }
+        wake(consumer);
+        return true;
+    }
+
+    /**
+     * 取出一个元素，队列空时等待
+     *
+     * @return 队列已经关闭并且没有剩下的元素，返回null
+     */
+    E take() {
+        for (int spins = 0; ; spins++) {
+            E item = poll();
+            if (item != null) {
+                wake(producer);
+                return item;
+            }
+            if (closed) {
+                //close()之前放入的元素在这里都能看到
+                return poll();
+            }
+            if (spins >= SPINS) {
+                consumer = Thread.currentThread();
+                if (head == tail && !closed) {
+                    LockSupport.park(this);
+                }
+                consumer = null;
+            }
+        }
+    }
+
+    /**
+     * 关闭队列，唤醒正在等待的一方
+     */
+    void close() {
+        closed = true;
+        wake(producer);
+        wake(consumer);
+    }
+
+    private static void wake(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
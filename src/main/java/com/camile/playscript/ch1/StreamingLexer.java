@@ -0,0 +1,168 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.Token;
+import com.camile.playscript.TokenSource;
+import com.camile.playscript.TokenType;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * 流式的词法解析器。
+ * 从Reader中分块读入字符，每次调用nextToken()才解析出一个Token，不需要先把整个输入读成String。
+ * 使用与SimpleLexer相同的DfaTable，解析结果与SimpleLexer完全一致。
+ * <p>
+ * 内存中只保留一个字符缓冲区。一个Token跨越缓冲区边界时，把它已经读到的部分移到缓冲区开头再继续读，
+ * 只有Token比缓冲区还长时才扩大缓冲区。
+ */
+public class StreamingLexer implements TokenSource {
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final DfaTable table = SimpleLexer.TABLE;
+
+    private final Reader reader;
+
+    //字符缓冲区，有效的字符是[0, limit)
+    private char[] buf;
+    private CharBuffer bufView;
+    private int limit = 0;
+
+    //下一个要读的字符
+    private int pos = 0;
+
+    //缓冲区开头的字符在整个输入中的偏移量
+    private int base = 0;
+
+    //自动机的当前状态，以及当前Token的起始位置
+    private int state = DfaTable.INITIAL;
+    private int start = 0;
+
+    private boolean eof = false;
+
+    //驻留标识符的符号表
+    private final SymbolTable symbols;
+
+    public StreamingLexer(Reader reader) {
+        this(reader, DEFAULT_BUFFER_SIZE);
+    }
+
+    public StreamingLexer(Reader reader, int bufferSize) {
+        this(reader, bufferSize, SymbolTable.GLOBAL);
+    }
+
+    public StreamingLexer(Reader reader, SymbolTable symbols) {
+        this(reader, DEFAULT_BUFFER_SIZE, symbols);
+    }
+
+    /**
+     * @param reader
+     * @param bufferSize 缓冲区的初始大小
+     * @param symbols    驻留标识符的符号表
+     */
+    public StreamingLexer(Reader reader, int bufferSize, SymbolTable symbols) {
+        this.reader = reader;
+        this.symbols = symbols;
+        this.buf = new char[Math.max(bufferSize, 16)];
+        this.bufView = CharBuffer.wrap(buf);
+    }
+
+    /**
+     * 从字节通道中读取，按charset解码
+     *
+     * @param channel
+     * @param charset
+     */
+    public StreamingLexer(ReadableByteChannel channel, Charset charset) {
+        this(Channels.newReader(channel, charset.newDecoder(), -1));
+    }
+
+    @Override
+    public Token nextToken() {
+        final byte[] classes = table.charClasses;
+        final int[] transitions = table.transitions;
+        final int width = table.classCount;
+
+        while (true) {
+            if (pos == limit && !fill()) {
+                // 把最后一个token送进去
+                if (state != DfaTable.INITIAL) {
+                    Token token = token(state, start, pos);
+                    state = DfaTable.INITIAL;
+                    return token;
+                }
+                return null;
+            }
+
+            char ch = buf[pos];
+            int next = transitions[state * width + (ch < 128 ? classes[ch] : 0)];
+            Token token = null;
+            if (next >= DfaTable.EMIT) {
+                //退出当前状态，并保存Token
+                token = token(state, start, pos);
+                start = pos;
+                next -= DfaTable.EMIT;
+            }
+            if (next == DfaTable.INITIAL) {
+                start = pos + 1;
+            }
+            state = next;
+            pos++;
+            if (token != null) {
+                return token;
+            }
+        }
+    }
+
+    private Token token(int state, int start, int end) {
+        TokenType type = table.typeOf(state, bufView, start, end);
+        if (type == TokenType.Identifier) {
+            return SimpleLexer.newToken(symbols, type, bufView, start, end, base + start);
+        }
+        return new SimpleToken(type, new String(buf, start, end - start), -1, base + start);
+    }
+
+    /**
+     * 读入更多字符。当前Token已经读到的部分移到缓冲区开头，必要时扩大缓冲区。
+     *
+     * @return 输入已经结束则返回false
+     */
+    private boolean fill() {
+        if (eof) {
+            return false;
+        }
+        int keep = state == DfaTable.INITIAL ? limit : start;
+        int kept = limit - keep;
+        if (kept == buf.length) {
+            char[] bigger = new char[buf.length * 2];
+            System.arraycopy(buf, keep, bigger, 0, kept);
+            buf = bigger;
+            bufView = CharBuffer.wrap(buf);
+        } else if (kept > 0) {
+            System.arraycopy(buf, keep, buf, 0, kept);
+        }
+        base += keep;
+        start -= keep;
+        pos -= keep;
+        limit = kept;
+
+        try {
+            int n;
+            do {
+                n = reader.read(buf, limit, buf.length - limit);
+            } while (n == 0);
+            if (n < 0) {
+                eof = true;
+                return false;
+            }
+            limit += n;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.Token;
+import com.camile.playscript.TokenReader;
+import com.camile.playscript.TokenSource;
+
+import java.util.Arrays;
+
+/**
+ * 按需从TokenSource拉取Token的Token流。
+ * Parser读到哪里，才解析到哪里，第一个语句不必等整个输入解析完。
+ * <p>
+ * 内存中只保留Parser还可能回溯到的那一段Token：
+ * unread()最多退回一步；setPosition()只能回到最近一次getPosition()返回的位置或者它之后的位置；
+ * mark()标记的位置在release()之前一直保留，标记可以嵌套，按相反的顺序释放。
+ * 更早的Token会被丢弃，所以占用的内存取决于向前看和回溯的距离，而不是输入的长度。
+ * <p>
+ * 和RingBufferTokenReader一样，内部用long记录Token的序号，int的位置和标记是序号的低32位。
+ */
+public class StreamingTokenReader implements TokenReader {
+    private final TokenSource source;
+
+    //保留的Token。window[0]在整个Token流中的序号是windowStart
+    private Token[] window = new Token[16];
+    private long windowStart = 0;
+    private int count = 0;
+
+    //当前的读取位置，是在整个Token流中的序号
+    private long pos = 0;
+
+    //最近一次getPosition()返回的位置，-1表示没有
+    private long lastPosition = -1;
+
+    //有效的标记，按mark()的顺序排列
+    private long[] marks = new long[8];
+    private int markCount = 0;
+
+    private boolean exhausted = false;
+
+    public StreamingTokenReader(TokenSource source) {
+        this.source = source;
+    }
+
+    @Override
+    public Token read() {
+        Token token = fetch(pos);
+        if (token != null) {
+            pos++;
+            discard();
+        }
+        return token;
+    }
+
+    @Override
+    public Token peek() {
+        return fetch(pos);
+    }
+
+    @Override
+    public Token peek(int k) {
+        return fetch(pos + k - 1);
+    }
+
+    @Override
+    public void unread() {
+        if (pos > windowStart) {
+            pos--;
+        }
+    }
+
+    @Override
+    public int getPosition() {
+        lastPosition = pos;
+        return (int) pos;
+    }
+
+    @Override
+    public void setPosition(int position) {
+        long target = pos + (position - (int) pos);
+        if (target < windowStart) {
+            throw new IllegalStateException("token position " + position + " has been discarded");
+        }
+        if (target <= windowStart + count) {
+            pos = target;
+        }
+    }
+
+    @Override
+    public int mark() {
+        if (markCount == marks.length) {
+            marks = Arrays.copyOf(marks, markCount * 2);
+        }
+        marks[markCount++] = pos;
+        return (int) pos;
+    }
+
+    @Override
+    public void reset(int marker) {
+        setPosition(marker);
+    }
+
+    @Override
+    public void release(int marker) {
+        if (markCount == 0 || (int) marks[markCount - 1] != marker) {
+            throw new IllegalStateException("marks must be released in reverse order");
+        }
+        markCount--;
+    }
+
+    /**
+     * 取出序号为position的Token，必要时从source拉取
+     *
+     * @param position
+     * @return
+     */
+    private Token fetch(long position) {
+        while (position >= windowStart + count) {
+            if (exhausted) {
+                return null;
+            }
+            Token token = source.nextToken();
+            if (token == null) {
+                exhausted = true;
+                return null;
+            }
+            if (count == window.length) {
+                Token[] bigger = new Token[window.length * 2];
+                System.arraycopy(window, 0, bigger, 0, count);
+                window = bigger;
+            }
+            window[count++] = token;
+        }
+        return window[(int) (position - windowStart)];
+    }
+
+    /**
+     * 丢弃不可能再回溯到的Token。
+     * 攒到窗口的一半再一起移动，平摊下来每个Token只移动常数次。
+     */
+    private void discard() {
+        long keep = pos - 1;
+        if (lastPosition >= 0 && lastPosition < keep) {
+            keep = lastPosition;
+        }
+        for (int i = 0; i < markCount; i++) {
+            keep = Math.min(keep, marks[i]);
+        }
+        int drop = (int) (keep - windowStart);
+        if (drop > 0 && drop >= window.length / 2) {
+            count -= drop;
+            System.arraycopy(window, drop, window, 0, count);
+            //释放引用，让被丢弃的Token可以被回收
+            Arrays.fill(window, count, count + drop, null);
+            windowStart = keep;
+        }
+    }
+}
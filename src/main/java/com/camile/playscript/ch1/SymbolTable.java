@@ -0,0 +1,205 @@
+package com.camile.playscript.ch1;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 符号表，把标识符的文本驻留下来，并给每个不同的名字分配一个连续的整数编号（从0开始）。
+ * <p>
+ * 词法解析时直接用源代码中的一段字符查表，已经出现过的名字不再创建新的String。
+ * 后面的阶段可以用编号代替字符串来比较和索引，比如解释器按编号查找变量。
+ * 查表不加锁，只有加入新名字时才加锁，所以可以被很多线程同时使用。
+ * <p>
+ * 名字加入之后不会被删除：Token、AST节点和缓存的AST（比如FlatAST）里只有编号，
+ * 它们可能比解析过程活得长得多，删除名字会让这些编号失效。所以符号表占用的内存随加入过的不同名字的个数增长。
+ * <p>
+ * GLOBAL是默认的符号表，整个进程共用，同样的脚本不管被解析多少次，每个名字只保存一份，适合可信的脚本。
+ * 解析不可信的输入时（比如服务端的每个会话），应该创建自己的、有上限的符号表，传给SimpleLexer或SimpleParser，
+ * 超过上限时解析失败；会话结束后整个符号表连同其中的名字一起被回收。
+ * 每个符号表的哈希函数带有一个随机的种子，外部无法事先构造出大量冲突的名字让查表退化。
+ * <p>
+ * 编号只在一个符号表中有意义，不要用它做按脚本或会话分配的数组的下标，否则数组的大小取决于别的脚本用过多少个名字，
+ * 参见SimpleScript.slotOf()。
+ */
+public final class SymbolTable {
+    public static final SymbolTable GLOBAL = new SymbolTable();
+
+    //哈希函数的种子，每个符号表不同
+    private final int seed = ThreadLocalRandom.current().nextInt();
+
+    //最多可以加入的名字数量
+    private final int maxSize;
+
+    //开放定址的哈希表，加入新名字之后才整体发布
+    private volatile Symbol[] slots = new Symbol[1024];
+
+    //以编号为下标的名字
+    private volatile String[] names = new String[512];
+
+    //名字的数量，只在加锁时修改
+    private int size = 0;
+
+    /**
+     * 没有上限的符号表
+     */
+    public SymbolTable() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxSize 最多可以加入的名字数量，超过时intern()抛出IllegalStateException
+     */
+    public SymbolTable(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 驻留code中[start, end)这一段文本，返回它的编号
+     *
+     * @param code
+     * @param start
+     * @param end
+     * @return
+     * @throws IllegalStateException 是新的名字，但符号表已经满了
+     */
+    public int intern(CharSequence code, int start, int end) {
+        return symbol(code, start, end).id;
+    }
+
+    public int intern(String name) {
+        return symbol(name, 0, name.length()).id;
+    }
+
+    /**
+     * 编号对应的名字
+     *
+     * @param id
+     * @return
+     */
+    public String nameOf(int id) {
+        String[] array = names;
+        String name = id < array.length ? array[id] : null;
+        if (name == null) {
+            //可能是别的线程刚刚加入的名字，加锁之后一定能看到
+            synchronized (this) {
+                name = names[id];
+            }
+        }
+        return name;
+    }
+
+    /**
+     * 已经驻留的名字的数量，所有编号都小于它
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    Symbol symbol(CharSequence code, int start, int end) {
+        int hash = hash(code, start, end);
+        Symbol symbol = find(slots, hash, code, start, end);
+        if (symbol == null) {
+            symbol = add(hash, code, start, end);
+        }
+        return symbol;
+    }
+
+    private synchronized Symbol add(int hash, CharSequence code, int start, int end) {
+        //加锁之后再查一遍，也许别的线程刚刚加入了同一个名字
+        Symbol[] table = slots;
+        Symbol symbol = find(table, hash, code, start, end);
+        if (symbol != null) {
+            return symbol;
+        }
+
+        if (size == maxSize) {
+            throw new IllegalStateException("too many symbols, the limit is " + maxSize);
+        }
+        String name = code.subSequence(start, end).toString();
+        symbol = new Symbol(name, hash, size);
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+        }
+        names[size] = name;
+        size++;
+
+        //负载因子不超过1/2
+        if (size * 2 > table.length) {
+            Symbol[] larger = new Symbol[table.length * 2];
+            for (Symbol old : table) {
+                if (old != null) {
+                    insert(larger, old);
+                }
+            }
+            table = larger;
+        }
+        insert(table, symbol);
+        slots = table;
+        return symbol;
+    }
+
+    private static Symbol find(Symbol[] table, int hash, CharSequence code, int start, int end) {
+        int mask = table.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Symbol symbol = table[i];
+            if (symbol == null) {
+                return null;
+            }
+            if (symbol.hash == hash && symbol.matches(code, start, end)) {
+                return symbol;
+            }
+        }
+    }
+
+    private static void insert(Symbol[] table, Symbol symbol) {
+        int mask = table.length - 1;
+        int i = symbol.hash & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = symbol;
+    }
+
+    private int hash(CharSequence code, int start, int end) {
+        //每个字符都先与种子混合过的状态异或再相乘、移位，种子不同，冲突的名字也不同
+        int h = seed;
+        for (int i = start; i < end; i++) {
+            h = (h ^ code.charAt(i)) * 0x9E3779B9;
+            h ^= h >>> 15;
+        }
+        //把高位混合到低位，哈希表是按低位取下标的
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 符号表中的一项
+     */
+    static final class Symbol {
+        final String name;
+        final int hash;
+        final int id;
+
+        Symbol(String name, int hash, int id) {
+            this.name = name;
+            this.hash = hash;
+            this.id = id;
+        }
+
+        boolean matches(CharSequence code, int start, int end) {
+            if (name.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) != code.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
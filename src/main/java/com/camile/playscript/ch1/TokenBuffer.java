@@ -0,0 +1,318 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.Token;
+import com.camile.playscript.TokenReader;
+import com.camile.playscript.TokenType;
+
+import java.util.Arrays;
+
+/**
+ * 紧凑存储的Token流。
+ * 不为每个Token创建对象，而是把所有Token按列存放在几个数组里：类型存在byte[]中，
+ * 起止位置存在int[]中，都指向原来的源代码。每个Token只占9个字节。
+ * <p>
+ * read()和peek()返回的Token是一个很轻的视图，创建时记下Token的类型和起止位置，
+ * 调用getText()的时候才从源代码中截取文本。
+ * 视图之后不受replace()的影响。源代码会被修改的TokenBuffer（参见IncrementalLexer）创建视图时还要复制文本，
+ * 所以在修改之前拿到的Token，类型、文本和位置都不会变。
+ * getPosition()/setPosition()就是Token的序号，回溯只是改一个下标。
+ */
+public class TokenBuffer implements TokenReader, TokenSink {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private static final byte IDENTIFIER = (byte) TokenType.Identifier.ordinal();
+
+    //源代码
+    private final CharSequence source;
+
+    //驻留标识符的符号表
+    private final SymbolTable symbols;
+
+    private byte[] types;
+    private int[] starts;
+    private int[] ends;
+    private int size = 0;
+
+    //当前的读取位置
+    private int pos = 0;
+
+    //最近创建的视图。视图是不可变的，在replace()之前同一个位置的Token可以重复使用它
+    private View last = null;
+
+    //源代码是否会被修改。会被修改时视图创建时就复制文本
+    private boolean editable = false;
+
+    public TokenBuffer(CharSequence source) {
+        this(source, SymbolTable.GLOBAL);
+    }
+
+    /**
+     * @param source  源代码
+     * @param symbols 驻留标识符的符号表
+     */
+    public TokenBuffer(CharSequence source, SymbolTable symbols) {
+        //平均每个Token大约四五个字符，先按这个估计容量
+        this(source, source.length() / 4, symbols);
+    }
+
+    /**
+     * @param source   源代码
+     * @param capacity 预计的Token数量
+     */
+    public TokenBuffer(CharSequence source, int capacity) {
+        this(source, capacity, SymbolTable.GLOBAL);
+    }
+
+    /**
+     * @param source   源代码
+     * @param capacity 预计的Token数量
+     * @param symbols  驻留标识符的符号表
+     */
+    public TokenBuffer(CharSequence source, int capacity, SymbolTable symbols) {
+        this.source = source;
+        this.symbols = symbols;
+        capacity = Math.max(16, capacity);
+        types = new byte[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+    }
+
+    @Override
+    public void token(TokenType type, int start, int end) {
+        if (size == types.length) {
+            int capacity = size + (size >> 1);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * 把另一个TokenBuffer中的Token整批追加到后面，它们必须来自同一份源代码
+     *
+     * @param other
+     */
+    void append(TokenBuffer other) {
+        int total = size + other.size;
+        if (total > types.length) {
+            types = Arrays.copyOf(types, total);
+            starts = Arrays.copyOf(starts, total);
+            ends = Arrays.copyOf(ends, total);
+        }
+        System.arraycopy(other.types, 0, types, size, other.size);
+        System.arraycopy(other.starts, 0, starts, size, other.size);
+        System.arraycopy(other.ends, 0, ends, size, other.size);
+        size = total;
+    }
+
+    /**
+     * 用另一个TokenBuffer中的Token替换[from, to)这一段，后面的Token位置都移动shift个字符。
+     * 用于源代码被修改之后，只替换重新解析的那一段Token。
+     *
+     * @param from
+     * @param to
+     * @param other
+     * @param shift
+     */
+    void replace(int from, int to, TokenBuffer other, int shift) {
+        int total = size - (to - from) + other.size;
+        if (total > types.length) {
+            int capacity = Math.max(total, size + (size >> 1));
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        int tail = from + other.size;
+        System.arraycopy(types, to, types, tail, size - to);
+        System.arraycopy(starts, to, starts, tail, size - to);
+        System.arraycopy(ends, to, ends, tail, size - to);
+        if (shift != 0) {
+            for (int i = tail; i < total; i++) {
+                starts[i] += shift;
+                ends[i] += shift;
+            }
+        }
+        System.arraycopy(other.types, 0, types, from, other.size);
+        System.arraycopy(other.starts, 0, starts, from, other.size);
+        System.arraycopy(other.ends, 0, ends, from, other.size);
+        size = total;
+        pos = Math.min(pos, size);
+        last = null;
+    }
+
+    /**
+     * 清空所有Token，重复使用已经分配的数组。已经创建的视图不受影响
+     */
+    void clear() {
+        size = 0;
+        pos = 0;
+        last = null;
+    }
+
+    /**
+     * 标记源代码会被修改，之后创建的视图都复制一份文本，不再引用源代码
+     */
+    void setEditable() {
+        editable = true;
+    }
+
+    /**
+     * Token的数量
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    public CharSequence getSource() {
+        return source;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    public TokenType getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    public int getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * 第index个Token的文本，标识符返回SymbolTable中驻留的名字
+     *
+     * @param index
+     * @return
+     */
+    public String getText(int index) {
+        if (types[index] == IDENTIFIER) {
+            return symbols.symbol(source, starts[index], ends[index]).name;
+        }
+        return source.subSequence(starts[index], ends[index]).toString();
+    }
+
+    /**
+     * 第index个Token的视图
+     *
+     * @param index
+     * @return
+     */
+    public Token get(int index) {
+        View view = last;
+        if (view == null || view.index != index) {
+            view = new View(index);
+            last = view;
+        }
+        return view;
+    }
+
+    @Override
+    public Token read() {
+        if (pos < size) {
+            return get(pos++);
+        }
+        return null;
+    }
+
+    @Override
+    public Token peek() {
+        if (pos < size) {
+            return get(pos);
+        }
+        return null;
+    }
+
+    @Override
+    public Token peek(int k) {
+        int index = pos + k - 1;
+        if (index < size) {
+            return get(index);
+        }
+        return null;
+    }
+
+    @Override
+    public void unread() {
+        if (pos > 0) {
+            pos--;
+        }
+    }
+
+    @Override
+    public int getPosition() {
+        return pos;
+    }
+
+    @Override
+    public void setPosition(int position) {
+        if (position >= 0 && position <= size) {
+            pos = position;
+        }
+    }
+
+    /**
+     * TokenBuffer中某个Token的视图，创建时记下Token的各项属性
+     */
+    private class View implements Token {
+        private final int index;
+        private final TokenType type;
+        private final int start;
+        private final int end;
+
+        //源代码会被修改时，创建时就复制的文本
+        private final String text;
+
+        View(int index) {
+            this.index = index;
+            this.type = TYPES[types[index]];
+            this.start = starts[index];
+            this.end = ends[index];
+            this.text = editable ? TokenBuffer.this.getText(index) : null;
+        }
+
+        @Override
+        public TokenType getType() {
+            return type;
+        }
+
+        @Override
+        public String getText() {
+            if (text != null) {
+                return text;
+            }
+            if (type == TokenType.Identifier) {
+                return symbols.symbol(source, start, end).name;
+            }
+            return source.subSequence(start, end).toString();
+        }
+
+        @Override
+        public int getSymbol() {
+            if (type != TokenType.Identifier) {
+                return -1;
+            }
+            return text != null ? symbols.intern(text) : symbols.intern(source, start, end);
+        }
+
+        @Override
+        public int getLength() {
+            return end - start;
+        }
+
+        @Override
+        public int getOffset() {
+            return start;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.TokenType;
+
+/**
+ * 接收词法分析结果的回调。
+ * Lexer每识别出一个Token，就把它的类型和在源代码中的位置[start, end)交给这里，
+ * 不创建任何中间对象。要不要生成Token对象、要不要截取文本，由接收方自己决定。
+ */
+public interface TokenSink {
+    /**
+     * 识别出一个Token
+     *
+     * @param type  Token的类型
+     * @param start Token在源代码中的起始位置（包含）
+     * @param end   Token在源代码中的结束位置（不包含）
+     */
+    void token(TokenType type, int start, int end);
+}
@@ -17,6 +17,8 @@ public class SimpleASTNode implements ASTNode {
     List<ASTNode> readonlyChildren = Collections.unmodifiableList(children);
     ASTNodeType nodeType = null;
     String text = null;
+    //变量名的符号编号
+    int symbol = -1;
 
 
     public SimpleASTNode(ASTNodeType nodeType, String text) {
@@ -24,6 +26,12 @@ public class SimpleASTNode implements ASTNode {
         this.text = text;
     }
 
+    public SimpleASTNode(ASTNodeType nodeType, String text, int symbol) {
+        this.nodeType = nodeType;
+        this.text = text;
+        this.symbol = symbol;
+    }
+
     @Override
     public ASTNode getParent() {
         return parent;
@@ -44,6 +52,11 @@ public class SimpleASTNode implements ASTNode {
         return text;
     }
 
+    @Override
+    public int getSymbol() {
+        return symbol;
+    }
+
     public void addChild(SimpleASTNode child) {
         children.add(child);
         child.parent = this;
@@ -23,6 +23,10 @@ import com.camile.playscript.ch1.SimpleLexer;
  * pri ::= Id | Num | (add)
  *
  * 当遇到Id Num这种不可展开的文法时。我们称之为终结符
+ * <p>
+ * 这是递归下降的示例，parse()和evaluate()每嵌套一层括号或者多一个右边的运算符，都要多递归几层，
+ * 能处理的嵌套深度受线程栈大小的限制，在默认大小的栈上，1+(1+(...))这样的表达式嵌套一两千层就会栈溢出。
+ * 需要处理很深的表达式时用SimpleParser和SimpleScript，它们都不递归。dumpAST()也不递归，可以打印任何AST。
  */
 public class SimpleCalculator {
     /**
@@ -50,8 +54,7 @@ public class SimpleCalculator {
      * @throws Exception
      */
     public ASTNode parse(String code) throws Exception {
-        SimpleLexer lexer = new SimpleLexer();
-        TokenReader tokens = lexer.tokenize(code);
+        TokenReader tokens = SimpleLexer.INSTANCE.tokenize(code);
         ASTNode rootNode = prog(tokens);
         return rootNode;
     }
@@ -138,7 +141,7 @@ public class SimpleCalculator {
                 //消耗掉标识符
                 token = tokens.read();
                 //创建当前节点，并把变量名记到AST节点的文本值中，这里新建一个变量子节点也是可以的
-                node = new SimpleASTNode(ASTNodeType.IntDeclaration, token.getText());
+                node = new SimpleASTNode(ASTNodeType.IntDeclaration, token.getText(), token.getSymbol());
                 //预读
                 token = tokens.peek();
                 if (token != null && token.getType() == TokenType.Assignment) {
@@ -241,7 +244,7 @@ public class SimpleCalculator {
                 node = new SimpleASTNode(ASTNodeType.IntLiteral, token.getText());
             } else if (token.getType() == TokenType.Identifier) {
                 token = tokens.read();
-                node = new SimpleASTNode(ASTNodeType.Identifier, token.getText());
+                node = new SimpleASTNode(ASTNodeType.Identifier, token.getText(), token.getSymbol());
             } else if (token.getType() == TokenType.LeftParen) {
                 tokens.read();
                 node = additive(tokens);
@@ -263,15 +266,13 @@ public class SimpleCalculator {
 
 
     /**
-     * 打印输出AST的树状结构
+     * 打印输出AST的树状结构。
+     * 不递归，参见ASTNode.dump()，所以也可以打印SimpleParser解析出来的很深的AST。
      *
      * @param node   语法树节点
      * @param indent 缩进字符，由tab组成，每一级多一个tab
      */
     public void dumpAST(ASTNode node, String indent) {
-        System.out.println(indent + node.getType() + " " + node.getText());
-        for (ASTNode child : node.getChildren()) {
-            dumpAST(child, indent + "\t");
-        }
+        ASTNode.dump(node, indent, System.out);
     }
 }
@@ -0,0 +1,30 @@
+package com.camile.playscript.ch3;
+
+import com.camile.playscript.ASTNodeType;
+import com.camile.playscript.Token;
+
+/**
+ * 按后序接收语法解析结果，构造AST。
+ * Parser每完成一个节点就调用一次node()，子节点总是在父节点之前完成，
+ * 所以builder只需要用一个栈保存还没有父节点的节点，不需要Parser持有任何节点对象。
+ * 同一个Parser因此可以构造出不同存储方式的AST，参见SimpleParser.parse(TokenReader, ASTBuilder)。
+ *
+ * @param <T> 构造出的AST的类型
+ */
+public interface ASTBuilder<T> {
+    /**
+     * 完成了一个节点。它的子节点是最近完成的、还没有父节点的childCount个节点，按完成的先后排列
+     *
+     * @param type       节点的类型
+     * @param token      节点对应的Token，根节点Programm没有Token，为null
+     * @param childCount 子节点的个数
+     */
+    void node(ASTNodeType type, Token token, int childCount);
+
+    /**
+     * 取出最近完成的节点。解析完整个脚本之后，它就是根节点
+     *
+     * @return
+     */
+    T build();
+}
@@ -0,0 +1,156 @@
+package com.camile.playscript.ch3;
+
+import com.camile.playscript.ch1.LineIndex;
+
+import java.util.Arrays;
+
+/**
+ * 诊断模式下收集语法错误，参见SimpleParser.parse(CharSequence, Diagnostics)。
+ * <p>
+ * 每个错误只记录报错信息和偏移量，放在预先分配好的两个数组中，报错时不创建任何对象。
+ * 记录满了之后，后面的错误只计数，不再记录。可以用clear()清空之后解析下一个脚本，不是线程安全的。
+ */
+public final class Diagnostics {
+    private final String[] messages;
+    private final int[] offsets;
+    private int size = 0;
+
+    //记录满了之后没有记下的错误个数
+    private int dropped = 0;
+
+    private LineIndex lines = null;
+
+    public Diagnostics() {
+        this(64);
+    }
+
+    /**
+     * @param capacity 最多记录的错误个数
+     */
+    public Diagnostics(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        messages = new String[capacity];
+        offsets = new int[capacity];
+    }
+
+    void report(String message, int offset) {
+        if (size == messages.length) {
+            dropped++;
+            return;
+        }
+        messages[size] = message;
+        offsets[size] = offset;
+        size++;
+    }
+
+    /**
+     * 关联源代码的行索引，之后可以取得错误的行号和列号
+     *
+     * @param lines
+     * @return
+     */
+    public Diagnostics locate(LineIndex lines) {
+        this.lines = lines;
+        return this;
+    }
+
+    /**
+     * 记录下来的错误个数
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0 && dropped == 0;
+    }
+
+    /**
+     * 因为记录满了而没有记下的错误个数
+     *
+     * @return
+     */
+    public int getDropped() {
+        return dropped;
+    }
+
+    public String getMessage(int i) {
+        check(i);
+        return messages[i];
+    }
+
+    /**
+     * 第i个错误的偏移量，不知道位置时为-1
+     *
+     * @param i
+     * @return
+     */
+    public int getOffset(int i) {
+        check(i);
+        return offsets[i];
+    }
+
+    /**
+     * 第i个错误的行号，不知道时返回-1
+     *
+     * @param i
+     * @return
+     */
+    public int getLine(int i) {
+        int offset = getOffset(i);
+        return offset >= 0 && lines != null ? lines.getLine(offset) : -1;
+    }
+
+    public int getColumn(int i) {
+        int offset = getOffset(i);
+        return offset >= 0 && lines != null ? lines.getColumn(offset) : -1;
+    }
+
+    /**
+     * 第i个错误的完整描述，与ScriptException.getMessage()的格式相同
+     *
+     * @param i
+     * @return
+     */
+    public String describe(int i) {
+        int offset = getOffset(i);
+        if (offset < 0) {
+            return messages[i];
+        } else if (lines == null) {
+            return messages[i] + " at offset " + offset;
+        }
+        return messages[i] + " at line " + getLine(i) + ", column " + getColumn(i);
+    }
+
+    /**
+     * 清空记录，可以接着用来解析下一个脚本
+     */
+    public void clear() {
+        Arrays.fill(messages, 0, size, null);
+        size = 0;
+        dropped = 0;
+        lines = null;
+    }
+
+    private void check(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("diagnostic " + i + " of " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            sb.append(describe(i)).append('\n');
+        }
+        if (dropped > 0) {
+            sb.append(dropped).append(" more errors\n");
+        }
+        return sb.toString();
+    }
+}
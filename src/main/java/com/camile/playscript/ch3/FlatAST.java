@@ -0,0 +1,376 @@
+package com.camile.playscript.ch3;
+
+import com.camile.playscript.ASTNode;
+import com.camile.playscript.ASTNodeType;
+import com.camile.playscript.Token;
+import com.camile.playscript.ch1.SymbolTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 存放在几个数组中的AST。
+ * <p>
+ * SimpleASTNode的每个节点除了节点对象本身，还有存放子节点的ArrayList、只读的包装和文本的String，
+ * 叶子节点也不例外，一个节点要占用一两百字节。
+ * FlatAST用节点的序号代替对象，整棵树只有五个数组：节点类型、第一个子节点、下一个兄弟节点、
+ * 在源代码中的偏移量，以及标识符的符号编号或者文本的长度，每个节点17个字节。
+ * 文本不复制，需要时才从源代码中截取，标识符的名字从解析时用的SymbolTable中取。
+ * <p>
+ * 节点按完成的先后编号，即后序，根节点是最后一个节点。同一个节点的子节点、同一棵子树的节点在数组中都是挨着的。
+ * 遍历用可以重复使用的Cursor，不创建任何对象；需要ASTNode的地方用getRootNode()得到一个视图，按需创建节点对象。
+ * <p>
+ * 创建之后不再改变，可以被多个线程同时读取，但每个线程要用自己的Cursor。
+ */
+public final class FlatAST {
+    private static final ASTNodeType[] TYPES = ASTNodeType.values();
+
+    private final CharSequence source;
+
+    //符号编号所在的符号表
+    private final SymbolTable symbols;
+
+    private final byte[] types;
+    private final int[] firstChildren;
+    private final int[] nextSiblings;
+    private final int[] offsets;
+    //非负数是标识符的符号编号，负数是~文本长度
+    private final int[] values;
+
+    private final int size;
+
+    private FlatAST(CharSequence source, SymbolTable symbols, byte[] types, int[] firstChildren, int[] nextSiblings,
+                    int[] offsets, int[] values, int size) {
+        this.source = source;
+        this.symbols = symbols;
+        this.types = types;
+        this.firstChildren = firstChildren;
+        this.nextSiblings = nextSiblings;
+        this.offsets = offsets;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * 节点的个数
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    public CharSequence getSource() {
+        return source;
+    }
+
+    /**
+     * 根节点的序号
+     *
+     * @return
+     */
+    public int getRoot() {
+        return size - 1;
+    }
+
+    public ASTNodeType getType(int node) {
+        return TYPES[types[node]];
+    }
+
+    /**
+     * 节点的文本，从源代码中截取或者从SymbolTable中取，每次调用都会创建String
+     *
+     * @param node
+     * @return
+     */
+    public String getText(int node) {
+        if (types[node] == ASTNodeType.Programm.ordinal()) {
+            return "pwc";
+        }
+        int value = values[node];
+        if (value >= 0) {
+            return symbols.nameOf(value);
+        }
+        return source.subSequence(offsets[node], offsets[node] + ~value).toString();
+    }
+
+    public int getSymbol(int node) {
+        return Math.max(values[node], -1);
+    }
+
+    public int getOffset(int node) {
+        return offsets[node];
+    }
+
+    /**
+     * @param node
+     * @return 第一个子节点的序号，没有子节点返回-1
+     */
+    public int getFirstChild(int node) {
+        return firstChildren[node];
+    }
+
+    /**
+     * @param node
+     * @return 下一个兄弟节点的序号，没有返回-1
+     */
+    public int getNextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    /**
+     * 从根节点开始遍历的游标
+     *
+     * @return
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * 以ASTNode的方式访问根节点。节点对象在访问时才创建，不会缓存
+     *
+     * @return
+     */
+    public ASTNode getRootNode() {
+        return new Node(getRoot(), null);
+    }
+
+    /**
+     * 在树中移动的游标，只在移动时修改自己的状态，不创建任何对象。
+     * 走过的祖先节点保存在游标的栈中，所以FlatAST不需要存放父节点。
+     */
+    public final class Cursor {
+        private int[] ancestors = new int[16];
+        private int depth = 0;
+        private int node = getRoot();
+
+        /**
+         * 回到根节点
+         */
+        public void reset() {
+            depth = 0;
+            node = getRoot();
+        }
+
+        /**
+         * 当前节点的序号
+         *
+         * @return
+         */
+        public int getNode() {
+            return node;
+        }
+
+        /**
+         * 当前节点在根节点下面第几层，根节点是0
+         *
+         * @return
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        public ASTNodeType getType() {
+            return FlatAST.this.getType(node);
+        }
+
+        public String getText() {
+            return FlatAST.this.getText(node);
+        }
+
+        public int getSymbol() {
+            return FlatAST.this.getSymbol(node);
+        }
+
+        public int getOffset() {
+            return offsets[node];
+        }
+
+        /**
+         * 移到第一个子节点
+         *
+         * @return 没有子节点时返回false，位置不变
+         */
+        public boolean gotoFirstChild() {
+            int child = firstChildren[node];
+            if (child < 0) {
+                return false;
+            }
+            if (depth == ancestors.length) {
+                ancestors = Arrays.copyOf(ancestors, depth * 2);
+            }
+            ancestors[depth++] = node;
+            node = child;
+            return true;
+        }
+
+        /**
+         * 移到下一个兄弟节点
+         *
+         * @return 没有下一个兄弟节点时返回false，位置不变
+         */
+        public boolean gotoNextSibling() {
+            int sibling = nextSiblings[node];
+            if (sibling < 0) {
+                return false;
+            }
+            node = sibling;
+            return true;
+        }
+
+        /**
+         * 移到父节点
+         *
+         * @return 已经在根节点时返回false
+         */
+        public boolean gotoParent() {
+            if (depth == 0) {
+                return false;
+            }
+            node = ancestors[--depth];
+            return true;
+        }
+    }
+
+    /**
+     * 某个节点的ASTNode视图
+     */
+    private final class Node implements ASTNode {
+        private final int index;
+        private final Node parent;
+
+        Node(int index, Node parent) {
+            this.index = index;
+            this.parent = parent;
+        }
+
+        @Override
+        public ASTNode getParent() {
+            return parent;
+        }
+
+        @Override
+        public List<ASTNode> getChildren() {
+            List<ASTNode> children = new ArrayList<>(2);
+            for (int child = firstChildren[index]; child >= 0; child = nextSiblings[child]) {
+                children.add(new Node(child, this));
+            }
+            return Collections.unmodifiableList(children);
+        }
+
+        @Override
+        public ASTNodeType getType() {
+            return FlatAST.this.getType(index);
+        }
+
+        @Override
+        public String getText() {
+            return FlatAST.this.getText(index);
+        }
+
+        @Override
+        public int getSymbol() {
+            return FlatAST.this.getSymbol(index);
+        }
+
+        @Override
+        public int getOffset() {
+            return offsets[index];
+        }
+    }
+
+    /**
+     * 按后序构造FlatAST的ASTBuilder。
+     * 每个节点完成时追加到数组末尾，并把它的子节点串成兄弟链表；完成了还没有父节点的节点放在栈里。
+     */
+    public static final class Builder implements ASTBuilder<FlatAST> {
+        private final CharSequence source;
+        private final SymbolTable symbols;
+
+        private byte[] types;
+        private int[] firstChildren;
+        private int[] nextSiblings;
+        private int[] offsets;
+        private int[] values;
+        private int size = 0;
+
+        private int[] stack = new int[16];
+        private int stackSize = 0;
+
+        /**
+         * @param source Token的偏移量所对应的源代码，标识符驻留在SymbolTable.GLOBAL中
+         */
+        public Builder(CharSequence source) {
+            this(source, SymbolTable.GLOBAL);
+        }
+
+        /**
+         * @param source  Token的偏移量所对应的源代码
+         * @param symbols Token的符号编号所在的符号表
+         */
+        public Builder(CharSequence source, SymbolTable symbols) {
+            this.source = source;
+            this.symbols = symbols;
+            //大约每4个字符一个节点
+            int capacity = Math.max(16, source.length() / 4);
+            types = new byte[capacity];
+            firstChildren = new int[capacity];
+            nextSiblings = new int[capacity];
+            offsets = new int[capacity];
+            values = new int[capacity];
+        }
+
+        @Override
+        public void node(ASTNodeType type, Token token, int childCount) {
+            if (size == types.length) {
+                int capacity = size + (size >> 1);
+                types = Arrays.copyOf(types, capacity);
+                firstChildren = Arrays.copyOf(firstChildren, capacity);
+                nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            int node = size++;
+            types[node] = (byte) type.ordinal();
+            nextSiblings[node] = -1;
+            if (token != null) {
+                int symbol = token.getSymbol();
+                offsets[node] = token.getOffset();
+                values[node] = symbol >= 0 ? symbol : ~token.getLength();
+            } else {
+                offsets[node] = -1;
+                values[node] = -1;
+            }
+
+            //把子节点串起来
+            int first = stackSize - childCount;
+            firstChildren[node] = childCount > 0 ? stack[first] : -1;
+            for (int i = first; i + 1 < stackSize; i++) {
+                nextSiblings[stack[i]] = stack[i + 1];
+            }
+            stackSize = first;
+            if (stackSize == stack.length) {
+                stack = Arrays.copyOf(stack, stackSize * 2);
+            }
+            stack[stackSize++] = node;
+        }
+
+        /**
+         * 以最近完成的节点为根，去掉数组多余的容量
+         *
+         * @return
+         */
+        @Override
+        public FlatAST build() {
+            if (stackSize != 1) {
+                throw new IllegalStateException(stackSize + " nodes have no parent");
+            }
+            stackSize = 0;
+            return new FlatAST(source, symbols, Arrays.copyOf(types, size), Arrays.copyOf(firstChildren, size),
+                    Arrays.copyOf(nextSiblings, size), Arrays.copyOf(offsets, size), Arrays.copyOf(values, size), size);
+        }
+    }
+}
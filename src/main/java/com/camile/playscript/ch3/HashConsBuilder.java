@@ -0,0 +1,175 @@
+package com.camile.playscript.ch3;
+
+import com.camile.playscript.ASTNode;
+import com.camile.playscript.ASTNodeType;
+import com.camile.playscript.Token;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 共享相同子树的ASTBuilder（hash consing）。
+ * <p>
+ * 类型、文本和子节点都相同的子树只创建一份，所以构造出来的不是树，而是有向无环图。
+ * 子节点总是先于父节点完成并被驻留，两个节点的子树相同，当且仅当它们的子节点是同一批对象，
+ * 查表时只需要比较类型、文本和子节点的引用，不需要逐层比较整棵子树。
+ * <p>
+ * 每个节点缓存了整棵子树的结构哈希值，即hashCode()，它只由结构决定，与是哪个builder构造的无关。
+ * 同一个builder里结构相同的节点一定是同一个对象，后面的阶段可以用IdentityHashMap按节点缓存计算结果，
+ * 每个不同的子树只计算一次。
+ * <p>
+ * 共享的节点没有唯一的父节点，getParent()总是返回null；也没有唯一的位置，getOffset()总是返回-1，
+ * 所以执行时的错误不带行号和列号，而不会指向第一次出现的位置。解析时的语法错误仍然有准确的位置。
+ * 一个builder可以连续解析多个脚本，脚本之间也会共享子树。不是线程安全的。
+ */
+public final class HashConsBuilder implements ASTBuilder<ASTNode> {
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    //开放定址的哈希表，负载因子不超过1/2
+    private Node[] slots = new Node[1024];
+    private int size = 0;
+
+    private Node[] stack = new Node[16];
+    private int stackSize = 0;
+
+    @Override
+    public void node(ASTNodeType type, Token token, int childCount) {
+        int symbol = token != null ? token.getSymbol() : -1;
+        //标识符用符号编号比较，不需要文本
+        String text = token == null ? "pwc" : symbol >= 0 ? null : token.getText();
+        int first = stackSize - childCount;
+
+        int hash = type.ordinal();
+        hash = 31 * hash + (symbol >= 0 ? symbol : text.hashCode());
+        for (int i = first; i < stackSize; i++) {
+            hash = 31 * hash + stack[i].hash;
+        }
+        hash ^= hash >>> 16;
+
+        int mask = slots.length - 1;
+        int index = hash & mask;
+        Node node;
+        while ((node = slots[index]) != null && !node.matches(hash, type, symbol, text, stack, first, childCount)) {
+            index = (index + 1) & mask;
+        }
+        if (node == null) {
+            Node[] children = childCount > 0 ? Arrays.copyOfRange(stack, first, stackSize) : NO_CHILDREN;
+            node = new Node(type, symbol >= 0 ? token.getText() : text, symbol, children, hash);
+            slots[index] = node;
+            if (++size * 2 > slots.length) {
+                rehash();
+            }
+        }
+
+        Arrays.fill(stack, first, stackSize, null);
+        stackSize = first;
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = node;
+    }
+
+    @Override
+    public ASTNode build() {
+        Node node = stack[--stackSize];
+        stack[stackSize] = null;
+        return node;
+    }
+
+    /**
+     * 已经驻留的不同节点的个数
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    private void rehash() {
+        Node[] larger = new Node[slots.length * 2];
+        int mask = larger.length - 1;
+        for (Node node : slots) {
+            if (node != null) {
+                int index = node.hash & mask;
+                while (larger[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                larger[index] = node;
+            }
+        }
+        slots = larger;
+    }
+
+    /**
+     * 驻留的节点，创建之后不再改变
+     */
+    public static final class Node implements ASTNode {
+        private final ASTNodeType type;
+        private final String text;
+        private final int symbol;
+        private final Node[] children;
+        private final List<ASTNode> readonlyChildren;
+        private final int hash;
+
+        private Node(ASTNodeType type, String text, int symbol, Node[] children, int hash) {
+            this.type = type;
+            this.text = text;
+            this.symbol = symbol;
+            this.children = children;
+            this.readonlyChildren = Collections.unmodifiableList(Arrays.<ASTNode>asList(children));
+            this.hash = hash;
+        }
+
+        private boolean matches(int hash, ASTNodeType type, int symbol, String text, Node[] stack, int first, int childCount) {
+            if (this.hash != hash || this.type != type || this.symbol != symbol || children.length != childCount) {
+                return false;
+            }
+            if (symbol < 0 && !this.text.equals(text)) {
+                return false;
+            }
+            for (int i = 0; i < childCount; i++) {
+                if (children[i] != stack[first + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 共享的节点可能有多个父节点，总是返回null
+         */
+        @Override
+        public ASTNode getParent() {
+            return null;
+        }
+
+        @Override
+        public List<ASTNode> getChildren() {
+            return readonlyChildren;
+        }
+
+        @Override
+        public ASTNodeType getType() {
+            return type;
+        }
+
+        @Override
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public int getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * 整棵子树的结构哈希值，在创建时算好
+         */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
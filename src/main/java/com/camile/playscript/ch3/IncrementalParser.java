@@ -0,0 +1,201 @@
+package com.camile.playscript.ch3;
+
+import com.camile.playscript.ASTNode;
+import com.camile.playscript.ASTNodeType;
+import com.camile.playscript.ch1.IncrementalLexer;
+import com.camile.playscript.ch1.LineIndex;
+import com.camile.playscript.ch1.SymbolTable;
+import com.camile.playscript.ch1.TokenBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 增量的语法解析器，用于编辑器这样频繁做小修改的场景。
+ * 保存上一次解析出的Token和AST，源代码被修改之后：
+ * 1.用IncrementalLexer只重新解析受影响的Token；
+ * 2.只重新解析受影响的顶层语句，Programm节点下其他语句的子树原样保留。
+ * <p>
+ * 每条顶层语句都以分号结束，语句之间互不影响。从受影响的第一条语句开始重新解析，
+ * 直到解析位置越过了修改的Token，并且与某条旧语句的起点重合为止，后面的语句都不用再解析，
+ * 只是节点的偏移量要加上源代码长度的变化。
+ * <p>
+ * 如果修改后的脚本有语法错误，edit()抛出异常，AST保持原样；
+ * 下一次修改时，把两次修改影响的Token合并起来一起重新解析。
+ */
+public class IncrementalParser {
+    private final SimpleParser parser;
+
+    private final IncrementalLexer lexer;
+
+    //最近一次成功解析出的AST的根节点
+    private SimpleParser.SimpleASTNode root = null;
+
+    //解析出错之后，还没有反映到AST中的Token变化
+    private IncrementalLexer.Change pending = null;
+
+    //与pending对应的源代码长度的变化
+    private int pendingDelta = 0;
+
+    //每条顶层语句的第一个Token的序号
+    private int[] starts = new int[16];
+
+    public IncrementalParser(String script) throws Exception {
+        this(script, SymbolTable.GLOBAL);
+    }
+
+    /**
+     * @param script
+     * @param symbols 驻留标识符的符号表
+     * @throws Exception
+     */
+    public IncrementalParser(String script, SymbolTable symbols) throws Exception {
+        parser = new SimpleParser(symbols);
+        lexer = new IncrementalLexer(script, symbols);
+        parseAll();
+    }
+
+    /**
+     * 当前的AST，上一次解析出错时返回null
+     *
+     * @return
+     */
+    public ASTNode getAST() {
+        return pending == null ? root : null;
+    }
+
+    public TokenBuffer getTokens() {
+        return lexer.getTokens();
+    }
+
+    public CharSequence getSource() {
+        return lexer.getSource();
+    }
+
+    /**
+     * 修改源代码，并增量地更新AST
+     *
+     * @param offset   修改的位置
+     * @param deleted  删除的字符数
+     * @param inserted 插入的文本
+     * @return 更新后的AST，没有变化的语句仍然是原来的节点
+     * @throws Exception 修改后的脚本有语法错误
+     */
+    public ASTNode edit(int offset, int deleted, String inserted) throws Exception {
+        IncrementalLexer.Change change = lexer.edit(offset, deleted, inserted);
+        int delta = inserted.length() - deleted;
+        if (pending != null) {
+            change = pending.then(change);
+            delta += pendingDelta;
+        }
+
+        //出错的时候AST和语句的起点都保持不变，把这次变化留到下一次修改时一起处理
+        pending = change;
+        pendingDelta = delta;
+        try {
+            reparse(change, delta);
+        } catch (ScriptException e) {
+            throw e.locate(new LineIndex(lexer.getSource()));
+        }
+        pending = null;
+        return root;
+    }
+
+    private void parseAll() throws Exception {
+        TokenBuffer tokens = lexer.getTokens();
+        tokens.setPosition(0);
+        SimpleParser.SimpleASTNode node = new SimpleParser.SimpleASTNode(ASTNodeType.Programm, "pwc");
+        int count = 0;
+        while (tokens.peek() != null) {
+            starts = ensureCapacity(starts, count + 1);
+            starts[count++] = tokens.getPosition();
+            node.addChild(parser.statement(tokens));
+        }
+        root = node;
+    }
+
+    /**
+     * @param change Token的变化
+     * @param delta  源代码长度的变化，保留下来的修改位置之后的语句，偏移量都要加上它
+     */
+    private void reparse(IncrementalLexer.Change change, int delta) throws Exception {
+        TokenBuffer tokens = lexer.getTokens();
+        int count = root.getChildren().size();
+        int removedEnd = change.getIndex() + change.getRemoved();
+        int addedEnd = change.getIndex() + change.getAdded();
+        int shift = change.getAdded() - change.getRemoved();
+
+        //受影响的第一条语句
+        int first = statementAt(change.getIndex(), count);
+        //第一条可以保留的旧语句
+        int reused = first;
+
+        List<SimpleParser.SimpleASTNode> nodes = new ArrayList<>();
+        int[] newStarts = new int[4];
+        tokens.setPosition(first < count ? starts[first] : 0);
+        while (tokens.peek() != null) {
+            int pos = tokens.getPosition();
+            if (pos >= addedEnd) {
+                //越过了修改的Token，看看是否与某条旧语句的起点重合
+                while (reused < count && (starts[reused] < removedEnd || starts[reused] + shift < pos)) {
+                    reused++;
+                }
+                if (reused < count && starts[reused] + shift == pos) {
+                    break;
+                }
+            }
+            newStarts = ensureCapacity(newStarts, nodes.size() + 1);
+            newStarts[nodes.size()] = pos;
+            nodes.add(parser.statement(tokens));
+        }
+        if (tokens.peek() == null) {
+            reused = count;
+        }
+
+        root.replaceChildren(first, reused, nodes);
+
+        //更新语句的起点
+        int newCount = count - (reused - first) + nodes.size();
+        int[] updated = newCount > starts.length ? new int[newCount + (newCount >> 1)] : starts;
+        System.arraycopy(starts, 0, updated, 0, first);
+        System.arraycopy(starts, reused, updated, first + nodes.size(), count - reused);
+        for (int i = first + nodes.size(); i < newCount; i++) {
+            updated[i] += shift;
+            if (delta != 0) {
+                ((SimpleParser.SimpleASTNode) root.getChildren().get(i)).shiftOffsets(delta);
+            }
+        }
+        System.arraycopy(newStarts, 0, updated, first, nodes.size());
+        starts = updated;
+    }
+
+    /**
+     * 包含第index个Token的语句，即起点不晚于index的最后一条语句
+     *
+     * @param index
+     * @param count 语句的数量
+     * @return
+     */
+    private int statementAt(int index, int count) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= index) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return Math.max(0, low - 1);
+    }
+
+    private static int[] ensureCapacity(int[] array, int capacity) {
+        if (capacity > array.length) {
+            int[] larger = new int[Math.max(capacity, array.length + (array.length >> 1))];
+            System.arraycopy(array, 0, larger, 0, array.length);
+            return larger;
+        }
+        return array;
+    }
+}
@@ -0,0 +1,375 @@
+package com.camile.playscript.ch3;
+
+import com.camile.playscript.ASTNode;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * 按脚本源代码缓存解析结果，同样的脚本只解析一次。可以被很多线程同时使用。
+ * <p>
+ * 缓存的总权重有上限，权重是AST和作为键的脚本大约占用的字节数。
+ * 超过上限时按分段LRU（segmented LRU）淘汰：新加入的脚本先放在试用区，再次命中才进入保护区，
+ * 保护区最多占总权重的80%，被挤出来的回到试用区。淘汰总是先从试用区最久没有用过的开始，
+ * 所以一大批只用一次的脚本不会把反复使用的脚本挤出去。
+ * <p>
+ * 按脚本的哈希值分成多个分区，每个分区有自己的锁，不同分区的访问互不影响。
+ * 权重的上限是所有分区共用的：放入新的AST之后总权重超了，就轮流从各个分区淘汰，每次只持有一个分区的锁。
+ * 所以淘汰的顺序只在每个分区内部是严格的LRU。只有比整个上限还大的AST才不缓存。
+ * 解析在锁外进行，几个线程同时解析同一个新脚本时，先放入的结果被保留，其他线程也返回它。
+ * 解析出错不缓存，异常直接抛给调用者。
+ * <p>
+ * 返回的AST被所有调用者共享，所以只能用flat()或者shared()创建缓存，缓存的都是不可变的AST：
+ * FlatAST，或者HashConsBuilder构造的节点。
+ *
+ * @param <T> AST的类型
+ */
+public final class ParseCache<T> {
+    private static final int SEGMENTS = 16;
+
+    //HashConsBuilder.Node连同子节点数组和只读的包装，每个节点大约占用的字节数
+    private static final long SHARED_NODE_BYTES = 96;
+
+    private final Parser<T> parser;
+    private final ToLongFunction<? super T> weigher;
+    private final Segment<T>[] segments;
+
+    private final long maxWeight;
+    private final long maxProtectedWeight;
+    //所有分区的权重之和，以及其中保护区的权重之和，只在持有某个分区的锁时修改
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong protectedWeight = new AtomicLong();
+    //下一次从哪个分区开始淘汰
+    private final AtomicInteger evictFrom = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 缓存SimpleParser.parseFlat()的结果，权重是FlatAST和作为键的脚本大约占用的字节数
+     *
+     * @param maxBytes
+     * @return
+     */
+    public static ParseCache<FlatAST> flat(long maxBytes) {
+        SimpleParser parser = new SimpleParser();
+        return new ParseCache<>(parser::parseFlat, maxBytes, ast -> 17L * ast.size());
+    }
+
+    /**
+     * 缓存SimpleParser.parseShared()的结果，每次解析用一个新的HashConsBuilder，一个脚本内部的相同子树只保存一份。
+     * 权重是不同的节点和作为键的脚本大约占用的字节数
+     *
+     * @param maxBytes
+     * @return
+     */
+    public static ParseCache<ASTNode> shared(long maxBytes) {
+        SimpleParser parser = new SimpleParser();
+        //HashConsBuilder不是线程安全的，不同线程的解析不能共用一个
+        return new ParseCache<>(script -> parser.parseShared(script, new HashConsBuilder()), maxBytes,
+                ast -> SHARED_NODE_BYTES * distinctNodes(ast));
+    }
+
+    /**
+     * @param parser    解析脚本，会被多个线程同时调用
+     * @param maxWeight 所有缓存项的权重之和的上限
+     * @param weigher   AST的权重，不包括作为键的脚本
+     */
+    @SuppressWarnings("unchecked")
+    private ParseCache(Parser<T> parser, long maxWeight, ToLongFunction<? super T> weigher) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+        }
+        this.parser = parser;
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+        this.maxProtectedWeight = maxWeight * 4 / 5;
+        this.segments = (Segment<T>[]) new Segment<?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(this);
+        }
+    }
+
+    /**
+     * 取得脚本的AST，没有缓存时解析并放入缓存
+     *
+     * @param script
+     * @return
+     * @throws Exception 解析出错
+     */
+    public T get(String script) throws Exception {
+        Segment<T> segment = segmentFor(script);
+        T ast = segment.get(script);
+        if (ast != null) {
+            hits.increment();
+            return ast;
+        }
+        misses.increment();
+        ast = parser.parse(script);
+        long weight = weigher.applyAsLong(ast) + 2L * script.length();
+        //比整个上限还大的AST不缓存
+        if (weight > maxWeight) {
+            return ast;
+        }
+        T existing = segment.put(script, ast, weight);
+        if (existing != ast) {
+            return existing;
+        }
+        evict(segment, script);
+        return ast;
+    }
+
+    /**
+     * 已缓存的AST，不解析
+     *
+     * @param script
+     * @return 没有缓存时返回null
+     */
+    public T getIfPresent(String script) {
+        T ast = segmentFor(script).get(script);
+        (ast != null ? hits : misses).increment();
+        return ast;
+    }
+
+    /**
+     * 清空缓存，统计数据保留
+     */
+    public void clear() {
+        for (Segment<T> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 因为超出权重上限而被淘汰的缓存项的个数
+     *
+     * @return
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * 当前所有缓存项的权重之和
+     *
+     * @return
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    /**
+     * 当前缓存项的个数
+     *
+     * @return
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<T> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "ParseCache{hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+                + ", size=" + size() + ", weight=" + getWeight() + "}";
+    }
+
+    private Segment<T> segmentFor(String script) {
+        int h = script.hashCode();
+        h ^= h >>> 16;
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    /**
+     * 总权重超过上限时，从各个分区轮流淘汰，直到不超过上限。
+     * 先淘汰试用区，试用区都空了再淘汰保护区。刚放入的脚本最后才淘汰
+     *
+     * @param added  刚放入缓存的分区
+     * @param script 刚放入的脚本
+     */
+    private void evict(Segment<T> added, String script) {
+        while (weight.get() > maxWeight) {
+            if (!evictOne(false, script) && !evictOne(true, script)) {
+                //别的分区都空了，只剩刚放入的脚本
+                added.remove(script);
+                return;
+            }
+        }
+    }
+
+    private boolean evictOne(boolean fromProtected, String keep) {
+        int from = evictFrom.getAndIncrement();
+        for (int i = 0; i < SEGMENTS; i++) {
+            if (segments[(from + i) & (SEGMENTS - 1)].evictEldest(fromProtected, keep)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * HashConsBuilder构造的有向无环图中不同节点的个数
+     */
+    private static long distinctNodes(ASTNode root) {
+        Set<ASTNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<ASTNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            ASTNode node = stack.pop();
+            if (seen.add(node)) {
+                for (ASTNode child : node.getChildren()) {
+                    stack.push(child);
+                }
+            }
+        }
+        return seen.size();
+    }
+
+    /**
+     * 解析脚本的方法
+     */
+    @FunctionalInterface
+    private interface Parser<T> {
+        T parse(String script) throws Exception;
+    }
+
+    private static final class Entry<T> {
+        final T ast;
+        final long weight;
+
+        Entry(T ast, long weight) {
+            this.ast = ast;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 一个分区：试用区和保护区各是一个按访问顺序排列的LinkedHashMap，最久没有用过的在最前面。
+     * 权重记在整个缓存的计数器上
+     */
+    private static final class Segment<T> {
+        private final ParseCache<T> cache;
+
+        private final LinkedHashMap<String, Entry<T>> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, Entry<T>> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+        Segment(ParseCache<T> cache) {
+            this.cache = cache;
+        }
+
+        synchronized T get(String script) {
+            Entry<T> entry = protectedEntries.get(script);
+            if (entry != null) {
+                return entry.ast;
+            }
+            entry = probation.remove(script);
+            if (entry == null) {
+                return null;
+            }
+            //第二次命中，从试用区升级到保护区
+            protectedEntries.put(script, entry);
+            cache.protectedWeight.addAndGet(entry.weight);
+            //保护区满了，这个分区中最久没有用过的降级回试用区，放在最近使用的一端
+            Iterator<Map.Entry<String, Entry<T>>> eldest = protectedEntries.entrySet().iterator();
+            while (cache.protectedWeight.get() > cache.maxProtectedWeight && protectedEntries.size() > 1) {
+                Map.Entry<String, Entry<T>> demoted = eldest.next();
+                eldest.remove();
+                cache.protectedWeight.addAndGet(-demoted.getValue().weight);
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+            return entry.ast;
+        }
+
+        /**
+         * 放入新解析的AST。别的线程已经放入了同一个脚本时，返回已有的AST
+         */
+        synchronized T put(String script, T ast, long weight) {
+            Entry<T> existing = protectedEntries.get(script);
+            if (existing == null) {
+                existing = probation.get(script);
+            }
+            if (existing != null) {
+                return existing.ast;
+            }
+            probation.put(script, new Entry<>(ast, weight));
+            cache.weight.addAndGet(weight);
+            return ast;
+        }
+
+        /**
+         * 淘汰试用区或保护区中最久没有用过的一项，跳过keep
+         *
+         * @return 是否淘汰了一项
+         */
+        synchronized boolean evictEldest(boolean fromProtected, String keep) {
+            Iterator<Map.Entry<String, Entry<T>>> eldest =
+                    (fromProtected ? protectedEntries : probation).entrySet().iterator();
+            while (eldest.hasNext()) {
+                Map.Entry<String, Entry<T>> victim = eldest.next();
+                if (!victim.getKey().equals(keep)) {
+                    eldest.remove();
+                    cache.weight.addAndGet(-victim.getValue().weight);
+                    if (fromProtected) {
+                        cache.protectedWeight.addAndGet(-victim.getValue().weight);
+                    }
+                    cache.evictions.increment();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized void remove(String script) {
+            Entry<T> entry = probation.remove(script);
+            boolean fromProtected = entry == null;
+            if (fromProtected) {
+                entry = protectedEntries.remove(script);
+            }
+            if (entry != null) {
+                cache.weight.addAndGet(-entry.weight);
+                if (fromProtected) {
+                    cache.protectedWeight.addAndGet(-entry.weight);
+                }
+                cache.evictions.increment();
+            }
+        }
+
+        synchronized void clear() {
+            for (Entry<T> entry : probation.values()) {
+                cache.weight.addAndGet(-entry.weight);
+            }
+            for (Entry<T> entry : protectedEntries.values()) {
+                cache.weight.addAndGet(-entry.weight);
+                cache.protectedWeight.addAndGet(-entry.weight);
+            }
+            probation.clear();
+            protectedEntries.clear();
+        }
+
+        synchronized int size() {
+            return probation.size() + protectedEntries.size();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.camile.playscript.ch3;
+
+import com.camile.playscript.ch1.LineIndex;
+
+/**
+ * 解析或执行脚本时发现的错误，带有出错位置在源代码中的偏移量。
+ * 知道源代码的时候，用locate()关联一个LineIndex，错误信息中就会带上行号和列号。
+ */
+public class ScriptException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    //出错位置的偏移量，不知道位置时为-1
+    private final int offset;
+
+    private LineIndex lines = null;
+
+    public ScriptException(String message, int offset) {
+        super(message);
+        this.offset = offset;
+    }
+
+    /**
+     * 关联源代码的行索引
+     *
+     * @param lines
+     * @return
+     */
+    public ScriptException locate(LineIndex lines) {
+        this.lines = lines;
+        return this;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * 出错的行号，不知道时返回-1
+     *
+     * @return
+     */
+    public int getLine() {
+        return offset >= 0 && lines != null ? lines.getLine(offset) : -1;
+    }
+
+    /**
+     * 出错的列号，不知道时返回-1
+     *
+     * @return
+     */
+    public int getColumn() {
+        return offset >= 0 && lines != null ? lines.getColumn(offset) : -1;
+    }
+
+    @Override
+    public String getMessage() {
+        if (offset < 0) {
+            return super.getMessage();
+        } else if (lines == null) {
+            return super.getMessage() + " at offset " + offset;
+        }
+        return super.getMessage() + " at line " + getLine() + ", column " + getColumn();
+    }
+}
@@ -5,10 +5,21 @@ import com.camile.playscript.ASTNodeType;
 import com.camile.playscript.Token;
 import com.camile.playscript.TokenReader;
 import com.camile.playscript.TokenType;
+import com.camile.playscript.ch1.ChunkedLexer;
+import com.camile.playscript.ch1.LineIndex;
+import com.camile.playscript.ch1.PipelinedLexer;
 import com.camile.playscript.ch1.SimpleLexer;
+import com.camile.playscript.ch1.StreamingLexer;
+import com.camile.playscript.ch1.StreamingTokenReader;
+import com.camile.playscript.ch1.SymbolTable;
 
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 
 /**
@@ -17,13 +28,42 @@ import java.util.List;
  * 它支持的语法规则为：
  *
  * programm -> intDeclare | expressionStatement | assignmentStatement
+ * （按开头的Token预测，'int'开头是intDeclare，Id '='开头是assignmentStatement，其余是expressionStatement）
  * intDeclare -> 'int' Id ( = additive) ';'
  * expressionStatement -> addtive ';'
  * addtive -> multiplicative ( (+ | -) multiplicative)*
  * multiplicative -> primary ( (* | /) primary)*
  * primary -> IntLiteral | Id | (additive)
+ *
+ * additive、multiplicative和primary不再各有一个解析方法，而是由运算符表Operator驱动的Pratt算法统一解析，
+ * 并且用堆上的栈代替递归，参见expression()。
  */
 public class SimpleParser {
+    //标识符驻留在它的符号表中
+    private final SimpleLexer lexer;
+
+    /**
+     * 标识符驻留在SymbolTable.GLOBAL中
+     */
+    public SimpleParser() {
+        this(SimpleLexer.INSTANCE);
+    }
+
+    /**
+     * 标识符驻留在symbols中。解析不可信的脚本时，用一个有上限的符号表，参见SymbolTable
+     * @param symbols
+     */
+    public SimpleParser(SymbolTable symbols) {
+        this(new SimpleLexer(symbols));
+    }
+
+    private SimpleParser(SimpleLexer lexer) {
+        this.lexer = lexer;
+    }
+
+    public SymbolTable getSymbols() {
+        return lexer.getSymbols();
+    }
 
     /**
      * 解析脚本
@@ -32,262 +72,467 @@ public class SimpleParser {
      * @throws Exception
      */
     public ASTNode parse(String script) throws Exception {
-        SimpleLexer lexer = new SimpleLexer();
         TokenReader tokens = lexer.tokenize(script);
-        ASTNode rootNode = prog(tokens);
-        return rootNode;
+        try {
+            return parse(tokens);
+        } catch (ScriptException e) {
+            //报错时才建立行索引，把偏移量换算成行号和列号
+            throw e.locate(new LineIndex(script));
+        }
     }
 
     /**
-     * AST的根节点，解析的入口。
+     * 词法解析在另一个线程上进行，与语法解析同时进行，结果与parse(String)相同。
+     * 适合大批量的编译，参见PipelinedLexer
+     * @param script
+     * @return
+     * @throws Exception
+     */
+    public ASTNode parsePipelined(CharSequence script) throws Exception {
+        try (PipelinedLexer pipelined = new PipelinedLexer(script, lexer)) {
+            return parse(pipelined.reader());
+        } catch (ScriptException e) {
+            throw e.locate(new LineIndex(script));
+        }
+    }
+
+    /**
+     * 解析一个Token流，比如从Reader流式解析出来的Token
+     * @param tokens
+     * @return
+     * @throws Exception
+     */
+    public ASTNode parse(TokenReader tokens) throws Exception {
+        return parse(tokens, new NodeBuilder());
+    }
+
+    /**
+     * 解析一个Token流，由builder按后序构造AST，比如FlatAST.Builder把整棵树存放在几个数组里
+     * @param tokens
+     * @param builder
+     * @return builder构造出的AST
+     * @throws Exception
+     */
+    public <T> T parse(TokenReader tokens, ASTBuilder<T> builder) throws Exception {
+        prog(tokens, builder);
+        return builder.build();
+    }
+
+    /**
+     * 解析脚本，AST存放在FlatAST中，每个节点只占用几个数组元素，适合需要缓存很多AST的场景
+     * @param script
      * @return
      * @throws Exception
      */
-    private SimpleASTNode prog(TokenReader tokens) throws Exception {
-        SimpleASTNode node = new SimpleASTNode(ASTNodeType.Programm, "pwc");
+    public FlatAST parseFlat(CharSequence script) throws Exception {
+        //TokenBuffer不为每个Token创建字符串，FlatAST也只记录Token的位置
+        TokenReader tokens = lexer.tokenizeToBuffer(script);
+        try {
+            return parse(tokens, new FlatAST.Builder(script, lexer.getSymbols()));
+        } catch (ScriptException e) {
+            throw e.locate(new LineIndex(script));
+        }
+    }
+
+    /**
+     * 解析脚本，相同的子树只保存一份，适合大量重复相同表达式的脚本，参见HashConsBuilder。
+     * 节点不记录位置，执行时的错误不带行号和列号
+     * @param script
+     * @param builder 可以在多个脚本之间重复使用，脚本之间也共享子树
+     * @return
+     * @throws Exception
+     */
+    public ASTNode parseShared(CharSequence script, HashConsBuilder builder) throws Exception {
+        TokenReader tokens = lexer.tokenizeToBuffer(script);
+        try {
+            return parse(tokens, builder);
+        } catch (ScriptException e) {
+            throw e.locate(new LineIndex(script));
+        }
+    }
 
+    /**
+     * 逐条解析顶层语句，每解析完一条就交给handler，不构造Programm根节点。
+     * 处理过的语句不再被引用，占用的内存与脚本长度无关，执行也不必等整个脚本解析完。
+     * 出错时，前面的语句已经交给了handler
+     * @param tokens
+     * @param handler
+     * @return 语句的条数
+     * @throws Exception 解析出错，或者handler抛出的异常
+     */
+    public long parseStatements(TokenReader tokens, StatementHandler handler) throws Exception {
+        NodeBuilder builder = new NodeBuilder();
+        long count = 0;
         while (tokens.peek() != null) {
-            SimpleASTNode child = intDeclare(tokens);
+            statement(tokens, builder, null);
+            handler.statement(builder.build());
+            count++;
+        }
+        return count;
+    }
 
-            if (child == null) {
-                child = expressionStatement(tokens);
-            }
+    /**
+     * 边读边解析，Token也只保留向前看所需的几个，参见StreamingTokenReader。
+     * 没有完整的源代码，错误信息中只有偏移量，没有行号
+     * @param reader
+     * @param handler
+     * @return 语句的条数
+     * @throws Exception
+     */
+    public long parseStatements(Reader reader, StatementHandler handler) throws Exception {
+        return parseStatements(new StreamingTokenReader(new StreamingLexer(reader, lexer.getSymbols())), handler);
+    }
 
-            if (child == null) {
-                child = assignmentStatement(tokens);
-            }
+    /**
+     * 逐条解析脚本中的顶层语句，出错时报告行号和列号。
+     * 直接在script上分段解析Token，不复制源代码，也不保存所有的Token，参见ChunkedLexer
+     * @param script
+     * @param handler
+     * @return 语句的条数
+     * @throws Exception
+     */
+    public long parseStatements(CharSequence script, StatementHandler handler) throws Exception {
+        try {
+            return parseStatements(new StreamingTokenReader(new ChunkedLexer(script, lexer.getSymbols())), handler);
+        } catch (ScriptException e) {
+            throw e.locate(new LineIndex(script));
+        }
+    }
 
-            if (child != null) {
-                node.addChild(child);
-            } else {
-                throw new Exception("unknown statement");
+    /**
+     * 诊断模式：不抛出异常，把脚本中所有的语法错误记录在diagnostics中。
+     * 一条语句出错之后，跳过后面的Token直到分号，从下一条语句继续解析。
+     * 适合检查大量可能有错的脚本，出错的代价与正常解析差不多，参见Diagnostics
+     * @param script
+     * @param diagnostics 错误记录在这里，并关联了源代码的行索引
+     * @return 由没有错误的语句组成的AST
+     */
+    public ASTNode parse(CharSequence script, Diagnostics diagnostics) {
+        int errors = diagnostics.size();
+        ASTNode node = parse(lexer.tokenizeToBuffer(script), diagnostics);
+        if (diagnostics.size() > errors) {
+            diagnostics.locate(new LineIndex(script));
+        }
+        return node;
+    }
+
+    /**
+     * 诊断模式解析一个Token流，参见parse(CharSequence, Diagnostics)
+     * @param tokens
+     * @param diagnostics
+     * @return 由没有错误的语句组成的AST
+     */
+    public ASTNode parse(TokenReader tokens, Diagnostics diagnostics) {
+        NodeBuilder builder = new NodeBuilder();
+        int count = 0;
+        while (tokens.peek() != null) {
+            try {
+                statement(tokens, builder, diagnostics);
+                count++;
+            } catch (Recovery e) {
+                //丢掉这条语句已经完成的节点，跳到分号之后
+                builder.truncate(count);
+                Token token;
+                while ((token = tokens.read()) != null && token.getType() != TokenType.SemiColon) {
+                }
+            } catch (ScriptException e) {
+                //有diagnostics时error()不会返回ScriptException
+                throw new IllegalStateException(e);
             }
         }
+        builder.node(ASTNodeType.Programm, null, count);
+        return builder.build();
+    }
 
-        return node;
+    /**
+     * 接收parseStatements()逐条解析出的顶层语句
+     */
+    @FunctionalInterface
+    public interface StatementHandler {
+        void statement(ASTNode statement) throws Exception;
     }
 
     /**
-     * 表达式语句，即表达式后面跟个分号。
+     * AST的根节点，解析的入口。
      * @return
      * @throws Exception
      */
-    private SimpleASTNode expressionStatement(TokenReader tokens) throws Exception {
-        int pos = tokens.getPosition();
-        SimpleASTNode node = additive(tokens);
-        if (node != null) {
-            Token token = tokens.peek();
-            if (token != null && token.getType() == TokenType.SemiColon) {
-                tokens.read();
-            } else {
-                node = null;
-                // 回溯
-                tokens.setPosition(pos);
-            }
+    private void prog(TokenReader tokens, ASTBuilder<?> builder) throws Exception {
+        int count = 0;
+        while (tokens.peek() != null) {
+            statement(tokens, builder, null);
+            count++;
         }
-        //直接返回子节点，简化了AST。
-        return node;
+        builder.node(ASTNodeType.Programm, null, count);
     }
 
     /**
-     * 赋值语句，如age = 10*2;
+     * 单独解析一条顶层语句，构造成SimpleASTNode
      * @return
      * @throws Exception
      */
-    private SimpleASTNode assignmentStatement(TokenReader tokens) throws Exception {
-        SimpleASTNode node = null;
-        //预读，看看下面是不是标识符
-        Token token = tokens.peek();
-        if (token != null && token.getType() == TokenType.Identifier) {
-            //读入标识符
-            token = tokens.read();
-            node = new SimpleASTNode(ASTNodeType.AssignmentStmt, token.getText());
-            //预读，看看下面是不是等号
-            token = tokens.peek();
-            if (token != null && token.getType() == TokenType.Assignment) {
-                //取出等号
-                tokens.read();
-                SimpleASTNode child = additive(tokens);
-                //出错，等号右面没有一个合法的表达式
-                if (child == null) {
-                    throw new Exception("invalide assignment statement, expecting an expression");
-                }
-                else{
-                    //添加子节点
-                    node.addChild(child);
-                    //预读，看看后面是不是分号
-                    token = tokens.peek();
-                    if (token != null && token.getType() == TokenType.SemiColon) {
-                        //消耗掉这个分号
-                        tokens.read();
+    SimpleASTNode statement(TokenReader tokens) throws Exception {
+        NodeBuilder builder = new NodeBuilder();
+        statement(tokens, builder, null);
+        return builder.build();
+    }
 
+    /**
+     * 一条顶层语句。
+     * 每条语句都以分号结束，解析时不会读到分号后面的Token，所以各条语句可以单独重新解析。
+     * <p>
+     * 由开头的一两个Token直接决定是哪种语句，不用先试一种、失败了再回溯：
+     * int开头的是变量声明；标识符后面跟着等号的是赋值语句；其他能作为表达式开头的是表达式语句。
+     * 这样每个Token只被读取一次。
+     * @throws Exception
+     */
+    private void statement(TokenReader tokens, ASTBuilder<?> builder, Diagnostics diagnostics) throws ScriptException {
+        Token token = tokens.peek();
+        if (token != null) {
+            switch (token.getType()) {
+                case Int:
+                    intDeclare(tokens, builder, diagnostics);
+                    return;
+                case Identifier:
+                    Token next = tokens.peek(2);
+                    if (next != null && next.getType() == TokenType.Assignment) {
+                        assignmentStatement(tokens, builder, diagnostics);
                     } else {
-                        //报错，缺少分号
-                        throw new Exception("invalid statement, expecting semicolon");
+                        expressionStatement(tokens, builder, diagnostics);
                     }
-                }
-            }
-            else {
-                //回溯，吐出之前消化掉的标识符
-                tokens.unread();
-                node = null;
+                    return;
+                case IntLiteral:
+                case LeftParen:
+                    expressionStatement(tokens, builder, diagnostics);
+                    return;
+                default:
+                    break;
             }
         }
-        return node;
+        throw error("unknown statement", tokens, diagnostics);
+    }
+
+    /**
+     * 表达式语句，即表达式后面跟个分号。
+     * 不产生ExpressionStmt节点，直接用表达式的节点，简化了AST。
+     * @throws Exception
+     */
+    private void expressionStatement(TokenReader tokens, ASTBuilder<?> builder, Diagnostics diagnostics) throws ScriptException {
+        Token first = tokens.peek();
+        boolean parsed = expression(tokens, builder, diagnostics);
+        Token token = tokens.peek();
+        if (!parsed || token == null || token.getType() != TokenType.SemiColon) {
+            //表达式后面不是分号，也不是别的语句，在语句的开头报错
+            throw error("unknown statement", first.getOffset(), diagnostics);
+        }
+        tokens.read();
+    }
+
+    /**
+     * 赋值语句，如age = 10*2;
+     * 由statement()保证开头是标识符和等号
+     * @throws Exception
+     */
+    private void assignmentStatement(TokenReader tokens, ASTBuilder<?> builder, Diagnostics diagnostics) throws ScriptException {
+        //读入标识符，取出等号
+        Token name = tokens.read();
+        tokens.read();
+        //出错，等号右面没有一个合法的表达式
+        if (!expression(tokens, builder, diagnostics)) {
+            throw error("invalide assignment statement, expecting an expression", tokens, diagnostics);
+        }
+        //预读，看看后面是不是分号
+        Token token = tokens.peek();
+        if (token != null && token.getType() == TokenType.SemiColon) {
+            //消耗掉这个分号
+            tokens.read();
+        } else {
+            //报错，缺少分号
+            throw error("invalid statement, expecting semicolon", tokens, diagnostics);
+        }
+        builder.node(ASTNodeType.AssignmentStmt, name, 1);
     }
 
     /**
      * 整型变量声明，如：
      * int a;
      * int b = 2*3;
+     * 由statement()保证开头是int
      *
-     * @return
      * @throws Exception
      */
-    private SimpleASTNode intDeclare(TokenReader tokens) throws Exception {
-        SimpleASTNode node = null;
+    private void intDeclare(TokenReader tokens, ASTBuilder<?> builder, Diagnostics diagnostics) throws ScriptException {
+        tokens.read();
+        Token name = tokens.peek();
+        if (name == null || name.getType() != TokenType.Identifier) {
+            throw error("variable name expected", tokens, diagnostics);
+        }
+        name = tokens.read();
+        int children = 0;
         Token token = tokens.peek();
-        if (token != null && token.getType() == TokenType.Int) {
-            token = tokens.read();
-            if (tokens.peek().getType() == TokenType.Identifier) {
-                token = tokens.read();
-                node = new SimpleASTNode(ASTNodeType.IntDeclaration, token.getText());
-                token = tokens.peek();
-                if (token != null && token.getType() == TokenType.Assignment) {
-                    tokens.read();  //取出等号
-                    SimpleASTNode child = additive(tokens);
-                    if (child == null) {
-                        throw new Exception("invalide variable initialization, expecting an expression");
-                    }
-                    else{
-                        node.addChild(child);
-                    }
-                }
-            } else {
-                throw new Exception("variable name expected");
+        if (token != null && token.getType() == TokenType.Assignment) {
+            tokens.read();  //取出等号
+            if (!expression(tokens, builder, diagnostics)) {
+                throw error("invalide variable initialization, expecting an expression", tokens, diagnostics);
             }
+            children = 1;
+        }
 
-            if (node != null) {
-                token = tokens.peek();
-                if (token != null && token.getType() == TokenType.SemiColon) {
-                    tokens.read();
-                } else {
-                    throw new Exception("invalid statement, expecting semicolon");
-                }
-            }
+        token = tokens.peek();
+        if (token != null && token.getType() == TokenType.SemiColon) {
+            tokens.read();
+        } else {
+            throw error("invalid statement, expecting semicolon", tokens, diagnostics);
         }
-        return node;
+        builder.node(ASTNodeType.IntDeclaration, name, children);
     }
 
     /**
-     * 加法表达式
-     * @return
+     * 表达式，即原来的additive。
+     * <p>
+     * 用Pratt算法（优先级爬升）解析，但不递归：还没有归约的运算符和左括号都放在堆上的栈里，
+     * 已经完成的操作数由builder保存，所以括号嵌套多深、运算符链多长，都只受内存的限制，不会栈溢出。
+     * 读到一个运算符时，先把栈顶结合力不比它弱的运算符归约（它是右结合的话，栈顶要严格更强），再把它压栈，
+     * 不管有多少个优先级，都在同一个循环里处理。
+     * 括号不产生节点，遇到右括号时把括号里的运算符全部归约，括号里的表达式就成了一个操作数。
+     * @return 不是表达式的开头时返回false
      * @throws Exception
      */
-    private SimpleASTNode additive(TokenReader tokens) throws Exception {
-        SimpleASTNode child1 = multiplicative(tokens);  //应用add规则
-        SimpleASTNode node = child1;
-        if (child1 != null) {
-            while (true) {                              //循环应用add'规则
-                Token token = tokens.peek();
-                if (token != null && (token.getType() == TokenType.Plus || token.getType() == TokenType.Minus)) {
-                    token = tokens.read();              //读出加号
-                    SimpleASTNode child2 = multiplicative(tokens);  //计算下级节点
-                    if (child2 !=null) {
-                        node = new SimpleASTNode(ASTNodeType.Additive, token.getText());
-                        node.addChild(child1);              //注意，新节点在顶层，保证正确的结合性
-                        node.addChild(child2);
-                        child1 = node;
-                    }else{
-                        throw new Exception("invalid additive expression, expecting the right part.");
-                    }
-                } else {
+    private boolean expression(TokenReader tokens, ASTBuilder<?> builder, Diagnostics diagnostics) throws ScriptException {
+        ExpressionStack stack = new ExpressionStack(builder);
+        while (true) {
+            //读一个操作数，前面可能有若干左括号
+            Token token = tokens.peek();
+            TokenType type = token != null ? token.getType() : null;
+            if (type == TokenType.LeftParen) {
+                tokens.read();
+                stack.pushParen();
+                continue;
+            }
+            if (type == TokenType.IntLiteral) {
+                builder.node(ASTNodeType.IntLiteral, tokens.read(), 0);
+            } else if (type == TokenType.Identifier) {
+                builder.node(ASTNodeType.Identifier, tokens.read(), 0);
+            } else if (stack.operatorCount == 0) {
+                return false;
+            } else if (stack.topOperator() != null) {
+                //出错，运算符后面没有右操作数
+                throw error(stack.topOperator().error, tokens, diagnostics);
+            } else {
+                throw error("expecting an additive expression inside parenthesis", tokens, diagnostics);
+            }
+
+            //读一个运算符，或者若干右括号
+            while (true) {
+                token = tokens.peek();
+                Operator operator = token != null ? Operator.of(token.getType()) : null;
+                if (operator != null) {
+                    stack.reduce(operator);
+                    stack.pushOperator(operator, tokens.read());
                     break;
                 }
+                //括号外的其他Token，表达式结束
+                if (stack.parens == 0) {
+                    stack.reduce(null);
+                    return true;
+                }
+                if (token == null || token.getType() != TokenType.RightParen) {
+                    throw error("expecting right parenthesis", tokens, diagnostics);
+                }
+                tokens.read();
+                stack.reduce(null);
+                stack.popParen();
             }
         }
-        return node;
     }
 
     /**
-     * 乘法表达式
-     * @return
-     * @throws Exception
+     * 解析表达式用的栈，存放运算符的Token和左括号。左括号在栈中的运算符是null。
+     * 操作数由builder保存，归约时builder用最近的两个节点作为运算符节点的子节点。
      */
-    private SimpleASTNode multiplicative(TokenReader tokens) throws Exception {
-        SimpleASTNode child1 = primary(tokens);
-        SimpleASTNode node = child1;
+    private static final class ExpressionStack {
+        final ASTBuilder<?> builder;
 
-        while (true) {
-            Token token = tokens.peek();
-            if (token != null && (token.getType() == TokenType.Star || token.getType() == TokenType.Slash)) {
-                token = tokens.read();
-                SimpleASTNode child2 = primary(tokens);
-                if (child2 != null) {
-                    node = new SimpleASTNode(ASTNodeType.Multiplicative, token.getText());
-                    node.addChild(child1);
-                    node.addChild(child2);
-                    child1 = node;
-                }else{
-                    throw new Exception("invalid multiplicative expression, expecting the right part.");
-                }
-            } else {
-                break;
+        Operator[] operators = new Operator[8];
+        Token[] operatorTokens = new Token[8];
+        int operatorCount = 0;
+
+        //栈中左括号的个数
+        int parens = 0;
+
+        ExpressionStack(ASTBuilder<?> builder) {
+            this.builder = builder;
+        }
+
+        void pushOperator(Operator operator, Token token) {
+            if (operatorCount == operators.length) {
+                operators = Arrays.copyOf(operators, operatorCount * 2);
+                operatorTokens = Arrays.copyOf(operatorTokens, operatorCount * 2);
             }
+            operators[operatorCount] = operator;
+            operatorTokens[operatorCount++] = token;
         }
 
-        return node;
-    }
+        void pushParen() {
+            pushOperator(null, null);
+            parens++;
+        }
 
-    /**
-     * 基础表达式
-     * @return
-     * @throws Exception
-     */
-    private SimpleASTNode primary(TokenReader tokens) throws Exception {
-        SimpleASTNode node = null;
-        Token token = tokens.peek();
-        if (token != null) {
-            if (token.getType() == TokenType.IntLiteral) {
-                token = tokens.read();
-                node = new SimpleASTNode(ASTNodeType.IntLiteral, token.getText());
-            } else if (token.getType() == TokenType.Identifier) {
-                token = tokens.read();
-                node = new SimpleASTNode(ASTNodeType.Identifier, token.getText());
-            } else if (token.getType() == TokenType.LeftParen) {
-                tokens.read();
-                node = additive(tokens);
-                if (node != null) {
-                    token = tokens.peek();
-                    if (token != null && token.getType() == TokenType.RightParen) {
-                        tokens.read();
-                    } else {
-                        throw new Exception("expecting right parenthesis");
-                    }
-                } else {
-                    throw new Exception("expecting an additive expression inside parenthesis");
+        void popParen() {
+            operatorCount--;
+            parens--;
+        }
+
+        Operator topOperator() {
+            return operators[operatorCount - 1];
+        }
+
+        /**
+         * 把运算符归约成节点，直到最近的左括号为止。
+         * next不为null时，只归约应当先于next结合的运算符
+         */
+        void reduce(Operator next) {
+            while (operatorCount > 0) {
+                Operator top = operators[operatorCount - 1];
+                if (top == null || next != null
+                        && (top.power < next.power || top.power == next.power && next.rightAssociative)) {
+                    break;
                 }
+                Token token = operatorTokens[--operatorCount];
+                operatorTokens[operatorCount] = null;
+                //新节点在顶层，保证正确的结合性
+                builder.node(top.nodeType, token, 2);
             }
         }
-        return node;  //这个方法也做了AST的简化，就是不用构造一个primary节点，直接返回子节点。因为它只有一个子节点。
     }
 
     /**
      * 一个简单的AST节点。
      * 属性包括：类型、文本值、父节点、子节点。
      */
-    private class SimpleASTNode implements ASTNode {
+    static class SimpleASTNode implements ASTNode {
         SimpleASTNode parent = null;
         List<ASTNode> children = new ArrayList<ASTNode>();
         List<ASTNode> readonlyChildren = Collections.unmodifiableList(children);
         ASTNodeType nodeType = null;
         String text = null;
+        //变量名的符号编号
+        int symbol = -1;
+        //在源代码中的偏移量
+        int offset = -1;
 
         public SimpleASTNode(ASTNodeType nodeType, String text) {
             this.nodeType = nodeType;
             this.text = text;
         }
 
+        public SimpleASTNode(ASTNodeType nodeType, Token token) {
+            this.nodeType = nodeType;
+            this.text = token.getText();
+            this.symbol = token.getSymbol();
+            this.offset = token.getOffset();
+        }
+
         @Override
         public ASTNode getParent() {
             return parent;
@@ -308,11 +553,163 @@ public class SimpleParser {
             return text;
         }
 
+        @Override
+        public int getSymbol() {
+            return symbol;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+
         public void addChild(SimpleASTNode child) {
             children.add(child);
             child.parent = this;
         }
 
+        /**
+         * 把这棵子树中所有节点的偏移量加上delta，用于源代码在它前面被修改之后。不递归
+         */
+        void shiftOffsets(int delta) {
+            Deque<SimpleASTNode> stack = new ArrayDeque<>();
+            stack.push(this);
+            while (!stack.isEmpty()) {
+                SimpleASTNode node = stack.pop();
+                if (node.offset >= 0) {
+                    node.offset += delta;
+                }
+                for (ASTNode child : node.children) {
+                    stack.push((SimpleASTNode) child);
+                }
+            }
+        }
+
+        /**
+         * 把[from, to)这一段子节点替换成nodes
+         */
+        void replaceChildren(int from, int to, List<SimpleASTNode> nodes) {
+            children.subList(from, to).clear();
+            children.addAll(from, nodes);
+            for (SimpleASTNode child : nodes) {
+                child.parent = this;
+            }
+        }
+
+    }
+
+    /**
+     * 构造SimpleASTNode的ASTBuilder，完成了还没有父节点的节点放在栈里
+     */
+    static final class NodeBuilder implements ASTBuilder<SimpleASTNode> {
+        private SimpleASTNode[] stack = new SimpleASTNode[16];
+        private int size = 0;
+
+        @Override
+        public void node(ASTNodeType type, Token token, int childCount) {
+            SimpleASTNode node = token != null ? new SimpleASTNode(type, token) : new SimpleASTNode(type, "pwc");
+            int first = size - childCount;
+            for (int i = first; i < size; i++) {
+                node.addChild(stack[i]);
+                stack[i] = null;
+            }
+            size = first;
+            if (size == stack.length) {
+                stack = Arrays.copyOf(stack, size * 2);
+            }
+            stack[size++] = node;
+        }
+
+        @Override
+        public SimpleASTNode build() {
+            SimpleASTNode node = stack[--size];
+            stack[size] = null;
+            return node;
+        }
+
+        /**
+         * 只保留最早完成的size个还没有父节点的节点
+         */
+        void truncate(int size) {
+            Arrays.fill(stack, size, this.size, null);
+            this.size = size;
+        }
+    }
+
+    /**
+     * 二元运算符表：结合力、结合性、生成的AST节点类型，以及缺少右操作数时的报错信息。
+     * 结合力越大，优先级越高。增加新的运算符或优先级只需要在这里登记，不需要增加解析方法。
+     */
+    private static final class Operator {
+        private static final Operator[] TABLE = new Operator[TokenType.values().length];
+
+        static {
+            define(10, false, ASTNodeType.Additive, "invalid additive expression, expecting the right part.",
+                    TokenType.Plus, TokenType.Minus);
+            define(20, false, ASTNodeType.Multiplicative, "invalid multiplicative expression, expecting the right part.",
+                    TokenType.Star, TokenType.Slash);
+        }
+
+        final int power;
+        final boolean rightAssociative;
+        final ASTNodeType nodeType;
+        final String error;
+
+        private Operator(int power, boolean rightAssociative, ASTNodeType nodeType, String error) {
+            this.power = power;
+            this.rightAssociative = rightAssociative;
+            this.nodeType = nodeType;
+            this.error = error;
+        }
+
+        private static void define(int power, boolean rightAssociative, ASTNodeType nodeType, String error, TokenType... types) {
+            Operator operator = new Operator(power, rightAssociative, nodeType, error);
+            for (TokenType type : types) {
+                TABLE[type.ordinal()] = operator;
+            }
+        }
+
+        /**
+         * Token对应的二元运算符，不是二元运算符返回null
+         */
+        static Operator of(TokenType type) {
+            return TABLE[type.ordinal()];
+        }
+    }
+
+    /**
+     * 在当前Token的位置报错
+     * @param message
+     * @param tokens
+     * @param diagnostics 不为null时把错误记在这里，并抛出RECOVERY跳出当前语句
+     * @return 没有diagnostics时要抛出的异常
+     */
+    private static ScriptException error(String message, TokenReader tokens, Diagnostics diagnostics) {
+        Token token = tokens.peek();
+        return error(message, token != null ? token.getOffset() : -1, diagnostics);
+    }
+
+    private static ScriptException error(String message, int offset, Diagnostics diagnostics) {
+        if (diagnostics == null) {
+            return new ScriptException(message, offset);
+        }
+        diagnostics.report(message, offset);
+        throw RECOVERY;
+    }
+
+    private static final Recovery RECOVERY = new Recovery();
+
+    /**
+     * 诊断模式下报错之后用它跳出当前语句，只在parse(TokenReader, Diagnostics)中被捕获，不会传到外面。
+     * 只有一个实例，被所有线程共用：不记录调用栈、不能添加suppressed异常、cause也不能再设置，所以是不可变的，
+     * 抛出时不分配任何对象
+     */
+    private static final class Recovery extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Recovery() {
+            super(null, null, false, false);
+        }
     }
 
     /**
@@ -321,9 +718,16 @@ public class SimpleParser {
      * @param indent 缩进字符，由tab组成，每一级多一个tab
      */
     public void dumpAST(ASTNode node, String indent) {
-        System.out.println(indent + node.getType() + " " + node.getText());
-        for (ASTNode child : node.getChildren()) {
-            dumpAST(child, indent + "\t");
-        }
+        dumpAST(node, indent, System.out);
+    }
+
+    /**
+     * 把AST的树状结构输出到out，参见ASTNode.dump()
+     * @param node
+     * @param indent 缩进字符，由tab组成，每一级多一个tab
+     * @param out
+     */
+    public void dumpAST(ASTNode node, String indent, PrintStream out) {
+        ASTNode.dump(node, indent, out);
     }
 }
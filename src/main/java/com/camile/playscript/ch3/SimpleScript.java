@@ -3,9 +3,12 @@ package com.camile.playscript.ch3;
 import com.camile.playscript.ASTNode;
 import com.camile.playscript.ASTNodeType;
 
+import com.camile.playscript.ch1.LineIndex;
+import com.camile.playscript.ch1.SymbolTable;
+
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * 一个简单的脚本解释器。
@@ -25,9 +28,34 @@ import java.util.HashMap;
  *
  */
 public class SimpleScript {
-    private HashMap<String, Integer> variables = new HashMap<String, Integer>();
+    //变量的值，以变量的槽位为下标。槽位是这个解释器按出现的先后分配的连续编号，参见slotOf()
+    private Integer[] values = new Integer[16];
+    //变量是否已经声明
+    private boolean[] declared = new boolean[16];
+    //从符号编号到槽位的开放定址哈希表，keys中存放符号编号+1，0表示空位
+    private int[] keys = new int[32];
+    private int[] slots = new int[32];
+    private int slotCount = 0;
+    //AST中的符号编号所在的符号表
+    private final SymbolTable symbols;
     private static boolean verbose = false;
 
+    /**
+     * 执行用SymbolTable.GLOBAL解析的AST
+     */
+    public SimpleScript() {
+        this(SymbolTable.GLOBAL);
+    }
+
+    /**
+     * 执行的AST都要由使用symbols的Parser解析，比如new SimpleParser(symbols)，
+     * 不同符号表的编号不能混用
+     * @param symbols
+     */
+    public SimpleScript(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
     /**
      * 实现一个简单的REPL
      * @param args
@@ -69,6 +97,10 @@ public class SimpleScript {
                 }
 
             } catch (Exception e) {
+                if (e instanceof ScriptException) {
+                    //报错时才建立行索引，把偏移量换算成行号和列号
+                    ((ScriptException) e).locate(new LineIndex(scriptText));
+                }
                 // e.printStackTrace();
                 System.out.println(e.getLocalizedMessage());
                 //提示符
@@ -79,30 +111,127 @@ public class SimpleScript {
     }
 
 
+    /**
+     * 执行一棵AST，变量保存在这个解释器中，可以被后面执行的AST使用
+     * @param tree
+     * @return 最后一条语句的值
+     * @throws Exception
+     */
+    public Integer evaluate(ASTNode tree) throws Exception {
+        return evaluate(tree, "");
+    }
+
     /**
      * 遍历AST，计算值。
-     * @param node
+     * 不递归，用显式的栈做后序遍历：节点第一次出栈时压入要计算的子节点，子节点都算完之后再计算它自己，
+     * 子节点的值放在另一个值栈上。所以表达式嵌套多深都不会栈溢出，与SimpleParser解析的深度一致。
+     * @param tree
      * @param indent
      * @return
      * @throws Exception
      */
-    private Integer evaluate(ASTNode node, String indent) throws Exception {
-        Integer result = null;
-        if (verbose) {
-            System.out.println(indent + "Calculating: " + node.getType());
+    private Integer evaluate(ASTNode tree, String indent) throws Exception {
+        //节点栈，以及每个节点比tree深几级、已经压入了几个子节点
+        ASTNode[] nodes = new ASTNode[16];
+        int[] depths = new int[16];
+        int[] visited = new int[16];
+        int top = 0;
+        nodes[0] = tree;
+
+        //子节点的值
+        Integer[] values = new Integer[16];
+        int valueCount = 0;
+
+        while (true) {
+            ASTNode node = nodes[top];
+            int depth = depths[top];
+            if (visited[top] == 0) {
+                if (verbose) {
+                    System.out.println(indent(indent, depth) + "Calculating: " + node.getType());
+                }
+                //先检查变量，再计算右边的表达式
+                if (node.getType() == ASTNodeType.AssignmentStmt && !declared[slotOf(node)]) {
+                    throw new ScriptException("unknown variable: " + node.getText(), node.getOffset());
+                }
+            }
+
+            int childCount = evaluatedChildren(node);
+            if (visited[top] < childCount) {
+                ASTNode child = node.getChildren().get(visited[top]++);
+                if (++top == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, top * 2);
+                    depths = Arrays.copyOf(depths, top * 2);
+                    visited = Arrays.copyOf(visited, top * 2);
+                }
+                nodes[top] = child;
+                //Programm下面的语句是顶层的语句，与Programm的缩进相同
+                depths[top] = node.getType() == ASTNodeType.Programm ? depth : depth + 1;
+                visited[top] = 0;
+                continue;
+            }
+
+            //子节点都算完了，它们的值在值栈的顶上
+            valueCount -= childCount;
+            Integer result = evaluate(node, values, valueCount, childCount);
+            Arrays.fill(values, valueCount, valueCount + childCount, null);
+            nodes[top] = null;
+
+            if (verbose) {
+                System.out.println(indent(indent, depth) + "Result: " + result);
+            } else if (indent.equals("") && depth == 0) { // 顶层的语句
+                if (node.getType() == ASTNodeType.IntDeclaration || node.getType() == ASTNodeType.AssignmentStmt) {
+                    System.out.println(node.getText() + ": " + result);
+                }else if (node.getType() != ASTNodeType.Programm){
+                    System.out.println(result);
+                }
+            }
+
+            if (top-- == 0) {
+                return result;
+            }
+            if (valueCount == values.length) {
+                values = Arrays.copyOf(values, valueCount * 2);
+            }
+            values[valueCount++] = result;
         }
+    }
 
+    /**
+     * 计算节点的值时要先算出值的子节点个数
+     */
+    private static int evaluatedChildren(ASTNode node) {
         switch (node.getType()) {
             case Programm:
-                for (ASTNode child : node.getChildren()) {
-                    result = evaluate(child, indent);
+            case Additive:
+            case Multiplicative:
+            case AssignmentStmt:
+            case IntDeclaration:
+                return node.getChildren().size();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 子节点的值都已经算出来之后，计算一个节点的值
+     * @param node
+     * @param values 子节点的值在values[from, from + count)中
+     * @param from
+     * @param count
+     * @return
+     * @throws Exception
+     */
+    private Integer evaluate(ASTNode node, Integer[] values, int from, int count) throws Exception {
+        Integer result = null;
+        switch (node.getType()) {
+            case Programm:
+                if (count > 0) {
+                    result = values[from + count - 1];
                 }
                 break;
             case Additive:
-                ASTNode child1 = node.getChildren().get(0);
-                Integer value1 = evaluate(child1, indent + "\t");
-                ASTNode child2 = node.getChildren().get(1);
-                Integer value2 = evaluate(child2, indent + "\t");
+                Integer value1 = values[from];
+                Integer value2 = values[from + 1];
                 if (node.getText().equals("+")) {
                     result = value1 + value2;
                 } else {
@@ -110,10 +239,8 @@ public class SimpleScript {
                 }
                 break;
             case Multiplicative:
-                child1 = node.getChildren().get(0);
-                value1 = evaluate(child1, indent + "\t");
-                child2 = node.getChildren().get(1);
-                value2 = evaluate(child2, indent + "\t");
+                value1 = values[from];
+                value2 = values[from + 1];
                 if (node.getText().equals("*")) {
                     result = value1 * value2;
                 } else {
@@ -125,47 +252,99 @@ public class SimpleScript {
                 break;
             case Identifier:
                 String varName = node.getText();
-                if (variables.containsKey(varName)) {
-                    Integer value = variables.get(varName);
+                int slot = slotOf(node);
+                if (declared[slot]) {
+                    Integer value = this.values[slot];
                     if (value != null) {
                         result = value;
                     } else {
-                        throw new Exception("variable " + varName + " has not been set any value");
+                        throw new ScriptException("variable " + varName + " has not been set any value", node.getOffset());
                     }
                 }
                 else{
-                    throw new Exception("unknown variable: " + varName);
+                    throw new ScriptException("unknown variable: " + varName, node.getOffset());
                 }
                 break;
             case AssignmentStmt:
-                varName = node.getText();
-                if (!variables.containsKey(varName)){
-                    throw new Exception("unknown variable: " + varName);
-                }   //接着执行下面的代码
             case IntDeclaration:
-                varName = node.getText();
                 Integer varValue = null;
-                if (node.getChildren().size() > 0) {
-                    ASTNode child = node.getChildren().get(0);
-                    result = evaluate(child, indent + "\t");
+                if (count > 0) {
+                    result = values[from];
                     varValue = result;
                 }
-                variables.put(varName, varValue);
+                slot = slotOf(node);
+                declared[slot] = true;
+                this.values[slot] = varValue;
                 break;
 
             default:
         }
+        return result;
+    }
 
-        if (verbose) {
-            System.out.println(indent + "Result: " + result);
-        } else if (indent.equals("")) { // 顶层的语句
-            if (node.getType() == ASTNodeType.IntDeclaration || node.getType() == ASTNodeType.AssignmentStmt) {
-                System.out.println(node.getText() + ": " + result);
-            }else if (node.getType() != ASTNodeType.Programm){
-                System.out.println(result);
+    private static String indent(String indent, int depth) {
+        StringBuilder sb = new StringBuilder(indent.length() + depth);
+        sb.append(indent);
+        for (int i = 0; i < depth; i++) {
+            sb.append('\t');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 节点中的变量在这个解释器中的槽位，第一次出现时分配一个新的。
+     * 符号表可能是整个进程共用的（比如SymbolTable.GLOBAL），编号的大小取决于所有脚本用过多少个名字，
+     * 所以不直接用编号做下标，变量数组的大小只取决于这个解释器见过的变量个数
+     * @param node
+     * @return
+     */
+    private int slotOf(ASTNode node) {
+        int symbol = node.getSymbol();
+        if (symbol < 0) {
+            //不是由SimpleParser生成的节点，按名字查符号表
+            symbol = symbols.intern(node.getText());
+        }
+        int mask = keys.length - 1;
+        int i = hash(symbol) & mask;
+        while (keys[i] != 0) {
+            if (keys[i] == symbol + 1) {
+                return slots[i];
             }
+            i = (i + 1) & mask;
         }
-        return result;
+
+        int slot = slotCount++;
+        keys[i] = symbol + 1;
+        slots[i] = slot;
+        if (slot == values.length) {
+            values = Arrays.copyOf(values, slot * 2);
+            declared = Arrays.copyOf(declared, slot * 2);
+        }
+        //负载因子不超过1/2
+        if (slotCount * 2 > keys.length) {
+            int[] oldKeys = keys;
+            int[] oldSlots = slots;
+            keys = new int[oldKeys.length * 2];
+            slots = new int[oldKeys.length * 2];
+            mask = keys.length - 1;
+            for (int k = 0; k < oldKeys.length; k++) {
+                if (oldKeys[k] != 0) {
+                    int j = hash(oldKeys[k] - 1) & mask;
+                    while (keys[j] != 0) {
+                        j = (j + 1) & mask;
+                    }
+                    keys[j] = oldKeys[k];
+                    slots[j] = oldSlots[k];
+                }
+            }
+        }
+        return slot;
+    }
+
+    private static int hash(int symbol) {
+        //符号编号是连续的，乘一个奇数打散，再把高位混合到低位
+        int h = symbol * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 
 }
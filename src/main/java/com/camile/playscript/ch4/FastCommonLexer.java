@@ -0,0 +1,858 @@
+package com.camile.playscript.ch4;
+
+import antlrtest.PlayScriptLexer;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.util.Arrays;
+
+/**
+ * 手写的词法解析器，识别CommonLexer.g4中的全部Token。
+ * 与ANTLR生成的CommonLexer不同，它不在运行时解释ATN，而是像SimpleLexer一样直接按字符扫描：
+ * 空白、标识符、关键字和操作符这些最常见的情况都是直接编码的快速路径，
+ * 只有数字、字符和字符串字面量才走较长的分支。
+ * <p>
+ * Token的类型与PlayScriptLexer一致（比CommonLexer多了'Number'、'String'、'var'三个隐式Token，编号都大3），
+ * tokenSource()返回的TokenSource可以直接交给PlayScriptParser使用。
+ * <p>
+ * 解析结果与ANTLR完全一致，包括最长匹配和出错时的恢复方式：
+ * 遇到无法识别的字符时，ANTLR跳过已经读入的字符和出错的那个字符，这里也一样，只是不打印错误信息。
+ * 输入按Unicode码点处理，代理对与ANTLR的CodePointCharStream一样当作一个字符。
+ */
+public class FastCommonLexer {
+
+    /**
+     * 共用的实例，没有实例状态，可以被多个线程同时使用
+     */
+    public static final FastCommonLexer INSTANCE = new FastCommonLexer();
+
+    /**
+     * 接收扫描出来的Token
+     */
+    public interface Sink {
+        /**
+         * @param type  Token类型，与PlayScriptLexer中的常量相同
+         * @param start 起始位置（包含）
+         * @param end   结束位置（不包含）
+         */
+        void token(int type, int start, int end);
+    }
+
+    //出错时跳过的字符，不是Token
+    private static final int SKIP = Token.INVALID_TYPE;
+
+    private static final int IDENTIFIER = PlayScriptLexer.Identifier;
+
+    //标识符中可以出现的ASCII字符
+    private static final boolean[] IDENTIFIER_START = new boolean[128];
+    private static final boolean[] IDENTIFIER_PART = new boolean[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            IDENTIFIER_START[c] = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '$' || c == '_';
+            IDENTIFIER_PART[c] = IDENTIFIER_START[c] || c >= '0' && c <= '9';
+        }
+    }
+
+    //关键字，以及文本固定、与标识符冲突的Token
+    private static final String[] WORDS = {
+            "Number", "String", "var",
+            "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue", "default",
+            "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package",
+            "private", "protected", "public", "return", "short", "super", "switch", "this", "void", "while",
+            "true", "false", "null"};
+
+    private static final int[] WORD_TYPES = {
+            PlayScriptLexer.T__0, PlayScriptLexer.T__1, PlayScriptLexer.T__2,
+            PlayScriptLexer.BOOLEAN, PlayScriptLexer.BREAK, PlayScriptLexer.BYTE, PlayScriptLexer.CASE,
+            PlayScriptLexer.CATCH, PlayScriptLexer.CHAR, PlayScriptLexer.CLASS, PlayScriptLexer.CONST,
+            PlayScriptLexer.CONTINUE, PlayScriptLexer.DEFAULT, PlayScriptLexer.DO, PlayScriptLexer.DOUBLE,
+            PlayScriptLexer.ELSE, PlayScriptLexer.ENUM, PlayScriptLexer.EXTENDS, PlayScriptLexer.FINAL,
+            PlayScriptLexer.FINALLY, PlayScriptLexer.FLOAT, PlayScriptLexer.FOR, PlayScriptLexer.IF,
+            PlayScriptLexer.IMPLEMENTS, PlayScriptLexer.IMPORT, PlayScriptLexer.INSTANCEOF, PlayScriptLexer.INT,
+            PlayScriptLexer.INTERFACE, PlayScriptLexer.LONG, PlayScriptLexer.NATIVE, PlayScriptLexer.NEW,
+            PlayScriptLexer.PACKAGE, PlayScriptLexer.PRIVATE, PlayScriptLexer.PROTECTED, PlayScriptLexer.PUBLIC,
+            PlayScriptLexer.RETURN, PlayScriptLexer.SHORT, PlayScriptLexer.SUPER, PlayScriptLexer.SWITCH,
+            PlayScriptLexer.THIS, PlayScriptLexer.VOID, PlayScriptLexer.WHILE,
+            PlayScriptLexer.BooleanLiteral, PlayScriptLexer.BooleanLiteral, PlayScriptLexer.NullLiteral};
+
+    //关键字的开放定址哈希表
+    private static final int WORD_MASK = 127;
+    private static final String[] WORD_SLOTS = new String[WORD_MASK + 1];
+    private static final int[] WORD_SLOT_TYPES = new int[WORD_MASK + 1];
+
+    static {
+        for (int i = 0; i < WORDS.length; i++) {
+            String word = WORDS[i];
+            int slot = wordHash(word, 0, word.length()) & WORD_MASK;
+            while (WORD_SLOTS[slot] != null) {
+                slot = (slot + 1) & WORD_MASK;
+            }
+            WORD_SLOTS[slot] = word;
+            WORD_SLOT_TYPES[slot] = WORD_TYPES[i];
+        }
+    }
+
+    //数字的种类
+    private static final int DEC = 0;
+    private static final int HEX = 1;
+    private static final int OCT = 2;
+    private static final int BIN = 3;
+
+    /**
+     * 扫描code中[from, to)这一段，把Token依次交给sink。
+     * 空白被跳过；注释也会交给sink，它们在ANTLR中属于HIDDEN通道，参见channelOf()。
+     *
+     * @param code
+     * @param from
+     * @param to
+     * @param sink
+     */
+    public void scan(CharSequence code, int from, int to, Sink sink) {
+        int i = from;
+        while (i < to) {
+            char c = code.charAt(i);
+            int start = i;
+            int type;
+            int end;
+            switch (c) {
+                case ' ':
+                case '\t':
+                case '\r':
+                case '\n':
+                case '\f':
+                    i++;
+                    continue;
+                case '(':
+                    type = PlayScriptLexer.LPAREN;
+                    i++;
+                    break;
+                case ')':
+                    type = PlayScriptLexer.RPAREN;
+                    i++;
+                    break;
+                case '{':
+                    type = PlayScriptLexer.LBRACE;
+                    i++;
+                    break;
+                case '}':
+                    type = PlayScriptLexer.RBRACE;
+                    i++;
+                    break;
+                case '[':
+                    type = PlayScriptLexer.LBRACK;
+                    i++;
+                    break;
+                case ']':
+                    type = PlayScriptLexer.RBRACK;
+                    i++;
+                    break;
+                case ';':
+                    type = PlayScriptLexer.SEMI;
+                    i++;
+                    break;
+                case ',':
+                    type = PlayScriptLexer.COMMA;
+                    i++;
+                    break;
+                case '@':
+                    type = PlayScriptLexer.AT;
+                    i++;
+                    break;
+                case '~':
+                    type = PlayScriptLexer.TILDE;
+                    i++;
+                    break;
+                case '?':
+                    type = PlayScriptLexer.QUESTION;
+                    i++;
+                    break;
+                case ':':
+                    if (at(code, i + 1, to, ':')) {
+                        type = PlayScriptLexer.COLONCOLON;
+                        i += 2;
+                    } else {
+                        type = PlayScriptLexer.COLON;
+                        i++;
+                    }
+                    break;
+                case '=':
+                    if (at(code, i + 1, to, '=')) {
+                        type = PlayScriptLexer.EQUAL;
+                        i += 2;
+                    } else {
+                        type = PlayScriptLexer.ASSIGN;
+                        i++;
+                    }
+                    break;
+                case '!':
+                    if (at(code, i + 1, to, '=')) {
+                        type = PlayScriptLexer.NOTEQUAL;
+                        i += 2;
+                    } else {
+                        type = PlayScriptLexer.BANG;
+                        i++;
+                    }
+                    break;
+                case '<':
+                    if (at(code, i + 1, to, '=')) {
+                        type = PlayScriptLexer.LE;
+                        i += 2;
+                    } else if (at(code, i + 1, to, '<') && at(code, i + 2, to, '=')) {
+                        type = PlayScriptLexer.LSHIFT_ASSIGN;
+                        i += 3;
+                    } else {
+                        //没有'<<'这个Token
+                        type = PlayScriptLexer.LT;
+                        i++;
+                    }
+                    break;
+                case '>':
+                    if (at(code, i + 1, to, '=')) {
+                        type = PlayScriptLexer.GE;
+                        i += 2;
+                    } else if (at(code, i + 1, to, '>') && at(code, i + 2, to, '=')) {
+                        type = PlayScriptLexer.RSHIFT_ASSIGN;
+                        i += 3;
+                    } else if (at(code, i + 1, to, '>') && at(code, i + 2, to, '>') && at(code, i + 3, to, '=')) {
+                        type = PlayScriptLexer.URSHIFT_ASSIGN;
+                        i += 4;
+                    } else {
+                        //没有'>>'和'>>>'这两个Token
+                        type = PlayScriptLexer.GT;
+                        i++;
+                    }
+                    break;
+                case '+':
+                    if (at(code, i + 1, to, '+')) {
+                        type = PlayScriptLexer.INC;
+                        i += 2;
+                    } else if (at(code, i + 1, to, '=')) {
+                        type = PlayScriptLexer.ADD_ASSIGN;
+                        i += 2;
+                    } else {
+                        type = PlayScriptLexer.ADD;
+                        i++;
+                    }
+                    break;
+                case '-':
+                    if (at(code, i + 1, to, '-')) {
+                        type = PlayScriptLexer.DEC;
+                        i += 2;
+                    } else if (at(code, i + 1, to, '=')) {
+                        type = PlayScriptLexer.SUB_ASSIGN;
+                        i += 2;
+                    } else if (at(code, i + 1, to, '>')) {
+                        type = PlayScriptLexer.ARROW;
+                        i += 2;
+                    } else {
+                        type = PlayScriptLexer.SUB;
+                        i++;
+                    }
+                    break;
+                case '*':
+                    type = assignOr(code, i, to, PlayScriptLexer.MUL, PlayScriptLexer.MUL_ASSIGN);
+                    i += type == PlayScriptLexer.MUL ? 1 : 2;
+                    break;
+                case '%':
+                    type = assignOr(code, i, to, PlayScriptLexer.MOD, PlayScriptLexer.MOD_ASSIGN);
+                    i += type == PlayScriptLexer.MOD ? 1 : 2;
+                    break;
+                case '^':
+                    type = assignOr(code, i, to, PlayScriptLexer.CARET, PlayScriptLexer.XOR_ASSIGN);
+                    i += type == PlayScriptLexer.CARET ? 1 : 2;
+                    break;
+                case '&':
+                    if (at(code, i + 1, to, '&')) {
+                        type = PlayScriptLexer.AND;
+                        i += 2;
+                    } else if (at(code, i + 1, to, '=')) {
+                        type = PlayScriptLexer.AND_ASSIGN;
+                        i += 2;
+                    } else {
+                        type = PlayScriptLexer.BITAND;
+                        i++;
+                    }
+                    break;
+                case '|':
+                    if (at(code, i + 1, to, '|')) {
+                        type = PlayScriptLexer.OR;
+                        i += 2;
+                    } else if (at(code, i + 1, to, '=')) {
+                        type = PlayScriptLexer.OR_ASSIGN;
+                        i += 2;
+                    } else {
+                        type = PlayScriptLexer.BITOR;
+                        i++;
+                    }
+                    break;
+                case '/':
+                    if (at(code, i + 1, to, '/')) {
+                        //单行注释
+                        i += 2;
+                        while (i < to && code.charAt(i) != '\r' && code.charAt(i) != '\n') {
+                            i++;
+                        }
+                        type = PlayScriptLexer.LINE_COMMENT;
+                    } else if (at(code, i + 1, to, '*') && (end = commentEnd(code, i + 2, to)) > 0) {
+                        //多行注释。没有结束的注释不是注释，只是一个除号
+                        i = end;
+                        type = PlayScriptLexer.COMMENT;
+                    } else {
+                        type = assignOr(code, i, to, PlayScriptLexer.DIV, PlayScriptLexer.DIV_ASSIGN);
+                        i += type == PlayScriptLexer.DIV ? 1 : 2;
+                    }
+                    break;
+                case '.':
+                    if (i + 1 < to && isDigit(code.charAt(i + 1), DEC)) {
+                        long number = number(code, i, to);
+                        type = (int) (number >>> 32);
+                        i = (int) number;
+                    } else if (at(code, i + 1, to, '.') && at(code, i + 2, to, '.')) {
+                        type = PlayScriptLexer.ELLIPSIS;
+                        i += 3;
+                    } else {
+                        type = PlayScriptLexer.DOT;
+                        i++;
+                    }
+                    break;
+                case '"':
+                    long string = stringLiteral(code, i, to);
+                    type = (int) (string >>> 32);
+                    i = (int) string;
+                    break;
+                case '\'':
+                    long character = charLiteral(code, i, to);
+                    type = (int) (character >>> 32);
+                    i = (int) character;
+                    break;
+                default:
+                    if (c >= '0' && c <= '9') {
+                        long number = number(code, i, to);
+                        type = (int) (number >>> 32);
+                        i = (int) number;
+                    } else if (c < 128 && IDENTIFIER_START[c]) {
+                        //标识符和关键字，最常见的情况
+                        i++;
+                        while (i < to && (c = code.charAt(i)) < 128 && IDENTIFIER_PART[c]) {
+                            i++;
+                        }
+                        int ascii = i;
+                        if (i < to && c >= 128) {
+                            i = identifierPart(code, i, to);
+                        }
+                        //关键字都是ASCII字符
+                        type = i == ascii ? keyword(code, start, i) : IDENTIFIER;
+                    } else if (c >= 128) {
+                        int cp = codePointAt(code, i, to);
+                        if (cp >= 0xD800 && cp <= 0xDBFF) {
+                            //单独的高位代理，ANTLR读入它之后在下一个字符处出错，两个字符都被跳过
+                            type = SKIP;
+                            i = skipOne(code, i + 1, to);
+                        } else if (Character.isJavaIdentifierStart(cp)) {
+                            i = identifierPart(code, i + Character.charCount(cp), to);
+                            type = IDENTIFIER;
+                        } else {
+                            type = SKIP;
+                            i += Character.charCount(cp);
+                        }
+                    } else {
+                        //没有规则的字符
+                        type = SKIP;
+                        i++;
+                    }
+            }
+            if (type != SKIP) {
+                sink.token(type, start, i);
+            }
+        }
+    }
+
+    /**
+     * 把整个字符串解析成ANTLR的TokenSource，Token与PlayScriptLexer生成的完全一样，包括行号、列号和位置
+     *
+     * @param code
+     * @return
+     */
+    public TokenSource tokenSource(String code) {
+        return new Source(code, CharStreams.fromString(code));
+    }
+
+    /**
+     * Token所在的通道，注释在HIDDEN通道
+     *
+     * @param type
+     * @return
+     */
+    public static int channelOf(int type) {
+        return type == PlayScriptLexer.COMMENT || type == PlayScriptLexer.LINE_COMMENT ? Token.HIDDEN_CHANNEL : Token.DEFAULT_CHANNEL;
+    }
+
+    private static boolean at(CharSequence code, int i, int to, char c) {
+        return i < to && code.charAt(i) == c;
+    }
+
+    private static int assignOr(CharSequence code, int i, int to, int single, int assign) {
+        return at(code, i + 1, to, '=') ? assign : single;
+    }
+
+    /**
+     * 多行注释结束的位置，没有结束则返回-1
+     */
+    private static int commentEnd(CharSequence code, int i, int to) {
+        for (; i + 1 < to; i++) {
+            if (code.charAt(i) == '*' && code.charAt(i + 1) == '/') {
+                return i + 2;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 位置i上的码点，代理对算一个码点
+     */
+    private static int codePointAt(CharSequence code, int i, int to) {
+        char c = code.charAt(i);
+        if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(code.charAt(i + 1))) {
+            return Character.toCodePoint(c, code.charAt(i + 1));
+        }
+        return c;
+    }
+
+    /**
+     * 跳过位置i上的一个码点，ANTLR出错恢复时就是这样
+     */
+    private static int skipOne(CharSequence code, int i, int to) {
+        return i < to ? i + Character.charCount(codePointAt(code, i, to)) : i;
+    }
+
+    /**
+     * 标识符后面的部分，可以包含非ASCII字符
+     */
+    private static int identifierPart(CharSequence code, int i, int to) {
+        while (i < to) {
+            char c = code.charAt(i);
+            if (c < 128) {
+                if (!IDENTIFIER_PART[c]) {
+                    break;
+                }
+                i++;
+            } else {
+                int cp = codePointAt(code, i, to);
+                if (cp >= 0xD800 && cp <= 0xDBFF || !Character.isJavaIdentifierPart(cp)) {
+                    break;
+                }
+                i += Character.charCount(cp);
+            }
+        }
+        return i;
+    }
+
+    private static int wordHash(CharSequence code, int start, int end) {
+        int h = code.charAt(start) * 31 + code.charAt(end - 1);
+        h = h * 31 + (end - start);
+        return h ^ (h >>> 7);
+    }
+
+    /**
+     * 关键字的类型，不是关键字就是标识符
+     */
+    private static int keyword(CharSequence code, int start, int end) {
+        int length = end - start;
+        if (length < 2 || length > 10) {
+            return IDENTIFIER;
+        }
+        for (int slot = wordHash(code, start, end) & WORD_MASK; ; slot = (slot + 1) & WORD_MASK) {
+            String word = WORD_SLOTS[slot];
+            if (word == null) {
+                return IDENTIFIER;
+            }
+            if (word.length() == length) {
+                int k = 0;
+                while (k < length && word.charAt(k) == code.charAt(start + k)) {
+                    k++;
+                }
+                if (k == length) {
+                    return WORD_SLOT_TYPES[slot];
+                }
+            }
+        }
+    }
+
+    private static boolean isDigit(char c, int kind) {
+        switch (kind) {
+            case HEX:
+                return c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
+            case OCT:
+                return c >= '0' && c <= '7';
+            case BIN:
+                return c == '0' || c == '1';
+            default:
+                return c >= '0' && c <= '9';
+        }
+    }
+
+    /**
+     * 最长的 Digit ((Digit | '_')* Digit)? ，即数字中间可以有下划线，但不能以下划线结尾
+     *
+     * @return 结束位置，不匹配则返回-1
+     */
+    private static int digits(CharSequence code, int i, int to, int kind) {
+        if (i >= to || !isDigit(code.charAt(i), kind)) {
+            return -1;
+        }
+        int end = ++i;
+        while (i < to) {
+            char c = code.charAt(i);
+            if (isDigit(c, kind)) {
+                end = ++i;
+            } else if (c == '_') {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * 指数部分：[eE]或[pP]，可选的正负号，再加上十进制数字
+     *
+     * @return 结束位置，不匹配则返回-1
+     */
+    private static int exponent(CharSequence code, int i, int to, char indicator) {
+        if (i >= to || (code.charAt(i) | 0x20) != indicator) {
+            return -1;
+        }
+        i++;
+        if (i < to && (code.charAt(i) == '+' || code.charAt(i) == '-')) {
+            i++;
+        }
+        return digits(code, i, to, DEC);
+    }
+
+    private static int suffix(CharSequence code, int i, int to, String chars) {
+        return i < to && chars.indexOf(code.charAt(i)) >= 0 ? i + 1 : i;
+    }
+
+    private static long token(int type, int end) {
+        return (long) type << 32 | end;
+    }
+
+    /**
+     * 整型和浮点型字面量，在所有可能的写法中取最长的，长度相同时整型优先
+     *
+     * @return 类型和结束位置
+     */
+    private static long number(CharSequence code, int i, int to) {
+        if (code.charAt(i) == '.') {
+            //.5e3f
+            int end = digits(code, i + 1, to, DEC);
+            int exponent = exponent(code, end, to, 'e');
+            return token(PlayScriptLexer.FloatingPointLiteral, suffix(code, exponent > 0 ? exponent : end, to, "fFdD"));
+        }
+
+        //整型
+        boolean hex = false;
+        int end;
+        if (code.charAt(i) == '0') {
+            end = i + 1;
+            char x = i + 1 < to ? code.charAt(i + 1) : 0;
+            if (x == 'x' || x == 'X') {
+                hex = true;
+                end = Math.max(end, digits(code, i + 2, to, HEX));
+            } else if (x == 'b' || x == 'B') {
+                end = Math.max(end, digits(code, i + 2, to, BIN));
+            } else {
+                //八进制，0后面可以先跟下划线
+                int j = i + 1;
+                while (j < to && code.charAt(j) == '_') {
+                    j++;
+                }
+                end = Math.max(end, digits(code, j, to, OCT));
+            }
+        } else {
+            end = digits(code, i, to, DEC);
+        }
+        long best = token(PlayScriptLexer.IntegerLiteral, suffix(code, end, to, "lL"));
+
+        //十进制浮点数
+        int digits = digits(code, i, to, DEC);
+        int floatEnd = -1;
+        if (at(code, digits, to, '.')) {
+            floatEnd = Math.max(digits + 1, digits(code, digits + 1, to, DEC));
+            int exponent = exponent(code, floatEnd, to, 'e');
+            floatEnd = suffix(code, exponent > 0 ? exponent : floatEnd, to, "fFdD");
+        } else {
+            int exponent = exponent(code, digits, to, 'e');
+            if (exponent > 0) {
+                floatEnd = suffix(code, exponent, to, "fFdD");
+            } else if (suffix(code, digits, to, "fFdD") > digits) {
+                floatEnd = digits + 1;
+            }
+        }
+
+        //十六进制浮点数，必须有p指数
+        if (hex) {
+            int hexDigits = digits(code, i + 2, to, HEX);
+            int dot = hexDigits > 0 ? hexDigits : i + 2;
+            if (hexDigits > 0) {
+                floatEnd = Math.max(floatEnd, hexFloat(code, hexDigits, to));
+            }
+            if (at(code, dot, to, '.')) {
+                if (hexDigits > 0) {
+                    floatEnd = Math.max(floatEnd, hexFloat(code, dot + 1, to));
+                }
+                int fraction = digits(code, dot + 1, to, HEX);
+                if (fraction > 0) {
+                    floatEnd = Math.max(floatEnd, hexFloat(code, fraction, to));
+                }
+            }
+        }
+
+        if (floatEnd > (int) best) {
+            return token(PlayScriptLexer.FloatingPointLiteral, floatEnd);
+        }
+        return best;
+    }
+
+    /**
+     * 十六进制浮点数的指数和后缀，significand是有效数字结束的位置
+     */
+    private static int hexFloat(CharSequence code, int significand, int to) {
+        int exponent = exponent(code, significand, to, 'p');
+        return exponent > 0 ? suffix(code, exponent, to, "fFdD") : -1;
+    }
+
+    /**
+     * 转义序列的第一个字符（反斜杠之后）是否合法
+     */
+    private static boolean isSimpleEscape(char c) {
+        return "btnfr\"'\\".indexOf(c) >= 0;
+    }
+
+    /**
+     * Unicode转义，i指向第一个'u'
+     *
+     * @return 结束位置；出错时返回出错位置的相反数减1
+     */
+    private static int unicodeEscape(CharSequence code, int i, int to) {
+        while (i < to && code.charAt(i) == 'u') {
+            i++;
+        }
+        for (int k = 0; k < 4; k++) {
+            if (i >= to || !isDigit(code.charAt(i), HEX)) {
+                return -i - 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 在位置i出错，跳过已经读入的字符和出错的字符
+     */
+    private static long error(CharSequence code, int i, int to) {
+        return token(SKIP, skipOne(code, i, to));
+    }
+
+    /**
+     * 字符串字面量
+     *
+     * @return 类型和结束位置，出错时类型为SKIP
+     */
+    private static long stringLiteral(CharSequence code, int i, int to) {
+        i++;
+        while (i < to) {
+            char c = code.charAt(i);
+            if (c == '"') {
+                return token(PlayScriptLexer.StringLiteral, i + 1);
+            } else if (c == '\r' || c == '\n') {
+                return error(code, i, to);
+            } else if (c == '\\') {
+                i++;
+                if (i >= to) {
+                    break;
+                }
+                c = code.charAt(i);
+                if (isSimpleEscape(c) || isDigit(c, OCT)) {
+                    //八进制转义后面的数字也可以看作普通字符，不影响结果
+                    i++;
+                } else if (c == 'u') {
+                    i = unicodeEscape(code, i, to);
+                    if (i < 0) {
+                        return error(code, -i - 1, to);
+                    }
+                } else {
+                    return error(code, i, to);
+                }
+            } else {
+                i++;
+            }
+        }
+        return token(SKIP, to);
+    }
+
+    /**
+     * 字符字面量
+     *
+     * @return 类型和结束位置，出错时类型为SKIP
+     */
+    private static long charLiteral(CharSequence code, int i, int to) {
+        i++;
+        if (i >= to) {
+            return token(SKIP, to);
+        }
+        char c = code.charAt(i);
+        if (c == '\'' || c == '\r' || c == '\n') {
+            return error(code, i, to);
+        }
+        if (c != '\\') {
+            i += Character.charCount(codePointAt(code, i, to));
+        } else {
+            i++;
+            if (i >= to) {
+                return token(SKIP, to);
+            }
+            c = code.charAt(i);
+            if (isSimpleEscape(c)) {
+                i++;
+            } else if (c == 'u') {
+                i = unicodeEscape(code, i, to);
+                if (i < 0) {
+                    return error(code, -i - 1, to);
+                }
+            } else if (isDigit(c, OCT)) {
+                //八进制转义有1到3位，只有以0-3开头的才能有3位，后面紧跟着引号的才是合法的
+                int max = c <= '3' ? 3 : 2;
+                int length = 1;
+                i++;
+                while (length < max && i < to && code.charAt(i) != '\'' && isDigit(code.charAt(i), OCT)) {
+                    length++;
+                    i++;
+                }
+            } else {
+                return error(code, i, to);
+            }
+        }
+        if (at(code, i, to, '\'')) {
+            return token(PlayScriptLexer.CharacterLiteral, i + 1);
+        }
+        return error(code, i, to);
+    }
+
+    /**
+     * 提供给ANTLR语法解析器的TokenSource。
+     * 先把整个字符串扫描到几个数组中，再按需创建Token，同时计算行号、列号和以码点计的位置。
+     */
+    private class Source implements TokenSource, Sink {
+        private final String code;
+        private final CharStream input;
+        private final Pair<TokenSource, CharStream> source;
+        private TokenFactory<?> factory = CommonTokenFactory.DEFAULT;
+
+        private int[] types = new int[64];
+        private int[] starts = new int[64];
+        private int[] ends = new int[64];
+        private int size = 0;
+        private int next = 0;
+
+        //已经走过的字符位置，以及对应的码点位置、行号和列号
+        private int charIndex = 0;
+        private int index = 0;
+        private int line = 1;
+        private int column = 0;
+
+        Source(String code, CharStream input) {
+            this.code = code;
+            this.input = input;
+            this.source = new Pair<TokenSource, CharStream>(this, input);
+            scan(code, 0, code.length(), this);
+        }
+
+        @Override
+        public void token(int type, int start, int end) {
+            if (size == types.length) {
+                types = Arrays.copyOf(types, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            types[size] = type;
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+
+        /**
+         * 走到字符位置target，更新码点位置、行号和列号
+         */
+        private void advance(int target) {
+            for (; charIndex < target; charIndex++) {
+                char c = code.charAt(charIndex);
+                if (Character.isLowSurrogate(c) && charIndex > 0 && Character.isHighSurrogate(code.charAt(charIndex - 1))) {
+                    //代理对的后一半，不算一个码点
+                    continue;
+                }
+                index++;
+                if (c == '\n') {
+                    line++;
+                    column = 0;
+                } else {
+                    column++;
+                }
+            }
+        }
+
+        @Override
+        public Token nextToken() {
+            if (next == size) {
+                advance(code.length());
+                return factory.create(source, Token.EOF, null, Token.DEFAULT_CHANNEL, index, index - 1, line, column);
+            }
+            int type = types[next];
+            advance(starts[next]);
+            int startIndex = index;
+            int startLine = line;
+            int startColumn = column;
+            advance(ends[next]);
+            next++;
+            return factory.create(source, type, null, channelOf(type), startIndex, index - 1, startLine, startColumn);
+        }
+
+        @Override
+        public int getLine() {
+            return line;
+        }
+
+        @Override
+        public int getCharPositionInLine() {
+            return column;
+        }
+
+        @Override
+        public CharStream getInputStream() {
+            return input;
+        }
+
+        @Override
+        public String getSourceName() {
+            return input.getSourceName();
+        }
+
+        @Override
+        public void setTokenFactory(TokenFactory<?> factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public TokenFactory<?> getTokenFactory() {
+            return factory;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.ASTNode;
+import com.camile.playscript.ch3.FlatAST;
+import com.camile.playscript.ch3.HashConsBuilder;
+import com.camile.playscript.ch3.SimpleParser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * 对比SimpleASTNode、FlatAST和共享子树的HashConsBuilder：每个节点占用的堆内存，以及完整遍历一遍的时间。
+ * 语料中有大量重复的表达式，HashConsBuilder只保存不同的子树，每个节点平均占用的内存是按树的节点数算的。
+ * 堆内存是建树前后各做一次GC之后的差值，只是近似值，建议用固定大小的堆运行。
+ * 不是单元测试，直接运行main方法：
+ * <p>
+ * java -Xms3g -Xmx3g -cp target/classes:target/test-classes com.camile.playscript.ch1.ASTBenchmark [MB]
+ */
+public class ASTBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        StringBuilder sb = new StringBuilder(megabytes << 20);
+        while (sb.length() < megabytes << 20) {
+            sb.append("int total = price * count;\nbalance = (balance - fee) * rate / 100;\ntotal + 1;\n");
+        }
+        String script = sb.toString();
+        SimpleParser parser = new SimpleParser();
+
+        FlatAST flat = parser.parseFlat(script);
+        int nodes = flat.size();
+        System.out.printf("%d MB, %d nodes%n", megabytes, nodes);
+
+        System.out.printf("%-14s %7.1f bytes/node%n", "SimpleASTNode", (double) retained(() -> parser.parse(script)) / nodes);
+        System.out.printf("%-14s %7.1f bytes/node%n", "FlatAST", (double) retained(() -> parser.parseFlat(script)) / nodes);
+        System.out.printf("%-14s %7.1f bytes/node%n", "HashCons",
+                (double) retained(() -> parser.parseShared(script, new HashConsBuilder())) / nodes);
+
+        ASTNode tree = parser.parse(script);
+        traverse("SimpleASTNode", nodes, () -> walk(tree));
+        traverse("FlatAST.Cursor", nodes, () -> walk(flat.cursor()));
+    }
+
+    /**
+     * 创建的对象在GC之后还占用的字节数
+     */
+    private static long retained(Callable<Object> create) throws Exception {
+        long before = used();
+        Object tree = create.call();
+        long after = used();
+        if (tree.hashCode() == 0) {
+            System.out.print("");
+        }
+        return after - before;
+    }
+
+    private static long used() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void traverse(String name, int nodes, Supplier<Long> walk) {
+        //先预热，再取多次运行中最快的一次
+        long best = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int i = 0; i < 15; i++) {
+            long begin = System.nanoTime();
+            checksum += walk.get();
+            long elapsed = System.nanoTime() - begin;
+            if (i >= 5) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        System.out.printf("%-14s %7.2f ns/node  (checksum %d)%n", name, (double) best / nodes, checksum);
+    }
+
+    /**
+     * 先序遍历，累加每个节点的类型和偏移量，免得遍历被优化掉
+     */
+    private static long walk(ASTNode root) {
+        long sum = 0;
+        Deque<ASTNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            ASTNode node = stack.pop();
+            sum += node.getType().ordinal() + node.getOffset();
+            for (int i = node.getChildren().size() - 1; i >= 0; i--) {
+                stack.push(node.getChildren().get(i));
+            }
+        }
+        return sum;
+    }
+
+    private static long walk(FlatAST.Cursor cursor) {
+        long sum = 0;
+        do {
+            sum += cursor.getType().ordinal() + cursor.getOffset();
+            if (!cursor.gotoFirstChild()) {
+                while (!cursor.gotoNextSibling() && cursor.gotoParent()) {
+                }
+            }
+        } while (cursor.getDepth() > 0);
+        return sum;
+    }
+}
@@ -0,0 +1,185 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.Token;
+import com.camile.playscript.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 最初版本的SimpleLexer，原样保留下来的手写状态机，只用于和现在的SimpleLexer做对比测试。
+ * 除了不再用CharArrayReader读取、状态改用自己的枚举之外，状态迁移和原来完全一样，
+ * 包括那些后来有意修改了的行为，参见LexerTest.testBaselineDivergences()。
+ */
+class BaselineLexer {
+    private enum State {
+        Initial, Id, GT, GE, Assignment, Plus, Minus, Star, Slash, SemiColon, LeftParen, RightParen,
+        IntLiteral, Id_int1, Id_int2, Id_int3
+    }
+
+    private StringBuffer tokenText = null;
+    private List<Token> tokens = null;
+    private SimpleToken token = null;
+
+    private boolean isAlpha(int ch) {
+        return ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z';
+    }
+
+    private boolean isDigit(int ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private boolean isBlank(int ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n';
+    }
+
+    private State initToken(char ch) {
+        if (tokenText.length() > 0) {
+            token.setText(tokenText.toString());
+            tokens.add(token);
+
+            tokenText = new StringBuffer();
+            token = new SimpleToken();
+        }
+
+        State newState;
+        if (isAlpha(ch)) {
+            if (ch == 'i') {
+                newState = State.Id_int1;
+            } else {
+                newState = State.Id;
+            }
+            token.setType(TokenType.Identifier);
+            tokenText.append(ch);
+        } else if (isDigit(ch)) {
+            newState = State.IntLiteral;
+            token.setType(TokenType.IntLiteral);
+            tokenText.append(ch);
+        } else if (ch == '>') {
+            newState = State.GT;
+            token.setType(TokenType.GT);
+            tokenText.append(ch);
+        } else if (ch == '+') {
+            newState = State.Plus;
+            token.setType(TokenType.Plus);
+            tokenText.append(ch);
+        } else if (ch == '-') {
+            newState = State.Minus;
+            token.setType(TokenType.Minus);
+            tokenText.append(ch);
+        } else if (ch == '*') {
+            newState = State.Star;
+            token.setType(TokenType.Star);
+            tokenText.append(ch);
+        } else if (ch == '/') {
+            newState = State.Slash;
+            token.setType(TokenType.Slash);
+            tokenText.append(ch);
+        } else if (ch == ';') {
+            newState = State.SemiColon;
+            token.setType(TokenType.SemiColon);
+            tokenText.append(ch);
+        } else if (ch == '(') {
+            newState = State.LeftParen;
+            token.setType(TokenType.LeftParen);
+            tokenText.append(ch);
+        } else if (ch == ')') {
+            newState = State.RightParen;
+            token.setType(TokenType.RightParen);
+            tokenText.append(ch);
+        } else if (ch == '=') {
+            newState = State.Assignment;
+            token.setType(TokenType.Assignment);
+            tokenText.append(ch);
+        } else {
+            newState = State.Initial;
+        }
+        return newState;
+    }
+
+    SimpleTokenReader tokenize(String code) {
+        tokens = new ArrayList<>();
+        tokenText = new StringBuffer();
+        token = new SimpleToken();
+        char ch = 0;
+        State state = State.Initial;
+        for (int i = 0; i < code.length(); i++) {
+            ch = code.charAt(i);
+            switch (state) {
+                case Initial:
+                    state = initToken(ch);
+                    break;
+                case Id:
+                    if (isAlpha(ch) || isDigit(ch)) {
+                        tokenText.append(ch);
+                    } else {
+                        state = initToken(ch);
+                    }
+                    break;
+                case GT:
+                    if (ch == '=') {
+                        token.setType(TokenType.GE);
+                        state = State.GE;
+                        tokenText.append(ch);
+                    } else {
+                        state = initToken(ch);
+                    }
+                    break;
+                case GE:
+                case Assignment:
+                case Plus:
+                case Minus:
+                case Star:
+                case Slash:
+                case SemiColon:
+                case LeftParen:
+                case RightParen:
+                    state = initToken(ch);
+                    break;
+                case IntLiteral:
+                    if (isDigit(ch)) {
+                        tokenText.append(ch);
+                    } else {
+                        state = initToken(ch);
+                    }
+                    break;
+                case Id_int1:
+                    if (ch == 'n') {
+                        state = State.Id_int2;
+                        tokenText.append(ch);
+                    } else if (isDigit(ch) || isAlpha(ch)) {
+                        state = State.Id;
+                        tokenText.append(ch);
+                    } else {
+                        state = initToken(ch);
+                    }
+                    break;
+                case Id_int2:
+                    if (ch == 't') {
+                        state = State.Id_int3;
+                        tokenText.append(ch);
+                    } else if (isDigit(ch) || isAlpha(ch)) {
+                        state = State.Id;
+                        tokenText.append(ch);
+                    } else {
+                        state = initToken(ch);
+                    }
+                    break;
+                case Id_int3:
+                    if (isBlank(ch)) {
+                        token.setType(TokenType.Int);
+                        state = initToken(ch);
+                    } else {
+                        state = State.Id;
+                        tokenText.append(ch);
+                    }
+                    break;
+                default:
+            }
+        }
+        if (tokenText.length() > 0) {
+            initToken(ch);
+        }
+        return new SimpleTokenReader(tokens);
+    }
+}
@@ -0,0 +1,160 @@
+package com.camile.playscript.ch1;
+
+
+import antlrtest.PlayScriptLexer;
+import com.camile.playscript.ch4.CommonLexer;
+import com.camile.playscript.ch4.CommonLexerDfa;
+import com.camile.playscript.ch4.FastCommonLexer;
+import com.camile.playscript.ch4.HelloDfa;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Constructor;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 把FastCommonLexer的结果与ANTLR生成的PlayScriptLexer、CommonLexer逐个Token对比，
+ * 把LexerGenerator生成的CommonLexerDfa、HelloDfa与ANTLR生成的CommonLexer、Hello对比，
+ * 在两者共有的Token类型上把SimpleLexer与Hello对比
+ */
+public class CommonLexerTest {
+
+    //各种Token和容易出错的片段
+    private static final String[] PARTS = {
+            "int", "Number", "String", "var", "instanceof", "interfaces", "true", "falsey", "null", "_x", "$1", "a1b2",
+            "0", "7", "123", "1_000", "1_", "0_7", "0__17", "08", "09.5", "0x1F", "0X", "0x_1", "0xCAFE_BABEL", "0b1010",
+            "0B2", "017L", "12l", "1.", "1.5", ".5", "..", "...", "1e10", "1E+5", "1e", "1e-", "2.5e-3f", "3d", "4F",
+            "0x1.8p1", "0x.8P-2", "0x1p", "0x1.p3d", "1..2", "1__2.3_4e5_6",
+            "'a'", "'\\n'", "'\\''", "'\\u0041'", "'\\uuu00e9'", "'\\12'", "'\\123'", "'\\45'", "'\\456'", "'\\8'",
+            "'ab'", "''", "'", "'\\", "'\\q'", "'\u4e2d'", "'\ud83d\ude00'",
+            "\"abc\"", "\"\"", "\"a\\\"b\"", "\"\\u12g\"", "\"\\t\\0\\377\"", "\"unterminated", "\"bad\\q\"", "\"\u4e2d\u6587\"",
+            "/* comment */", "/**/", "/*/", "// line", "/", "/=", "*", "*=", "%", "%=", "^", "^=",
+            "<", "<=", "<<", "<<=", ">", ">=", ">>", ">>=", ">>>", ">>>=", "=", "==", "!", "!=",
+            "&", "&&", "&=", "|", "||", "|=", "+", "++", "+=", "-", "--", "-=", "->", ":", "::", "?", "~", "@",
+            "(", ")", "{", "}", "[", "]", ";", ",", ".",
+            " ", " ", " ", "\t", "\n", "\r\n", "\f", "#", "\\", "`",
+            "\u4e2d\u6587", "caf\u00e9", "\u00a9", "\u00a0", "x\u0085y", "\ud835\udc9c", "\ud83d\ude00"};
+
+    @Test
+    public void testAgainstAntlr() {
+        Random random = new Random(17);
+        for (int n = 0; n < 2000; n++) {
+            compare(random(random));
+        }
+        compare(program());
+    }
+
+    @Test
+    public void testGenerated() throws Exception {
+        //Hello在默认包中，只能通过反射创建
+        Constructor<?> hello = Class.forName("Hello").getConstructor(CharStream.class);
+        Random random = new Random(23);
+        for (int n = 0; n <= 2000; n++) {
+            String script = n < 2000 ? random(random) : program();
+
+            StringBuilder actual = new StringBuilder();
+            CommonLexerDfa.INSTANCE.scan(script, 0, script.length(), (type, start, end) ->
+                    actual.append(type).append(' ').append(script, start, end)
+                            .append(" channel ").append(CommonLexerDfa.channelOf(type)).append('\n'));
+            assertEquals(describe(new CommonLexer(CharStreams.fromString(script))), actual.toString(), script);
+
+            //Hello的字符串中没有转义，引号成对出现就不会有没结束的字符串
+            String text = script.chars().filter(c -> c == '"').count() % 2 == 0 ? script : script + '"';
+            StringBuilder actualHello = new StringBuilder();
+            HelloDfa.INSTANCE.scan(text, 0, text.length(), (type, start, end) ->
+                    actualHello.append(type).append(' ').append(text, start, end)
+                            .append(" channel ").append(HelloDfa.channelOf(type)).append('\n'));
+            assertEquals(describe((Lexer) hello.newInstance(CharStreams.fromString(text))), actualHello.toString(), text);
+        }
+    }
+
+    @Test
+    public void testHelloAgainstSimpleLexer() throws Exception {
+        //基准测试LexerBenchmark用的语料上，两者共有的Token完全一致
+        String corpus = LexerBenchmark.corpus(new Random(3), 1 << 16);
+        assertTrue(LexerBenchmark.checkEquivalence(corpus) > 10000);
+        assertEquals(19, LexerBenchmark.checkEquivalence("int age = 45;\nif (age >= 17+8+20){\n  printf(\"Hello old man!\");\n}\n"));
+    }
+
+    /**
+     * 随机拼接的片段
+     */
+    private static String random(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = random.nextInt(60); i > 0; i--) {
+            sb.append(PARTS[random.nextInt(PARTS.length)]);
+        }
+        //4.7.1的运行时在词法错误一直延伸到EOF时会越界（Lexer.notifyListeners），
+        //所以在结尾关掉可能没结束的注释，并用换行截断没结束的字符串
+        return sb.append("\n*/\n").toString();
+    }
+
+    /**
+     * 一段接近真实代码的语料
+     */
+    private static String program() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("/** doc */\npublic class Foo").append(i).append(" extends Bar implements Baz {\n")
+                    .append("    private static final long MASK = 0xFFFF_FFFFL; // mask\n")
+                    .append("    double ratio = 1.5e-3, half = .5d; char c = '\\t'; String s = \"v=\\\"").append(i).append("\\\"\";\n")
+                    .append("    int f(int a) { if (a >= 10 && a != 0x1F) return a << 2 >>> 1; else a += -a * 017; return a++; }\n")
+                    .append("}\n");
+        }
+        return sb.toString();
+    }
+
+    private void compare(String script) {
+        Lexer antlr = new PlayScriptLexer(CharStreams.fromString(script));
+        antlr.removeErrorListeners();
+        TokenSource fast = FastCommonLexer.INSTANCE.tokenSource(script);
+        while (true) {
+            Token expected = antlr.nextToken();
+            Token actual = fast.nextToken();
+            assertEquals(describe(expected), describe(actual), script);
+            if (expected.getType() == Token.EOF) {
+                break;
+            }
+        }
+
+        //CommonLexer中没有PlayScript的三个隐式Token，其他类型的编号都小3
+        Lexer common = new CommonLexer(CharStreams.fromString(script));
+        common.removeErrorListeners();
+        StringBuilder expected = new StringBuilder();
+        for (Token token : common.getAllTokens()) {
+            expected.append(token.getType()).append(' ').append(token.getText()).append('\n');
+        }
+        StringBuilder actual = new StringBuilder();
+        FastCommonLexer.INSTANCE.scan(script, 0, script.length(), (type, start, end) -> {
+            int commonType = type <= PlayScriptLexer.T__2 ? CommonLexer.Identifier : type - 3;
+            actual.append(commonType).append(' ').append(script, start, end).append('\n');
+        });
+        assertEquals(expected.toString(), actual.toString(), script);
+    }
+
+    /**
+     * ANTLR词法解析器产生的全部Token
+     */
+    private static String describe(Lexer lexer) {
+        lexer.removeErrorListeners();
+        StringBuilder sb = new StringBuilder();
+        for (Token token : lexer.getAllTokens()) {
+            sb.append(token.getType()).append(' ').append(token.getText())
+                    .append(" channel ").append(token.getChannel()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String describe(Token token) {
+        return token.getType() + " " + token.getText() + " channel " + token.getChannel()
+                + " [" + token.getStartIndex() + ", " + token.getStopIndex() + "] "
+                + token.getLine() + ":" + token.getCharPositionInLine();
+    }
+}
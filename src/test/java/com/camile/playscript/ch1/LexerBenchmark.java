@@ -0,0 +1,287 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.TokenReader;
+import com.camile.playscript.TokenType;
+import com.camile.playscript.ch4.CommonLexer;
+import com.camile.playscript.ch4.CommonLexerDfa;
+import com.camile.playscript.ch4.HelloDfa;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Token;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 对比SimpleLexer、ANTLR生成的Hello和CommonLexer，以及LexerGenerator由同样的.g4生成的HelloDfa和CommonLexerDfa：
+ * 每秒解析的Token数、每个Token分配的字节数、得到第一个Token的时间。
+ * 语料是按hello.play的风格随机生成的脚本，大小可以指定。
+ * 测量之前先在两者共有的Token类型上逐个核对，结果不一致就不测了。
+ * 不是单元测试，直接运行main方法：
+ * <p>
+ * java -cp target/classes:target/test-classes:antlr4-runtime-4.7.1.jar com.camile.playscript.ch1.LexerBenchmark [MB]
+ */
+public class LexerBenchmark {
+
+    //不与任何关键字重名
+    private static final String[] NAMES = {"age", "count", "total", "name", "value", "sum", "limit", "index", "x", "y"};
+
+    private static final String[] RELATIONS = {">", ">=", "<", "<="};
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        String corpus = corpus(new Random(1), megabytes << 20);
+        System.out.printf("corpus %d MB, %d shared tokens are identical%n", megabytes, checkEquivalence(corpus));
+
+        Constructor<?> hello = hello();
+        run("SimpleLexer.tokenize", corpus, code -> {
+            TokenReader tokens = SimpleLexer.INSTANCE.tokenize(code);
+            return () -> tokens.read() != null;
+        });
+        run("StreamingLexer", corpus, code -> {
+            StreamingLexer lexer = new StreamingLexer(new StringReader(code));
+            return () -> lexer.nextToken() != null;
+        });
+        run("Hello (ANTLR)", corpus, code -> {
+            Lexer lexer = (Lexer) hello.newInstance(CharStreams.fromString(code));
+            lexer.removeErrorListeners();
+            return () -> lexer.nextToken().getType() != Token.EOF;
+        });
+        run("CommonLexer (ANTLR)", corpus, code -> {
+            Lexer lexer = new CommonLexer(CharStreams.fromString(code));
+            lexer.removeErrorListeners();
+            return () -> lexer.nextToken().getType() != Token.EOF;
+        });
+
+        //下面几个是推送式的，一次扫描整段文本，每个Token回调一次
+        run("SimpleLexer.scan", corpus, (code, sink) -> SimpleLexer.INSTANCE.scan(code, 0, code.length(),
+                (type, start, end) -> sink.run()));
+        run("HelloDfa", corpus, (code, sink) -> HelloDfa.INSTANCE.scan(code, 0, code.length(),
+                (type, start, end) -> sink.run()));
+        run("CommonLexerDfa", corpus, (code, sink) -> CommonLexerDfa.INSTANCE.scan(code, 0, code.length(),
+                (type, start, end) -> sink.run()));
+    }
+
+    /**
+     * 按hello.play的风格生成脚本：变量声明、赋值、带比较的if语句、printf调用
+     *
+     * @param random
+     * @param size   至少生成的字符数
+     * @return
+     */
+    static String corpus(Random random, int size) {
+        StringBuilder sb = new StringBuilder(size + 256);
+        while (sb.length() < size) {
+            String name = NAMES[random.nextInt(NAMES.length)] + random.nextInt(100);
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.append("int ").append(name).append(" = ").append(random.nextInt(1000)).append(";\n");
+                    break;
+                case 1:
+                    sb.append(name).append(" = ").append(name).append(" * ").append(random.nextInt(10))
+                            .append(" + ").append(NAMES[random.nextInt(NAMES.length)]).append(";\n");
+                    break;
+                default:
+                    sb.append("if (").append(name).append(' ').append(RELATIONS[random.nextInt(RELATIONS.length)])
+                            .append(' ').append(random.nextInt(50)).append('+').append(random.nextInt(50)).append("){\n")
+                            .append("  printf(\"Hello ").append(name).append("!\");\n")
+                            .append("}\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 在两者共有的Token类型上逐个对比类型、文本和位置。
+     * Hello独有的Token（字符串字面量、花括号等）所在的范围内，SimpleLexer解析出的Token不参与对比。
+     *
+     * @return 对比过的Token数
+     */
+    static int checkEquivalence(String corpus) throws Exception {
+        Lexer hello = (Lexer) hello().newInstance(CharStreams.fromString(corpus));
+        hello.removeErrorListeners();
+        List<String> expected = new ArrayList<>();
+        List<int[]> skipped = new ArrayList<>();
+        for (Token token = hello.nextToken(); token.getType() != Token.EOF; token = hello.nextToken()) {
+            TokenType type = shared(hello.getVocabulary().getSymbolicName(token.getType()), token.getText());
+            if (type != null) {
+                expected.add(describe(type, token.getText(), token.getStartIndex()));
+            } else {
+                skipped.add(new int[]{token.getStartIndex(), token.getStopIndex() + 1});
+            }
+        }
+
+        List<String> actual = new ArrayList<>();
+        int[] span = {0};
+        SimpleLexer.INSTANCE.scan(corpus, 0, corpus.length(), (type, start, end) -> {
+            while (span[0] < skipped.size() && skipped.get(span[0])[1] <= start) {
+                span[0]++;
+            }
+            if (span[0] < skipped.size() && skipped.get(span[0])[0] <= start) {
+                return;
+            }
+            //Hello只认识if和int两个关键字，其他关键字都是标识符
+            boolean keyword = type.ordinal() >= TokenType.If.ordinal() && type.ordinal() <= TokenType.While.ordinal();
+            if (keyword && type != TokenType.If && type != TokenType.Int) {
+                type = TokenType.Identifier;
+            }
+            actual.add(describe(type, corpus.substring(start, end), start));
+        });
+
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            if (!expected.get(i).equals(actual.get(i))) {
+                throw new IllegalStateException("token " + i + " differs: Hello " + expected.get(i) + ", SimpleLexer " + actual.get(i));
+            }
+        }
+        if (expected.size() != actual.size()) {
+            throw new IllegalStateException("Hello has " + expected.size() + " shared tokens, SimpleLexer has " + actual.size());
+        }
+        return expected.size();
+    }
+
+    /**
+     * Hello的Token类型对应的TokenType，不是两者共有的类型返回null
+     */
+    private static TokenType shared(String name, String text) {
+        switch (name) {
+            case "Id":
+                return TokenType.Identifier;
+            case "AssignmentOP":
+                return TokenType.Assignment;
+            case "RelationalOP":
+                return text.equals(">=") ? TokenType.GE : text.equals(">") ? TokenType.GT
+                        : text.equals("<=") ? TokenType.LE : TokenType.LT;
+            case "If":
+            case "Int":
+            case "IntLiteral":
+            case "Star":
+            case "Plus":
+            case "SemiColon":
+            case "LeftParen":
+            case "RightParen":
+                return TokenType.valueOf(name);
+            default:
+                return null;
+        }
+    }
+
+    private static String describe(TokenType type, String text, int start) {
+        return type + " " + text + " @" + start;
+    }
+
+    /**
+     * Hello在默认包中，只能通过反射创建
+     */
+    private static Constructor<?> hello() throws Exception {
+        return Class.forName("Hello").getConstructor(CharStream.class);
+    }
+
+    /**
+     * 在corpus上开始解析，返回读取下一个Token的方法，读完了返回false
+     */
+    private interface Subject {
+        BooleanSupplier open(String corpus) throws Exception;
+    }
+
+    /**
+     * 扫描corpus，每个Token调用一次sink
+     */
+    private interface Scanner {
+        void scan(String corpus, Runnable sink);
+    }
+
+    /**
+     * 在第一个Token处停止扫描。只有一个实例，也不记录调用栈
+     */
+    private static final RuntimeException STOP = new RuntimeException(null, null, false, false) {
+    };
+
+    /**
+     * 把推送式的扫描包装成Subject：open()扫描整段文本并计数，再逐个交出。
+     * 计时的是整个扫描，与拉取式的一样；第一个Token的时间用扫描到第一个Token就停止来测量，见firstToken()
+     */
+    private static void run(String name, String corpus, Scanner scanner) throws Exception {
+        run(name, corpus, code -> {
+            long[] count = {0};
+            scanner.scan(code, () -> count[0]++);
+            return () -> count[0]-- > 0;
+        }, code -> {
+            try {
+                scanner.scan(code, () -> {
+                    throw STOP;
+                });
+            } catch (RuntimeException e) {
+                if (e != STOP) {
+                    throw e;
+                }
+            }
+        });
+    }
+
+    private static void run(String name, String corpus, Subject subject) throws Exception {
+        run(name, corpus, subject, code -> subject.open(code).getAsBoolean());
+    }
+
+    /**
+     * 只读取第一个Token
+     */
+    private interface FirstToken {
+        void read(String corpus) throws Exception;
+    }
+
+    private static void run(String name, String corpus, Subject subject, FirstToken first) throws Exception {
+        //先预热，再取多次运行中最快的一次
+        long best = Long.MAX_VALUE;
+        long tokens = 0;
+        for (int i = 0; i < 10; i++) {
+            long begin = System.nanoTime();
+            BooleanSupplier next = subject.open(corpus);
+            tokens = 0;
+            while (next.getAsBoolean()) {
+                tokens++;
+            }
+            long elapsed = System.nanoTime() - begin;
+            if (i >= 3) {
+                best = Math.min(best, elapsed);
+            }
+        }
+
+        long firstToken = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long begin = System.nanoTime();
+            first.read(corpus);
+            firstToken = Math.min(firstToken, System.nanoTime() - begin);
+        }
+
+        double seconds = best / 1e9;
+        System.out.printf("%-22s %7.2f M tokens/s  %8.1f MB/s  %8s bytes/token  first token %8.3f ms%n",
+                name, tokens / seconds / 1e6, corpus.length() / (1024.0 * 1024.0) / seconds,
+                allocatedPerToken(corpus, subject, tokens), firstToken / 1e6);
+    }
+
+    /**
+     * 完整解析一遍期间当前线程分配的字节数，平均到每个Token。
+     * 需要HotSpot的com.sun.management.ThreadMXBean，没有的话返回n/a
+     */
+    private static String allocatedPerToken(String corpus, Subject subject, long tokens) throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return "n/a";
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        BooleanSupplier next = subject.open(corpus);
+        while (next.getAsBoolean()) {
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        return String.format("%.1f", (double) allocated / tokens);
+    }
+}
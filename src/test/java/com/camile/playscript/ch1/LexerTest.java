@@ -1,8 +1,30 @@
 package com.camile.playscript.ch1;
 
 
+import com.camile.playscript.Token;
+import com.camile.playscript.TokenReader;
+import com.camile.playscript.TokenType;
 import org.junit.jupiter.api.Test;
 
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 public class LexerTest {
 
     @Test
@@ -38,4 +60,488 @@ public class LexerTest {
         tokenReader = lexer.tokenize(script);
         lexer.dump(tokenReader);
     }
+
+    @Test
+    public void testScanOnSource() {
+        SimpleLexer lexer = new SimpleLexer();
+        String[] scripts = {"int age = 45;", "inta age = 45;", "int\nb=2*(3+c);", "age >= 45;", "x int"};
+        for (String script : scripts) {
+            String expected = text(lexer.tokenize(script));
+
+            //直接在StringBuilder上解析
+            assertEquals(expected, text(lexer.tokenize(new StringBuilder(script))));
+
+            //在字符数组的一段上解析
+            char[] buf = ("##" + script + "##").toCharArray();
+            assertEquals(expected, text(lexer.tokenize(buf, 2, script.length())));
+        }
+    }
+
+    @Test
+    public void testTableRules() {
+        SimpleLexer lexer = new SimpleLexer();
+        assertEquals("Identifier LE Identifier EQ Identifier LT IntLiteral GT IntLiteral GE IntLiteral ",
+                types(lexer.tokenize("a<=b==c<1>2>=3")));
+        //int后面不管跟着什么非标识符字符，都是关键字
+        assertEquals("Int SemiColon Int Identifier ", types(lexer.tokenize("int;int intx")));
+    }
+
+    @Test
+    public void testKeywords() {
+        SimpleLexer lexer = new SimpleLexer();
+        assertEquals("If Else While Return Instanceof Identifier Identifier Identifier Identifier ",
+                types(lexer.tokenize("if else while return instanceof i iff elsewhere Int")));
+    }
+
+    @Test
+    public void testBaseline() {
+        SimpleLexer lexer = new SimpleLexer();
+        BaselineLexer baseline = new BaselineLexer();
+        //最初的测试用例，结果必须和最初的状态机一模一样
+        String[] scripts = {"int age = 45;", "inta age = 45;", "in age = 45;", "age >= 45;", "age > 45;",
+                "int\nb=2*(3+c);", "x int\t", "i in int9 intx >=> = 007 -a/b #é\r\n"};
+        for (String script : scripts) {
+            assertEquals(text(baseline.tokenize(script)), text(lexer.tokenize(script)), script);
+        }
+
+        //随机拼接的脚本，跳过testBaselineDivergences()列出的有意的差异之后，结果必须一致
+        Random random = new Random(13);
+        String[] parts = {"age", "i", "in", "int", "inta", "x9", "elsewhere", "42", "0", " ", "\t", "\n", "\r",
+                ">", ">=", "=", "+", "-", "*", "/", ";", "(", ")", "#", "é", "_"};
+        int compared = 0;
+        for (int n = 0; n < 2000; n++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = random.nextInt(30); i > 0; i--) {
+                sb.append(parts[random.nextInt(parts.length)]);
+            }
+            String script = sb.toString();
+            String expected = text(baseline.tokenize(script));
+            if (diverges(script, baseline.tokenize(script))) {
+                continue;
+            }
+            assertEquals(expected, text(lexer.tokenize(script)), script);
+            compared++;
+        }
+        assertTrue(compared > 500, "compared " + compared);
+    }
+
+    /**
+     * 与最初的状态机（BaselineLexer）相比，所有有意修改了的行为。每一条给出最初的结果和现在的结果。
+     */
+    @Test
+    public void testBaselineDivergences() {
+        SimpleLexer lexer = new SimpleLexer();
+        BaselineLexer baseline = new BaselineLexer();
+        String[][] cases = {
+                //int后面不管跟着什么非标识符字符都是关键字。
+                //原来必须是空格、制表符或换行，否则int连同后面那个字符（以及再后面的字母和数字）一起成了标识符
+                {"int;", "Identifier int;\n", "Int int\nSemiColon ;\n"},
+                {"int(x)", "Identifier int(x\nRightParen )\n",
+                        "Int int\nLeftParen (\nIdentifier x\nRightParen )\n"},
+                {"int\r\n", "Identifier int\r\n", "Int int\n"},
+                //脚本末尾的int也是关键字，原来是标识符
+                {"x int", "Identifier x\nIdentifier int\n", "Identifier x\nInt int\n"},
+                //支持<、<=和==，原来<被跳过，==是两个赋值号
+                {"a<b", "Identifier a\nIdentifier b\n", "Identifier a\nLT <\nIdentifier b\n"},
+                {"a<=b", "Identifier a\nAssignment =\nIdentifier b\n", "Identifier a\nLE <=\nIdentifier b\n"},
+                {"a==b", "Identifier a\nAssignment =\nAssignment =\nIdentifier b\n", "Identifier a\nEQ ==\nIdentifier b\n"},
+                //if、else等关键字，原来除了int之外都是标识符
+                {"if else", "Identifier if\nIdentifier else\n", "If if\nElse else\n"},
+        };
+        for (String[] c : cases) {
+            assertEquals(c[1], text(baseline.tokenize(c[0])), c[0]);
+            assertEquals(c[2], text(lexer.tokenize(c[0])), c[0]);
+            assertTrue(diverges(c[0], baseline.tokenize(c[0])));
+        }
+    }
+
+    /**
+     * 是否涉及testBaselineDivergences()中列出的差异
+     */
+    private boolean diverges(String script, TokenReader baselineTokens) {
+        if (script.contains("<") || script.contains("==")) {
+            return true;
+        }
+        Token token;
+        while ((token = baselineTokens.read()) != null) {
+            String text = token.getText();
+            if (token.getType() == TokenType.Identifier && (!text.matches("[A-Za-z][A-Za-z0-9]*")
+                    || Keywords.lookup(text, 0, text.length()) != TokenType.Identifier)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testStreaming() {
+        SimpleLexer lexer = new SimpleLexer();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("int averyveryverylongidentifier").append(i).append(" = ").append(i * 12345).append(";\n");
+            sb.append("if (a >= b) x = x*2 + (y-1)/3;\t");
+        }
+        String script = sb.toString();
+        String expected = text(lexer.tokenize(script));
+
+        //缓冲区比一些Token还短，需要跨缓冲区拼接和扩大缓冲区
+        TokenReader tokens = new StreamingTokenReader(new StreamingLexer(new StringReader(script), 16));
+        assertEquals(expected, text(tokens));
+        assertEquals(expected, text(lexer.tokenize(new StringReader(script))));
+
+        //直接在源代码上分段解析，段的长度不管在哪里结束，结果都一样
+        for (int chunkSize : new int[]{1, 7, 64, 4096}) {
+            StringBuilder source = new StringBuilder(script);
+            TokenReader chunked = new StreamingTokenReader(new ChunkedLexer(source, chunkSize, SymbolTable.GLOBAL));
+            assertEquals(expected, text(chunked), "chunk size " + chunkSize);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new ChunkedLexer(script, 0, SymbolTable.GLOBAL));
+    }
+
+    @Test
+    public void testRingBuffer() {
+        SimpleLexer lexer = new SimpleLexer();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("int a").append(i).append(" = ").append(i).append(";\n");
+        }
+        String script = sb.toString();
+        TokenReader all = new RingBufferTokenReader(new StreamingLexer(new StringReader(script)), 8);
+        assertEquals(text(lexer.tokenize(script)), text(all));
+        assertEquals(null, all.peek());
+
+        //嵌套的标记：int a0 = 0; int a1 ...
+        RingBufferTokenReader tokens = new RingBufferTokenReader(new StreamingLexer(new StringReader(script)), 8);
+        tokens.read();
+        int outer = tokens.mark();
+        tokens.read();
+        tokens.read();
+        int inner = tokens.mark();
+        tokens.read();
+        tokens.reset(inner);
+        assertEquals("0", tokens.read().getText());
+        assertThrows(IllegalStateException.class, () -> tokens.release(outer));
+        tokens.release(inner);
+        tokens.reset(outer);
+        assertEquals("a0", tokens.read().getText());
+
+        //标记之后的Token超过了缓冲区的容量
+        assertThrows(IllegalStateException.class, () -> {
+            for (int i = 0; i < tokens.getCapacity(); i++) {
+                tokens.read();
+            }
+        });
+        tokens.release(outer);
+
+        //没有标记以后，早先的Token被覆盖
+        for (int i = 0; i < 100; i++) {
+            tokens.read();
+        }
+        assertThrows(IllegalStateException.class, () -> tokens.setPosition(outer));
+
+        //序号超过2^31以后，位置和标记变成负数，仍然可以回到原来的位置
+        RingBufferTokenReader wrapped = new RingBufferTokenReader(
+                new StreamingLexer(new StringReader(script)), 8, Integer.MAX_VALUE - 2L);
+        int before = wrapped.mark();
+        for (int i = 0; i < 5; i++) {
+            wrapped.read();
+        }
+        int after = wrapped.getPosition();
+        assertTrue(after < 0);
+        assertEquals(5, after - before);
+        wrapped.reset(before);
+        assertEquals("int", wrapped.read().getText());
+        wrapped.setPosition(after);
+        assertEquals("int", wrapped.read().getText());
+        assertEquals("a1", wrapped.read().getText());
+        wrapped.release(before);
+        for (int i = 0; i < 100; i++) {
+            wrapped.read();
+        }
+        assertThrows(IllegalStateException.class, () -> wrapped.setPosition(after));
+
+        //StreamingTokenReader的标记在release()之前一直保留，之后早先的Token被丢弃
+        StreamingTokenReader streaming = new StreamingTokenReader(new StreamingLexer(new StringReader(script)));
+        int marker = streaming.mark();
+        for (int i = 0; i < 1000; i++) {
+            streaming.read();
+        }
+        streaming.reset(marker);
+        assertEquals("int", streaming.read().getText());
+        assertThrows(IllegalStateException.class, () -> streaming.release(marker + 1));
+        streaming.release(marker);
+        for (int i = 0; i < 1000; i++) {
+            streaming.read();
+        }
+        assertThrows(IllegalStateException.class, () -> streaming.reset(marker));
+
+        //可以回到流的末尾
+        SimpleTokenReader simple = lexer.tokenize("a;");
+        simple.setPosition(2);
+        assertEquals(null, simple.peek());
+        simple.unread();
+        assertEquals(TokenType.SemiColon, simple.read().getType());
+    }
+
+    @Test
+    public void testTokenBuffer() {
+        SimpleLexer lexer = new SimpleLexer();
+        String script = "int age = 45;\nage = (age+1)*2 >= 90;";
+        TokenBuffer buffer = lexer.tokenizeToBuffer(script);
+        assertEquals(text(lexer.tokenize(script)), text(buffer));
+        assertEquals(17, buffer.size());
+
+        //回溯只是改下标，包括回到流的末尾
+        buffer.setPosition(4);
+        assertEquals("SemiColon ;", buffer.peek().getType() + " " + buffer.peek().getText());
+        buffer.setPosition(buffer.size());
+        assertEquals(null, buffer.peek());
+        buffer.unread();
+        assertEquals(TokenType.SemiColon, buffer.read().getType());
+
+        //修改源代码之前读出的Token不受修改的影响
+        IncrementalLexer incremental = new IncrementalLexer(script);
+        Token age = incremental.getTokens().get(1);
+        Token number = incremental.getTokens().get(3);
+        incremental.edit(4, 3, "height");
+        incremental.edit(0, 0, "  ");
+        assertEquals("Identifier age 4", age.getType() + " " + age.getText() + " " + age.getOffset());
+        assertEquals(SymbolTable.GLOBAL.intern("age"), age.getSymbol());
+        assertEquals("IntLiteral 45 10", number.getType() + " " + number.getText() + " " + number.getOffset());
+        assertEquals("height", incremental.getTokens().get(1).getText());
+    }
+
+    @Test
+    public void testMappedFile() throws Exception {
+        SimpleLexer lexer = new SimpleLexer();
+        String script = "int age = 45;\nif (age >= 17+8+20){\n  printf(\"Hello 老人家!\");\n}\nwhile x<=123456789 else";
+        Path file = Files.createTempFile("lexer", ".play");
+        try {
+            Files.write(file, script.getBytes(StandardCharsets.UTF_8));
+            String expected = text(lexer.tokenize(script));
+            assertEquals(expected, text(new MappedFileLexer().tokenize(file)));
+
+            //很小的段，Token会跨越段的边界
+            for (int segmentSize = 1; segmentSize < 8; segmentSize++) {
+                assertEquals(expected, text(new MappedFileLexer(segmentSize).tokenize(file)));
+            }
+
+            //空文件没有映射任何段
+            Files.write(file, new byte[0]);
+            assertEquals(0, new MappedFileLexer().tokenize(file).size());
+            assertEquals(0, new MappedFileLexer(1).tokenize(file).size());
+        } finally {
+            Files.delete(file);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> new MappedFileLexer(0));
+        assertThrows(IllegalArgumentException.class, () -> new MappedFileLexer(-1, false));
+    }
+
+    @Test
+    public void testSwarScan() {
+        SimpleLexer lexer = new SimpleLexer();
+        Random random = new Random(7);
+        String[] parts = {"abcdefghijklmnopq", "Xy9", "1234567890123", "0", "    ", "\t\r\n", " ", "int", "while",
+                ">=", "=", "==", ";", "(", ")", "+", "é", "#", "aVeryLongIdentifierName42"};
+        for (int n = 0; n < 200; n++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = random.nextInt(40); i > 0; i--) {
+                sb.append(parts[random.nextInt(parts.length)]);
+            }
+            String script = sb.toString();
+            ByteBuffer bytes = ByteBuffer.wrap(script.getBytes(StandardCharsets.UTF_8));
+            String expected = text(lexer.tokenize(script));
+            assertEquals(expected, text(new MappedFileLexer().tokenize(bytes)));
+            assertEquals(expected, text(new MappedFileLexer(1 << 30, false).tokenize(bytes)));
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        SimpleLexer lexer = new SimpleLexer();
+        Random random = new Random(11);
+        String[] parts = {"counter", "x1", "42", "  ", "\n", "int", "if", ">=", "<", "=", "==", ";", "(", ")", "*", "é", "#"};
+        for (int n = 0; n < 100; n++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = random.nextInt(400); i > 0; i--) {
+                sb.append(parts[random.nextInt(parts.length)]);
+            }
+            String script = sb.toString();
+            TokenBuffer expected = lexer.tokenizeToBuffer(script);
+            //很小的块，让切分点尽量多
+            TokenBuffer actual = new ParallelLexer(ForkJoinPool.commonPool(), 1 + random.nextInt(16)).tokenize(script);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.getType(i), actual.getType(i));
+                assertEquals(expected.getStart(i), actual.getStart(i));
+                assertEquals(expected.getEnd(i), actual.getEnd(i));
+            }
+        }
+    }
+
+    @Test
+    public void testSymbols() throws Exception {
+        SimpleLexer lexer = new SimpleLexer();
+        Token first = lexer.tokenize("total = total + rate;").read();
+        //流式解析出的标识符也驻留在同一个符号表中
+        TokenReader tokens = lexer.tokenize(new StringReader("int total;"));
+        tokens.read();
+        Token second = tokens.read();
+        assertEquals(TokenType.Identifier, second.getType());
+        assertEquals(first.getSymbol(), second.getSymbol());
+        assertSame(first.getText(), second.getText());
+        assertEquals("total", SymbolTable.GLOBAL.nameOf(first.getSymbol()));
+
+        //TokenBuffer和SimpleLexer得到同样的编号
+        TokenBuffer buffer = lexer.tokenizeToBuffer("rate total");
+        assertEquals(first.getSymbol(), buffer.get(1).getSymbol());
+        assertEquals(-1, lexer.tokenize("42").read().getSymbol());
+
+        //多个线程同时驻留同一批名字，得到的编号一致
+        int threads = 8;
+        int[][] ids = new int[threads][1000];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int[] row = ids[t];
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = SymbolTable.GLOBAL.intern("name" + i);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        for (int i = 0; i < 1000; i++) {
+            for (int t = 1; t < threads; t++) {
+                assertEquals(ids[0][i], ids[t][i]);
+            }
+            assertEquals("name" + i, SymbolTable.GLOBAL.nameOf(ids[0][i]));
+        }
+    }
+
+    @Test
+    public void testScopedSymbols() throws Exception {
+        //每个会话用自己的符号表，编号从0开始，与GLOBAL和别的会话无关
+        SymbolTable session = new SymbolTable(3);
+        SimpleLexer lexer = new SimpleLexer(session);
+        TokenBuffer buffer = lexer.tokenizeToBuffer("total = rate * total + 1;");
+        assertEquals(0, buffer.get(0).getSymbol());
+        assertEquals(1, buffer.get(2).getSymbol());
+        assertEquals(0, buffer.get(4).getSymbol());
+        assertEquals(2, session.size());
+        assertEquals(2, lexer.tokenize(new StringReader("x rate")).read().getSymbol());
+        assertEquals(2, new ParallelLexer(ForkJoinPool.commonPool(), 1, session).tokenize("rate x").get(1).getSymbol());
+        assertEquals(3, session.size());
+
+        //超过上限时解析失败，已经驻留的名字不受影响
+        assertThrows(IllegalStateException.class, () -> lexer.tokenize("total e"));
+        assertEquals(3, session.size());
+        assertEquals("rate", session.nameOf(1));
+        assertThrows(IllegalArgumentException.class, () -> new SymbolTable(0));
+
+        //在旧的31*h哈希下全部冲突的名字，照样各自得到不同的编号
+        SymbolTable table = new SymbolTable();
+        String[] blocks = {"Aa", "BB"};
+        for (int n = 0; n < 1 << 12; n++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 12; i++) {
+                sb.append(blocks[n >> i & 1]);
+            }
+            assertEquals(n, table.intern(sb.toString()));
+            assertEquals(n, table.intern(sb, 0, sb.length()));
+        }
+    }
+
+    @Test
+    public void testOffsets() {
+        String script = "int age = 45;\n\nage = age + 1;\r\n  total;";
+        LineIndex lines = new LineIndex(script);
+        assertEquals(4, lines.getLineCount());
+        assertEquals(1, lines.getLine(0));
+        assertEquals(1, lines.getLine(13));
+        assertEquals(2, lines.getLine(14));
+        assertEquals(3, lines.getLine(15));
+        assertEquals(4, lines.getLine(script.indexOf("total")));
+        assertEquals(3, lines.getColumn(script.indexOf("total")));
+
+        //流式解析的偏移量跨越了缓冲区的边界，与整体解析一致
+        SimpleLexer lexer = new SimpleLexer();
+        TokenReader expected = lexer.tokenize(script);
+        TokenReader streaming = new StreamingTokenReader(new StreamingLexer(new StringReader(script), 16));
+        TokenBuffer buffer = lexer.tokenizeToBuffer(script);
+        Token token;
+        while ((token = expected.read()) != null) {
+            assertEquals(script.indexOf(token.getText(), token.getOffset()), token.getOffset());
+            assertEquals(token.getOffset(), streaming.read().getOffset());
+            assertEquals(token.getOffset(), buffer.read().getOffset());
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        Random random = new Random(3);
+        String[] parts = {"int ", "age", "a1", " = ", "45", "+", "*", "(", ")", ";\n", ">=", "==", "while", " "};
+        String[] scripts = new String[64];
+        String[] expected = new String[scripts.length];
+        for (int n = 0; n < scripts.length; n++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 200 + random.nextInt(200); i > 0; i--) {
+                sb.append(parts[random.nextInt(parts.length)]);
+            }
+            scripts[n] = sb.toString();
+            expected[n] = text(new SimpleLexer().tokenize(scripts[n]));
+        }
+
+        //所有线程共用同一个实例，同时解析
+        SimpleLexer lexer = SimpleLexer.INSTANCE;
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch ready = new CountDownLatch(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            futures.add(executor.submit(() -> {
+                ready.countDown();
+                ready.await();
+                Random order = new Random(seed);
+                for (int i = 0; i < 200; i++) {
+                    int n = order.nextInt(scripts.length);
+                    String script = scripts[n];
+                    assertEquals(expected[n], text(lexer.tokenize(script)));
+                    assertEquals(expected[n], text(lexer.tokenize(script.toCharArray(), 0, script.length())));
+                    assertEquals(expected[n], text(lexer.tokenizeToBuffer(script)));
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private String types(TokenReader tokens) {
+        StringBuilder sb = new StringBuilder();
+        Token token;
+        while ((token = tokens.read()) != null) {
+            sb.append(token.getType()).append(' ');
+        }
+        return sb.toString();
+    }
+
+    private String text(TokenReader tokens) {
+        StringBuilder sb = new StringBuilder();
+        Token token;
+        while ((token = tokens.read()) != null) {
+            sb.append(token.getType()).append(' ').append(token.getText()).append('\n');
+        }
+        return sb.toString();
+    }
 }
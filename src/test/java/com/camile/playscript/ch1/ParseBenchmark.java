@@ -0,0 +1,112 @@
+package com.camile.playscript.ch1;
+
+import com.camile.playscript.Token;
+import com.camile.playscript.TokenReader;
+import com.camile.playscript.ch3.SimpleParser;
+
+/**
+ * SimpleParser在不同语句构成下的速度，以及平均每个Token被read()了几次。
+ * 赋值语句以标识符开头，选错分支就要回溯重新解析，read()的次数能直接看出有没有重复解析。
+ * 不是单元测试，直接运行main方法：
+ * <p>
+ * java -cp target/classes:target/test-classes com.camile.playscript.ch1.ParseBenchmark [MB]
+ */
+public class ParseBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+
+        String[] names = {"assignment-heavy", "expression-heavy", "declaration-heavy"};
+        String[] corpora = {
+                corpus(megabytes, "total = total + price * count;\nbalance = (balance - fee) * rate / 100;\n"),
+                corpus(megabytes, "total + price * count;\n(balance - fee) * rate / 100;\n"),
+                corpus(megabytes, "int total = price * count;\nint balance = (balance - fee) * rate / 100;\n")};
+        //所有场景先整体跑一遍，免得排在前面的场景吃亏
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < names.length; i++) {
+                run(names[i], corpora[i], round > 0);
+            }
+        }
+    }
+
+    private static String corpus(int megabytes, String lines) {
+        StringBuilder sb = new StringBuilder(megabytes << 20);
+        while (sb.length() < megabytes << 20) {
+            sb.append(lines);
+        }
+        return sb.toString();
+    }
+
+    private static void run(String name, String corpus, boolean print) throws Exception {
+        SimpleParser parser = new SimpleParser();
+        TokenBuffer tokens = SimpleLexer.INSTANCE.tokenizeToBuffer(corpus);
+
+        //先预热，再取多次运行中最快的一次，只计语法解析的时间
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 15; i++) {
+            tokens.setPosition(0);
+            long begin = System.nanoTime();
+            parser.parse(tokens);
+            long elapsed = System.nanoTime() - begin;
+            if (i >= 5) {
+                best = Math.min(best, elapsed);
+            }
+        }
+
+        tokens.setPosition(0);
+        CountingTokenReader counting = new CountingTokenReader(tokens);
+        parser.parse(counting);
+
+        if (!print) {
+            return;
+        }
+        double seconds = best / 1e9;
+        System.out.printf("%-18s %7.2f M tokens/s  %7.1f MB/s  %.2f reads/token%n",
+                name, tokens.size() / seconds / 1e6, corpus.length() / (1024.0 * 1024.0) / seconds,
+                (double) counting.reads / tokens.size());
+    }
+
+    /**
+     * 记录read()被调用的次数
+     */
+    static class CountingTokenReader implements TokenReader {
+        private final TokenReader tokens;
+
+        long reads = 0;
+
+        CountingTokenReader(TokenReader tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public Token read() {
+            reads++;
+            return tokens.read();
+        }
+
+        @Override
+        public Token peek() {
+            return tokens.peek();
+        }
+
+        @Override
+        public Token peek(int k) {
+            return tokens.peek(k);
+        }
+
+        @Override
+        public void unread() {
+            tokens.unread();
+        }
+
+        @Override
+        public int getPosition() {
+            return tokens.getPosition();
+        }
+
+        @Override
+        public void setPosition(int position) {
+            tokens.setPosition(position);
+        }
+    }
+}
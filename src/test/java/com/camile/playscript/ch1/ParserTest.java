@@ -2,9 +2,38 @@ package com.camile.playscript.ch1;
 
 
 import com.camile.playscript.ASTNode;
+import com.camile.playscript.TokenReader;
+import com.camile.playscript.ch2.SimpleCalculator;
+import com.camile.playscript.ch3.Diagnostics;
+import com.camile.playscript.ch3.FlatAST;
+import com.camile.playscript.ch3.HashConsBuilder;
+import com.camile.playscript.ch3.IncrementalParser;
+import com.camile.playscript.ch3.ParseCache;
+import com.camile.playscript.ch3.ScriptException;
 import com.camile.playscript.ch3.SimpleParser;
+import com.camile.playscript.ch3.SimpleScript;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 public class ParserTest {
 
     @Test
@@ -44,4 +73,681 @@ public class ParserTest {
         }
 
     }
+
+    @Test
+    public void testStreaming() throws Exception {
+        SimpleParser parser = new SimpleParser();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("int a").append(i).append(" = ").append(i).append("+2*3;\n");
+            sb.append("a").append(i).append(" = a").append(i).append(" * (a").append(i).append(" - 1);\n");
+            sb.append("a").append(i).append(" + 10;\n");
+        }
+        String script = sb.toString();
+
+        ASTNode expected = parser.parse(script);
+        ASTNode actual = parser.parse(new SimpleLexer().tokenize(new StringReader(script)));
+        assertEquals(tree(expected), tree(actual));
+
+        actual = parser.parse(new SimpleLexer().tokenizeToBuffer(script));
+        assertEquals(tree(expected), tree(actual));
+
+        //表达式语句回溯时最多退回十几个Token，16个位置的环形缓冲区就够了
+        actual = parser.parse(new RingBufferTokenReader(new StreamingLexer(new StringReader(script), 16), 16));
+        assertEquals(tree(expected), tree(actual));
+    }
+
+    @Test
+    public void testPipelined() throws Exception {
+        SimpleParser parser = new SimpleParser();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("int a").append(i).append(" = ").append(i).append("+2*3;\n");
+            sb.append("a").append(i).append(" = a").append(i).append(" * (a").append(i).append(" - 1);\n");
+        }
+        String script = sb.toString();
+        String expected = tree(parser.parse(script));
+
+        assertEquals(expected, tree(parser.parsePipelined(script)));
+
+        //批次小、队列短，两个线程会频繁地互相等待
+        try (PipelinedLexer lexer = new PipelinedLexer(script, 7, 2)) {
+            assertEquals(expected, tree(parser.parse(lexer.reader())));
+        }
+        try (PipelinedLexer lexer = new PipelinedLexer(new StringReader(script), 5, 1)) {
+            assertEquals(expected, tree(parser.parse(lexer.reader())));
+            assertNull(lexer.nextToken());
+        }
+
+        //语法错误时Parser提前结束，正在等待的词法解析线程也会结束
+        ScriptException error = assertThrows(ScriptException.class,
+                () -> parser.parsePipelined("int a = 1;\nb = 2 +;\n" + script));
+        assertEquals("invalid additive expression, expecting the right part. at line 2, column 8", error.getMessage());
+    }
+
+    @Test
+    public void testIncremental() throws Exception {
+        SimpleParser parser = new SimpleParser();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append("int a").append(i).append(" = ").append(i).append("+2*3;\n");
+            sb.append("a").append(i).append(" = (a").append(i).append(" - 1);\n");
+        }
+        IncrementalParser incremental = new IncrementalParser(sb.toString());
+        ASTNode firstStatement = incremental.getAST().getChildren().get(0);
+
+        Random random = new Random(5);
+        String[] parts = {"", "b", "7", "+", "*", " ", "\n", ";", "int c = 1;", "c = c + 1;", "(", ")", "=", "in", "t"};
+        //前2000次只修改后半段，后1000次修改任意位置
+        for (int n = 0; n < 3000; n++) {
+            String script = incremental.getSource().toString();
+            if (n == 2000) {
+                //只修改了后半段，第一条语句一直没有重新解析
+                assertSame(firstStatement, incremental.getAST().getChildren().get(0));
+            }
+            int offset = n < 2000 ? script.length() / 2 + random.nextInt(script.length() / 2 + 1) : random.nextInt(script.length() + 1);
+            int deleted = Math.min(random.nextInt(4), script.length() - offset);
+            String inserted = parts[random.nextInt(parts.length)];
+            String edited = script.substring(0, offset) + inserted + script.substring(offset + deleted);
+
+            //保留下来的语句的偏移量也要与重新解析的一致
+            List<String> expected;
+            try {
+                expected = preorder(parser.parse(edited));
+            } catch (Exception e) {
+                expected = null;
+            }
+            List<String> actual;
+            try {
+                actual = preorder(incremental.edit(offset, deleted, inserted));
+            } catch (Exception e) {
+                actual = null;
+            }
+            assertEquals(expected, actual, edited);
+            assertEquals(types(new SimpleLexer().tokenizeToBuffer(edited)), types(incremental.getTokens()));
+
+            if (actual == null) {
+                //撤销这次修改，回到合法的脚本
+                assertEquals(preorder(parser.parse(script)), preorder(incremental.edit(offset, inserted.length(), script.substring(offset, offset + deleted))));
+            }
+        }
+
+        //在前面插入一条语句，后面保留下来的语句偏移量跟着移动
+        IncrementalParser small = new IncrementalParser("int a = 1;\nint b = 2;\nb = b + 1;\n");
+        ASTNode last = small.getAST().getChildren().get(2);
+        assertEquals(22, last.getOffset());
+        ASTNode edited = small.edit(0, 0, "int zzzzzzzz = 0;\n");
+        assertSame(last, edited.getChildren().get(3));
+        assertEquals(40, last.getOffset());
+        assertEquals(46, last.getChildren().get(0).getOffset());
+        assertEquals(preorder(parser.parse(small.getSource().toString())), preorder(edited));
+
+        //出错之后再修改，两次长度的变化合在一起
+        assertThrows(ScriptException.class, () -> small.edit(0, 0, "int ;"));
+        edited = small.edit(0, 5, "int yy;");
+        assertSame(last, edited.getChildren().get(4));
+        assertEquals(47, last.getOffset());
+        assertEquals(preorder(parser.parse(small.getSource().toString())), preorder(edited));
+    }
+
+    @Test
+    public void testPredictive() throws Exception {
+        SimpleParser parser = new SimpleParser();
+        String script = "int a = 1; a = a + 2 * (a - 1); a * 3; (a); 7; b = c;";
+        TokenBuffer tokens = SimpleLexer.INSTANCE.tokenizeToBuffer(script);
+        ParseBenchmark.CountingTokenReader counting = new ParseBenchmark.CountingTokenReader(tokens);
+        assertEquals(tree(parser.parse(script)), tree(parser.parse(counting)));
+        //每个Token只读一次，没有回溯
+        assertEquals(tokens.size(), counting.reads);
+
+        //不是任何语句的开头，在语句开头报错
+        for (String bad : new String[]{"a; b c;", "a; (b) = 1;", "a; b + 1", "a; ;"}) {
+            ScriptException error = assertThrows(ScriptException.class, () -> parser.parse(bad));
+            assertEquals("unknown statement at line 1, column 4", error.getMessage(), bad);
+        }
+
+        TokenReader[] readers = {
+                SimpleLexer.INSTANCE.tokenize("x = 1;"),
+                SimpleLexer.INSTANCE.tokenizeToBuffer("x = 1;"),
+                new StreamingTokenReader(new StreamingLexer(new StringReader("x = 1;"))),
+                new RingBufferTokenReader(new StreamingLexer(new StringReader("x = 1;")), 8)};
+        for (TokenReader reader : readers) {
+            assertEquals("=", reader.peek(2).getText());
+            assertEquals(";", reader.peek(4).getText());
+            assertNull(reader.peek(5));
+            assertEquals("x", reader.read().getText());
+            assertEquals("1", reader.peek(2).getText());
+        }
+    }
+
+    @Test
+    public void testPrecedence() throws Exception {
+        SimpleParser parser = new SimpleParser();
+        //左结合，乘除优先于加减，括号不产生节点
+        assertEquals("(Programm pwc (Additive - (Additive - (IntLiteral 1) (IntLiteral 2)) (IntLiteral 3)))",
+                tree(parser.parse("1-2-3;")));
+        assertEquals("(Programm pwc (Additive - (Additive + (IntLiteral 1) (Multiplicative * (IntLiteral 2) (IntLiteral 3)))"
+                        + " (Multiplicative / (Multiplicative / (IntLiteral 4) (Identifier a)) (IntLiteral 5))))",
+                tree(parser.parse("1+2*3-4/a/5;")));
+        assertEquals("(Programm pwc (AssignmentStmt a (Multiplicative * (Additive + (IntLiteral 1) (IntLiteral 2)) (IntLiteral 3))))",
+                tree(parser.parse("a = (1+2)*3;")));
+
+        String[][] errors = {
+                {"1 + ;", "invalid additive expression, expecting the right part. at line 1, column 5"},
+                {"1 + * 2;", "invalid additive expression, expecting the right part. at line 1, column 5"},
+                {"1 * 2 / ;", "invalid multiplicative expression, expecting the right part. at line 1, column 9"},
+                {"(* 3);", "expecting an additive expression inside parenthesis at line 1, column 2"},
+                {"(1 + 2;", "expecting right parenthesis at line 1, column 7"}};
+        for (String[] error : errors) {
+            assertEquals(error[1], assertThrows(ScriptException.class, () -> parser.parse(error[0])).getMessage(), error[0]);
+        }
+    }
+
+    @Test
+    public void testDeepNesting() throws Exception {
+        SimpleParser parser = new SimpleParser();
+        int depth = 1000000;
+
+        //括号不产生节点
+        assertEquals("(Programm pwc (IntLiteral 1))", tree(parser.parse(repeat("(", depth) + "1" + repeat(")", depth) + ";")));
+
+        //左结合的长链，AST向左一直延伸
+        ASTNode node = parser.parse(repeat("a+", depth) + "1;").getChildren().get(0);
+        assertEquals(depth, depth(node, 0));
+
+        //右边嵌套的括号，AST向右一直延伸
+        node = parser.parse("b = " + repeat("2*(", depth) + "1" + repeat(")", depth) + ";").getChildren().get(0);
+        assertEquals(depth, depth(node.getChildren().get(0), 1));
+
+        ScriptException error = assertThrows(ScriptException.class, () -> parser.parse(repeat("(", depth) + "1;"));
+        assertEquals("expecting right parenthesis at line 1, column " + (depth + 2), error.getMessage());
+
+        //dumpAST也不递归。输出的缩进是深度的平方级，所以用浅一些的树，放在栈很小的线程上运行
+        ASTNode deep = parser.parse(repeat("a-", 5000) + "1;");
+        int[] lines = {0};
+        PrintStream out = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                if (b == '\n') {
+                    lines[0]++;
+                }
+            }
+        });
+        Throwable[] failure = {null};
+        Thread thread = new Thread(null, () -> {
+            try {
+                parser.dumpAST(deep, "", out);
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, "dump", 64 * 1024);
+        thread.start();
+        thread.join();
+        assertNull(failure[0]);
+        out.flush();
+        assertEquals(1 + 5000 * 2 + 1, lines[0]);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        parser.dumpAST(parser.parse("int a = 1+2*3;"), "", new PrintStream(bytes, true));
+        assertEquals("Programm pwc\n\tIntDeclaration a\n\t\tAdditive +\n\t\t\tIntLiteral 1\n"
+                + "\t\t\tMultiplicative *\n\t\t\t\tIntLiteral 2\n\t\t\t\tIntLiteral 3\n", bytes.toString().replace(System.lineSeparator(), "\n"));
+    }
+
+    @Test
+    public void testDeepEvaluate() throws Exception {
+        SimpleParser parser = new SimpleParser();
+        int depth = 1000000;
+        //1+(1+(1+...))，AST向右一直延伸
+        ASTNode tree = parser.parse("int a = " + repeat("1+(", depth) + "1" + repeat(")", depth) + "; a - 1;");
+        assertEquals(depth, depth(tree.getChildren().get(0).getChildren().get(0), 1));
+
+        //求值和SimpleCalculator.dumpAST()都不递归，放在栈很小的线程上运行。dumpAST()的输出是深度的平方级，用浅一些的树
+        ASTNode dumped = parser.parse(repeat("2*(", 5000) + "a" + repeat(")", 5000) + ";");
+        SimpleScript script = new SimpleScript();
+        Integer[] result = {null};
+        int[] lines = {0};
+        PrintStream out = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                if (b == '\n') {
+                    lines[0]++;
+                }
+            }
+        });
+        Throwable[] failure = {null};
+        Thread thread = new Thread(null, () -> {
+            PrintStream stdout = System.out;
+            System.setOut(out);
+            try {
+                result[0] = script.evaluate(tree);
+                new SimpleCalculator().dumpAST(dumped, "");
+            } catch (Throwable e) {
+                failure[0] = e;
+            } finally {
+                System.setOut(stdout);
+            }
+        }, "evaluate", 64 * 1024);
+        thread.start();
+        thread.join();
+        assertNull(failure[0]);
+        assertEquals(Integer.valueOf(depth), result[0]);
+        out.flush();
+        //两条顶层语句各输出一行
+        assertEquals(2 + 1 + 5000 * 2 + 1, lines[0]);
+
+        //出错的位置与递归求值时相同
+        ScriptException error = assertThrows(ScriptException.class,
+                () -> script.evaluate(parser.parse("b = " + repeat("1+(", 1000) + "c" + repeat(")", 1000) + ";")));
+        assertEquals("unknown variable: b at offset 0", error.getMessage());
+        error = assertThrows(ScriptException.class,
+                () -> script.evaluate(parser.parse("a = " + repeat("1+(", 1000) + "c" + repeat(")", 1000) + ";")));
+        assertEquals("unknown variable: c at offset " + (4 + 3000), error.getMessage());
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 沿着第child个子节点一直往下走，经过的运算符节点数
+     */
+    private static int depth(ASTNode node, int child) {
+        int depth = 0;
+        while (!node.getChildren().isEmpty()) {
+            node = node.getChildren().get(child);
+            depth++;
+        }
+        return depth;
+    }
+
+    @Test
+    public void testFlat() throws Exception {
+        SimpleParser parser = new SimpleParser();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("int a").append(i).append(" = ").append(i).append("+2*3;\n");
+            sb.append("a").append(i).append(" = a").append(i).append(" * (a").append(i).append(" - 1) / 4;\n");
+            sb.append("int b").append(i).append(";\n");
+            sb.append("(a").append(i).append(" + 10) - 7;\n");
+        }
+        String script = sb.toString();
+
+        ASTNode expected = parser.parse(script);
+        FlatAST flat = parser.parseFlat(script);
+        assertEquals(tree(expected), tree(flat.getRootNode()));
+
+        //用游标先序遍历，类型、文本、符号、位置和深度都与SimpleASTNode一致
+        List<String> nodes = new ArrayList<>();
+        FlatAST.Cursor cursor = flat.cursor();
+        do {
+            nodes.add(cursor.getDepth() + " " + cursor.getType() + " " + cursor.getText()
+                    + " " + cursor.getSymbol() + " " + cursor.getOffset());
+            if (!cursor.gotoFirstChild()) {
+                while (!cursor.gotoNextSibling() && cursor.gotoParent()) {
+                }
+            }
+        } while (cursor.getDepth() > 0);
+        assertEquals(preorder(expected), nodes);
+        assertEquals(flat.size(), nodes.size());
+
+        ScriptException error = assertThrows(ScriptException.class, () -> parser.parseFlat("int a = 1;\nb = 2 +;"));
+        assertEquals("invalid additive expression, expecting the right part. at line 2, column 8", error.getMessage());
+
+        //遍历也不递归
+        flat = parser.parseFlat(repeat("a+", 1000000) + "1;");
+        cursor = flat.cursor();
+        while (cursor.gotoFirstChild()) {
+        }
+        assertEquals(1000001, cursor.getDepth());
+        assertEquals("a", cursor.getText());
+    }
+
+    @Test
+    public void testHashCons() throws Exception {
+        SimpleParser parser = new SimpleParser();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("x").append(i % 10).append(" = rate*factor+base;\n");
+            sb.append("int y").append(i).append(" = (rate*factor+base) * 2;\n");
+        }
+        String script = sb.toString();
+
+        HashConsBuilder builder = new HashConsBuilder();
+        ASTNode shared = parser.parseShared(script, builder);
+        assertEquals(tree(parser.parse(script)), tree(shared));
+        //rate、factor、base、*、+、2、(...)*2，10个不同的赋值语句，1000个声明语句，再加根节点
+        assertEquals(7 + 10 + 1000 + 1, builder.size());
+
+        ASTNode assignment = shared.getChildren().get(0);
+        ASTNode declaration = shared.getChildren().get(1);
+        ASTNode additive = assignment.getChildren().get(0);
+        assertSame(additive, declaration.getChildren().get(0).getChildren().get(0));
+        assertSame(assignment, shared.getChildren().get(20));
+        assertNull(additive.getParent());
+
+        //共享的节点出现在多个位置，不记录位置，执行时的错误不会指向第一次出现的地方
+        assertEquals(-1, additive.getOffset());
+        ScriptException unknown = assertThrows(ScriptException.class, () -> new SimpleScript().evaluate(
+                parser.parseShared("int a = 1;\nb = a;\nb = a;", new HashConsBuilder())));
+        assertEquals("unknown variable: b", unknown.getMessage());
+
+        //结构哈希值与builder无关，另一个builder解析出的相同子树哈希值相同
+        ASTNode other = parser.parseShared("z = rate*factor+base;", new HashConsBuilder());
+        ASTNode copy = other.getChildren().get(0).getChildren().get(0);
+        assertNotSame(additive, copy);
+        assertEquals(additive.hashCode(), copy.hashCode());
+
+        //同一个builder解析另一个脚本，共享已有的子树
+        other = parser.parseShared("z = rate*factor+base;", builder);
+        assertSame(additive, other.getChildren().get(0).getChildren().get(0));
+
+        ScriptException error = assertThrows(ScriptException.class,
+                () -> parser.parseShared("a = 1;\nb = 2 +;", new HashConsBuilder()));
+        assertEquals("invalid additive expression, expecting the right part. at line 2, column 8", error.getMessage());
+    }
+
+    @Test
+    public void testParseCache() throws Exception {
+        ParseCache<FlatAST> flat = ParseCache.flat(1 << 20);
+        FlatAST ast = flat.get("int a = 1 + 2 * 3;");
+        assertSame(ast, flat.get("int a = 1 + 2 * 3;"));
+        assertEquals(tree(new SimpleParser().parse("int a = 1 + 2 * 3;")), tree(ast.getRootNode()));
+        assertEquals(1, flat.getHits());
+        assertEquals(1, flat.getMisses());
+        assertEquals(17 * ast.size() + 2 * 18, flat.getWeight());
+
+        //解析出错不缓存
+        assertThrows(ScriptException.class, () -> flat.get("a = ;"));
+        assertThrows(ScriptException.class, () -> flat.get("a = ;"));
+        assertEquals(3, flat.getMisses());
+        assertEquals(1, flat.size());
+
+        //一个AST比上限的1/16重得多，也会被缓存；只有比整个上限还重的才不缓存
+        ParseCache<FlatAST> small = ParseCache.flat(1000);
+        String heavy = "int a = 1 + 2 * 3 + 4 * 5 + 6 * 7 + 8;";
+        FlatAST heavyAST = small.get(heavy);
+        assertTrue(small.getWeight() > 1000 / 16);
+        assertSame(heavyAST, small.get(heavy));
+        assertEquals(1, small.getHits());
+        String tooHeavy = repeat("a + ", 100) + "1;";
+        assertNotSame(small.get(tooHeavy), small.get(tooHeavy));
+        assertEquals(1, small.size());
+
+        //上限是所有分区共用的，能放下20个同样大小的脚本，其中16个可以在保护区。
+        //用过两次的脚本不会被大量只用一次的脚本挤出去
+        ParseCache<FlatAST> probe = ParseCache.flat(1 << 20);
+        probe.get("int h0000 = 1 + 2 * 3;");
+        long entryWeight = probe.getWeight();
+        ParseCache<FlatAST> cache = ParseCache.flat(20 * entryWeight);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 8; i++) {
+                cache.get(String.format("int h%04d = 1 + 2 * 3;", i));
+            }
+        }
+        for (int i = 0; i < 10000; i++) {
+            cache.get(String.format("int c%04d = 1 + 2 * 3;", i));
+        }
+        long hits = cache.getHits();
+        for (int i = 0; i < 8; i++) {
+            assertNotNull(cache.getIfPresent(String.format("int h%04d = 1 + 2 * 3;", i)));
+        }
+        assertEquals(hits + 8, cache.getHits());
+        assertEquals(10000 + 8 - 20, cache.getEvictions());
+        assertEquals(20, cache.size());
+        assertEquals(20 * entryWeight, cache.getWeight());
+
+        //所有脚本都落在同一个分区时，也能用满整个上限
+        ParseCache<FlatAST> skewed = ParseCache.flat(20 * entryWeight);
+        List<String> sameSegment = new ArrayList<>();
+        for (int i = 0; sameSegment.size() < 40; i++) {
+            String script = String.format("int c%04d = 1 + 2 * 3;", i);
+            int h = script.hashCode();
+            if (((h ^ h >>> 16) & 15) == 0) {
+                sameSegment.add(script);
+                skewed.get(script);
+            }
+        }
+        assertEquals(20, skewed.size());
+        assertNotNull(skewed.getIfPresent(sameSegment.get(39)));
+        assertNull(skewed.getIfPresent(sameSegment.get(0)));
+
+        //多个线程同时访问，同一个脚本总是得到同一个AST
+        ParseCache<ASTNode> shared = ParseCache.shared(1 << 20);
+        int threads = 8;
+        int gets = 20000;
+        ASTNode[][] results = new ASTNode[threads][100];
+        Thread[] workers = new Thread[threads];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < gets; i++) {
+                        int script = (i * 31 + id) % 100;
+                        ASTNode result = shared.get("int v" + script + " = " + script + " * 2;");
+                        if (results[id][script] == null) {
+                            results[id][script] = result;
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertNull(failure[0]);
+        for (int t = 1; t < threads; t++) {
+            for (int i = 0; i < 100; i++) {
+                assertSame(results[0][i], results[t][i]);
+            }
+        }
+        assertEquals((long) threads * gets, shared.getHits() + shared.getMisses());
+        assertTrue(shared.getMisses() >= 100);
+        assertEquals(0, shared.getEvictions());
+        assertEquals(100, shared.size());
+    }
+
+    @Test
+    public void testParseStatements() throws Exception {
+        SimpleParser parser = new SimpleParser();
+        String script = "int a = 1 + 2 * 3;\nb = a * (a - 1);\n(b + 10) / 2;\nint c;\n";
+        List<String> statements = new ArrayList<>();
+        assertEquals(4, parser.parseStatements(script, statement -> statements.add(tree(statement))));
+        List<String> expected = new ArrayList<>();
+        for (ASTNode child : parser.parse(script).getChildren()) {
+            expected.add(tree(child));
+        }
+        assertEquals(expected, statements);
+
+        //比一段长得多的脚本，Token要分很多段解析
+        StringBuilder longer = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            longer.append(script);
+        }
+        statements.clear();
+        assertEquals(8000, parser.parseStatements(longer, statement -> statements.add(tree(statement))));
+        for (int i = 0; i < statements.size(); i++) {
+            assertEquals(expected.get(i % 4), statements.get(i));
+        }
+
+        //出错之前的语句已经交出去了
+        statements.clear();
+        ScriptException error = assertThrows(ScriptException.class,
+                () -> parser.parseStatements("a = 1;\nb = 2 +;", statement -> statements.add(tree(statement))));
+        assertEquals("invalid additive expression, expecting the right part. at line 2, column 8", error.getMessage());
+        assertEquals(1, statements.size());
+
+        //从一个边读边生成的Reader解析：第一条语句交出时只读了开头一小段，整个脚本从来没有完整地放在内存中
+        int total = 200000;
+        long[] read = {0};
+        long[] readAtFirst = {-1};
+        Reader reader = new Reader() {
+            private int line = 0;
+            private String pending = "";
+
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                if (pending.isEmpty()) {
+                    if (line == total) {
+                        return -1;
+                    }
+                    //变量名有限，免得把大量名字驻留在SymbolTable.GLOBAL中
+                    pending = "v" + line % 100 + " = v" + line % 100 + " * 2 + " + line + ";\n";
+                    line++;
+                }
+                int n = Math.min(length, pending.length());
+                pending.getChars(0, n, buffer, offset);
+                pending = pending.substring(n);
+                read[0] += n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        long[] count = {0};
+        assertEquals(total, parser.parseStatements(reader, statement -> {
+            if (readAtFirst[0] < 0) {
+                readAtFirst[0] = read[0];
+            }
+            assertEquals("v" + count[0] % 100, statement.getText());
+            count[0]++;
+        }));
+        assertEquals(total, count[0]);
+        assertTrue(readAtFirst[0] < read[0] / 100);
+    }
+
+    @Test
+    public void testDiagnostics() throws Exception {
+        SimpleParser parser = new SimpleParser();
+        String[] broken = {"b = 2 +;", "int = 3;", "c = a * (2 + 3;", "(* 3);", "int e = 1 2;"};
+        StringBuilder sb = new StringBuilder("int a = 1;\n");
+        for (String line : broken) {
+            sb.append(line).append("\nint d = a;\n");
+        }
+        String script = sb.toString();
+
+        Diagnostics diagnostics = new Diagnostics();
+        ASTNode tree = parser.parse(script, diagnostics);
+        assertEquals(broken.length, diagnostics.size());
+        assertEquals(0, diagnostics.getDropped());
+        //出错的语句被跳过，其余的语句照常解析
+        assertEquals(1 + broken.length, tree.getChildren().size());
+        assertEquals(tree(parser.parse(script.replaceAll("(?m)^(?!int [ad] ).*$", ""))), tree(tree));
+
+        //每个错误都与单独解析那条语句时抛出的异常一致
+        for (int i = 0; i < broken.length; i++) {
+            int line = 2 * i + 2;
+            String prefix = repeat("\n", line - 1);
+            ScriptException error = assertThrows(ScriptException.class, () -> parser.parse(prefix + broken[line / 2 - 1]));
+            assertEquals(error.getMessage(), diagnostics.describe(i));
+            assertEquals(line, diagnostics.getLine(i));
+        }
+
+        //最后一条语句缺少分号
+        diagnostics.clear();
+        assertEquals(1, parser.parse("a = 1;\nb = 2", diagnostics).getChildren().size());
+        //在脚本末尾报错，没有位置
+        assertEquals("invalid statement, expecting semicolon", diagnostics.describe(0));
+        assertEquals(-1, diagnostics.getLine(0));
+
+        //记录满了之后只计数
+        diagnostics = new Diagnostics(2);
+        parser.parse(script, diagnostics);
+        assertEquals(2, diagnostics.size());
+        assertEquals(broken.length - 2, diagnostics.getDropped());
+        assertTrue(diagnostics.toString().endsWith("3 more errors\n"));
+    }
+
+    @Test
+    public void testScriptSlots() throws Exception {
+        //别的脚本在全局符号表中驻留了大量名字
+        for (int i = 0; i < 100000; i++) {
+            SymbolTable.GLOBAL.intern("other" + i);
+        }
+        SimpleParser parser = new SimpleParser();
+        SimpleScript script = new SimpleScript();
+        assertEquals(Integer.valueOf(6), script.evaluate(parser.parse("int x = 2; int y = x * 3; y;")));
+        assertEquals(Integer.valueOf(7), script.evaluate(parser.parse("x = y + 1; x;")));
+        for (int i = 0; i < 100; i++) {
+            script.evaluate(parser.parse("int v" + i + " = " + i + ";"));
+        }
+        assertEquals(Integer.valueOf(99 + 7), script.evaluate(parser.parse("v99 + x;")));
+        ScriptException error = assertThrows(ScriptException.class, () -> script.evaluate(parser.parse("z + 1;")));
+        assertEquals("unknown variable: z at offset 0", error.getMessage());
+
+        //变量数组的大小只取决于这个解释器用到的变量个数，与全局符号表的大小无关
+        Field values = SimpleScript.class.getDeclaredField("values");
+        values.setAccessible(true);
+        assertTrue(((Object[]) values.get(script)).length <= 128);
+
+        //会话自己的符号表，解析和求值用同一个
+        SymbolTable symbols = new SymbolTable(16);
+        SimpleParser sessionParser = new SimpleParser(symbols);
+        SimpleScript session = new SimpleScript(symbols);
+        assertEquals(Integer.valueOf(12), session.evaluate(sessionParser.parse("int x = 3; int y = x * 4; y;")));
+        assertEquals("y", symbols.nameOf(sessionParser.parseFlat("y;").getRootNode().getChildren().get(0).getSymbol()));
+        assertEquals(2, symbols.size());
+    }
+
+    /**
+     * 先序遍历，与testFlat中游标的输出格式相同
+     */
+    private static List<String> preorder(ASTNode root) {
+        List<String> nodes = new ArrayList<>();
+        Deque<ASTNode> stack = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        stack.push(root);
+        depths.push(0);
+        while (!stack.isEmpty()) {
+            ASTNode node = stack.pop();
+            int depth = depths.pop();
+            nodes.add(depth + " " + node.getType() + " " + node.getText() + " " + node.getSymbol() + " " + node.getOffset());
+            for (int i = node.getChildren().size() - 1; i >= 0; i--) {
+                stack.push(node.getChildren().get(i));
+                depths.push(depth + 1);
+            }
+        }
+        return nodes;
+    }
+
+    @Test
+    public void testErrorLocation() {
+        ScriptException error = assertThrows(ScriptException.class,
+                () -> new SimpleParser().parse("int a = 1;\nb = 2 +;"));
+        assertEquals(2, error.getLine());
+        assertEquals(8, error.getColumn());
+        assertEquals("invalid additive expression, expecting the right part. at line 2, column 8", error.getMessage());
+    }
+
+    private static String types(TokenBuffer tokens) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < tokens.size(); i++) {
+            sb.append(tokens.getType(i)).append(' ').append(tokens.getText(i)).append(' ').append(tokens.getStart(i)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    static String tree(ASTNode node) {
+        StringBuilder sb = new StringBuilder();
+        tree(node, sb);
+        return sb.toString();
+    }
+
+    private static void tree(ASTNode node, StringBuilder sb) {
+        sb.append('(').append(node.getType()).append(' ').append(node.getText());
+        for (ASTNode child : node.getChildren()) {
+            sb.append(' ');
+            tree(child, sb);
+        }
+        sb.append(')');
+    }
 }
@@ -0,0 +1,64 @@
+package com.camile.playscript.ch1;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 对比MappedFileLexer逐字节查表和SWAR整段跳过的速度。
+ * 不是单元测试，直接运行main方法：
+ * <p>
+ * java -cp target/classes:target/test-classes com.camile.playscript.ch1.ScanBenchmark [MB]
+ */
+public class ScanBenchmark {
+
+    public static void main(String[] args) {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+
+        run("identifier-heavy", corpus(megabytes,
+                "customerAccountBalance = previousAccountBalance + monthlyInterestRate * principalAmount;\n"));
+        run("literal-heavy", corpus(megabytes,
+                "total = 123456789012 + 98765432109876 * 44444444444 - 1000000000000000;\n"));
+        run("short-tokens", corpus(megabytes,
+                "int a = b+3; c = (a*2)/d; a >= 1;\n"));
+    }
+
+    private static ByteBuffer corpus(int megabytes, String line) {
+        StringBuilder sb = new StringBuilder(megabytes << 20);
+        while (sb.length() < megabytes << 20) {
+            sb.append(line);
+        }
+        return ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void run(String name, ByteBuffer corpus) {
+        MappedFileLexer perByte = new MappedFileLexer(1 << 30, false);
+        MappedFileLexer swar = new MappedFileLexer(1 << 30, true);
+
+        double perByteSpeed = measure(perByte, corpus);
+        double swarSpeed = measure(swar, corpus);
+        System.out.printf("%-18s per-byte %8.1f MB/s   swar %8.1f MB/s   speedup %.2fx%n",
+                name, perByteSpeed, swarSpeed, swarSpeed / perByteSpeed);
+    }
+
+    /**
+     * 先预热，再取多次运行中最快的一次
+     *
+     * @return MB/s
+     */
+    private static double measure(MappedFileLexer lexer, ByteBuffer corpus) {
+        long best = Long.MAX_VALUE;
+        int tokens = 0;
+        for (int i = 0; i < 15; i++) {
+            long begin = System.nanoTime();
+            tokens += lexer.tokenize(corpus.duplicate()).size();
+            long elapsed = System.nanoTime() - begin;
+            if (i >= 5) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        if (tokens == 0) {
+            throw new IllegalStateException("no tokens");
+        }
+        return corpus.limit() / (1024.0 * 1024.0) / (best / 1e9);
+    }
+}